@@ -0,0 +1,78 @@
+package com.example.spark.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Synthetic customers and slide albums in a temporary workspaces directory, for the benchmarks.
+ * Each slide album has the files of a typical album: the svg, its json data and a thumbnail.
+ * The directory is passed to the application by the workspaces.dir system property (see ConfigUtil.WORKSPACES_DIR),
+ * so the workspace has to be created before the application configuration is loaded. 
+ * The catalog state and the previews cache are kept in the temporary directory as well.
+ * @author Elitza Haltakova
+ *
+ */
+public class BenchmarkWorkspace {
+
+	private static final String CUSTOMER_PREFIX = "benchmark-";
+	private static final byte[] SVG = "<svg xmlns=\"http://www.w3.org/2000/svg\"><rect width=\"10\" height=\"10\"/></svg>".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] JSON = "{\"slides\":[{\"id\":1,\"title\":\"Slide 1\"}]}".getBytes(StandardCharsets.UTF_8);
+
+	private final File workspacesDir;
+	private final File tempDir;
+	private final List<String> customers = new ArrayList<String>();
+
+	/**
+	 * Create the slide albums, spread evenly over the customers. 
+	 * A workspaces directory already selected by the workspaces.dir system property is used as is, 
+	 * e.g. by a second workspace in the same JVM.
+	 */
+	public BenchmarkWorkspace(int customers, int slideAlbums) throws IOException {
+		String selectedDir = System.getProperty("workspaces.dir");
+		if(selectedDir != null) {
+			workspacesDir = new File(selectedDir);
+			tempDir = null;
+		} else {
+			tempDir = Files.createTempDirectory("slidealbums-benchmark-").toFile();
+			workspacesDir = new File(tempDir, "workspaces");
+			System.setProperty("workspaces.dir", workspacesDir.getPath());
+			System.setProperty("catalog.state.dir", new File(tempDir, "catalog").getPath());
+			System.setProperty("preview.cache.dir", new File(tempDir, "previews").getPath());
+		}
+		for(int c = 0; c < customers; c++) {
+			String customer = CUSTOMER_PREFIX + c;
+			this.customers.add(customer);
+			for(int i = c; i < slideAlbums; i += customers) {
+				File slideAlbumDir = new File(workspacesDir, customer + "/Slide album " + i);
+				if(!slideAlbumDir.mkdirs() && !slideAlbumDir.isDirectory()) {
+					throw new IOException("Slide album directory " + slideAlbumDir + " cannot be created.");
+				}
+				Files.write(new File(slideAlbumDir, "album.svg").toPath(), SVG);
+				Files.write(new File(slideAlbumDir, "album.json").toPath(), JSON);
+				Files.write(new File(slideAlbumDir, "thumbnail.png").toPath(), new byte[1024]);
+			}
+		}
+	}
+
+	public List<String> getCustomers() {
+		return customers;
+	}
+
+	/**
+	 * Delete the synthetic customers, and the temporary directory if this workspace created it.
+	 */
+	public void delete() throws IOException {
+		for(String customer : customers) {
+			FileUtils.deleteDirectory(new File(workspacesDir, customer));
+		}
+		if(tempDir != null) {
+			FileUtils.deleteDirectory(tempDir);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package com.example.spark.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.spark.app.Application;
+import com.example.spark.app.Path;
+import com.example.spark.util.ConfigUtil;
+
+import spark.Spark;
+
+/**
+ * Requests through the full Spark filter chain of the application, running on the embedded Jetty server.
+ * Connections are kept alive, so the numbers are those of the server, not of connection setup.
+ * Run with -t to measure concurrent clients.
+ * @author Elitza Haltakova
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class FilterChainBenchmark {
+
+	private static final String BASE_URL = "http://localhost:" + ConfigUtil.PORT;
+
+	private Application application;
+	private CloseableHttpClient client;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		application = new Application();
+		application.init();
+		Spark.awaitInitialization();
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(256);
+		connectionManager.setDefaultMaxPerRoute(256);
+		client = HttpClients.custom().setConnectionManager(connectionManager).build();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		client.close();
+		Spark.stop();
+		application.destroy();
+	}
+
+	/**
+	 * Plain route, passing the global before and after filters only.
+	 */
+	@Benchmark
+	public int hello() throws IOException {
+		return execute(new HttpGet(BASE_URL + "/hello"));
+	}
+
+	/**
+	 * Rendered page: filters, Velocity template rendering and the layout.
+	 */
+	@Benchmark
+	public int loginPage() throws IOException {
+		HttpGet get = new HttpGet(BASE_URL + Path.LOGIN);
+		get.setHeader("Accept", "text/html");
+		return execute(get);
+	}
+
+	/**
+	 * API request without a session, rejected by the session token filter.
+	 */
+	@Benchmark
+	public int apiWithoutSession() throws IOException {
+		HttpPost post = new HttpPost(BASE_URL + Path.AJAX_GET_SLIDEALBUMS);
+		post.setHeader("Accept", "application/json");
+		post.setHeader("Accept-Encoding", "gzip");
+		post.setEntity(new StringEntity("{}", ContentType.APPLICATION_JSON));
+		return execute(post);
+	}
+
+	private int execute(HttpUriRequest request) throws IOException {
+		HttpResponse response = client.execute(request);
+		EntityUtils.consume(response.getEntity());
+		return response.getStatusLine().getStatusCode();
+	}
+}
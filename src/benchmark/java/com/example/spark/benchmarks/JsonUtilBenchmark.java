@@ -0,0 +1,93 @@
+package com.example.spark.benchmarks;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.spark.slidealbums.SlideAlbum;
+import com.example.spark.slidealbums.SlideAlbumFile;
+import com.example.spark.util.JsonUtil;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * JSON serialization of slide album listings and parsing of request bodies and user contexts.
+ * @author Elitza Haltakova
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class JsonUtilBenchmark {
+
+	static final String USER_CONTEXT_JSON = "{\"sessionToken\":\"0f8fad5b-d9cb-469f-a165-70867728950e\",\"id\":42,"
+			+ "\"username\":\"jdoe\",\"firstname\":\"John\",\"lastname\":\"Doe\",\"isAdmin\":\"0\",\"shouldChangePassword\":\"0\","
+			+ "\"customers\":[\"Bosch\",\"Siemens\",\"Continental\",\"Daimler\"]}";
+	private static final String DELETE_REQUEST_JSON = "{\"title\":\"Slide album 1\",\"customer\":\"Bosch\"}";
+	private static final Type SLIDEALBUM_LIST_TYPE = new TypeToken<List<SlideAlbum>>(){}.getType();
+
+	@Param({"10", "1000", "10000"})
+	public int slideAlbums;
+
+	private List<SlideAlbum> slideAlbumList;
+	private String slideAlbumsJson;
+
+	@Setup
+	public void setUp() {
+		slideAlbumList = new ArrayList<SlideAlbum>(slideAlbums);
+		long now = System.currentTimeMillis();
+		for(int i = 0; i < slideAlbums; i++) {
+			slideAlbumList.add(new SlideAlbum.Builder("Slide album " + i, "Bosch")
+					.modificationDate(now - i * 60000L)
+					.svg("album")
+					.lockedBy(i % 10 == 0 ? "jdoe" : null)
+					.files(Arrays.asList(new SlideAlbumFile("svg", "album"), new SlideAlbumFile("json", "album"), new SlideAlbumFile("png", "thumbnail")))
+					.build());
+		}
+		slideAlbumsJson = JsonUtil.toJson(slideAlbumList);
+	}
+
+	@Benchmark
+	public String toJson() {
+		return JsonUtil.toJson(slideAlbumList);
+	}
+
+	@Benchmark
+	public void toJsonStream() throws IOException {
+		JsonUtil.toJsonStream(slideAlbumList, SlideAlbum.class, NullOutputStream.NULL_OUTPUT_STREAM);
+	}
+
+	@Benchmark
+	public List<SlideAlbum> fromJsonSlideAlbums() {
+		return JsonUtil.fromJsonToType(slideAlbumsJson, SLIDEALBUM_LIST_TYPE);
+	}
+
+	@Benchmark
+	public HashMap<String, Object> fromJsonRequestBody() {
+		return JsonUtil.fromJson(DELETE_REQUEST_JSON);
+	}
+
+	@Benchmark
+	public HashMap<String, Object> fromJsonUserContext() {
+		return JsonUtil.fromJson(USER_CONTEXT_JSON);
+	}
+}
@@ -0,0 +1,81 @@
+package com.example.spark.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.spark.auth.SessionManager;
+import com.example.spark.auth.UserContext;
+
+import spark.Request;
+import spark.RequestResponseFactory;
+import spark.routematch.RouteMatch;
+
+/**
+ * Parsing the user context returned by the authentication server into the session and the session store, as done on every login.
+ * The servlet request and session are in-memory stand-ins, so only the parsing, the session access and the store write are measured.
+ * @author Elitza Haltakova
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SessionManagerBenchmark {
+
+	private Request request;
+
+	@Setup
+	public void setUp() {
+		Map<String, Object> attributes = new HashMap<String, Object>();
+		HttpSession session = (HttpSession) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {HttpSession.class}, (proxy, method, args) -> {
+			switch(method.getName()) {
+			case "getId":
+				return "benchmark";
+			case "getAttribute":
+				return attributes.get(args[0]);
+			case "setAttribute":
+				return attributes.put((String) args[0], args[1]);
+			case "removeAttribute":
+				return attributes.remove(args[0]);
+			default:
+				return null;
+			}
+		});
+		HttpServletRequest servletRequest = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {HttpServletRequest.class}, (proxy, method, args) -> {
+			switch(method.getName()) {
+			case "getSession":
+				return session;
+			case "getPathInfo":
+			case "getRequestURI":
+				return "/login";
+			default:
+				return null;
+			}
+		});
+		request = RequestResponseFactory.create(new RouteMatch(null, "/login", "/login", "*/*"), servletRequest);
+	}
+
+	@Benchmark
+	public UserContext setUserContext() {
+		SessionManager.setUserContext(request, JsonUtilBenchmark.USER_CONTEXT_JSON);
+		return SessionManager.getUserContext(request);
+	}
+}
@@ -0,0 +1,85 @@
+package com.example.spark.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.spark.slidealbums.SlideAlbum;
+import com.example.spark.slidealbums.SlideAlbumsMgr;
+import com.example.spark.slidealbums.SlideAlbumsPage;
+import com.example.spark.slidealbums.SlideAlbumsQuery;
+import com.example.spark.util.JsonUtil;
+
+/**
+ * Listing the slide albums of a user from the catalog, over synthetic workspaces of 10 to 100k slide albums.
+ * Every trial runs in its own fork, so the static catalog only holds the workspace of the trial.
+ * @author Elitza Haltakova
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SlideAlbumsMgrBenchmark {
+
+	@Param({"10", "1000", "10000", "100000"})
+	public int slideAlbums;
+
+	@Param({"4"})
+	public int customers;
+
+	private BenchmarkWorkspace workspace;
+	private List<String> userCustomers;
+	private SlideAlbumsMgr slideAlbumsMgr;
+	private SlideAlbumsQuery firstPage;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		workspace = new BenchmarkWorkspace(customers, slideAlbums);
+		userCustomers = workspace.getCustomers();
+		slideAlbumsMgr = new SlideAlbumsMgr();
+		SlideAlbumsMgr.startCatalog();
+		firstPage = new SlideAlbumsQuery.Builder().limit(20).build();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		SlideAlbumsMgr.shutdown();
+		workspace.delete();
+	}
+
+	@Benchmark
+	public List<SlideAlbum> getSlideAlbums() {
+		return slideAlbumsMgr.getSlideAlbums(userCustomers);
+	}
+
+	/**
+	 * The listing as served by the API: streamed to JSON without collecting it first.
+	 */
+	@Benchmark
+	public void streamSlideAlbumsJson() throws IOException {
+		JsonUtil.toJsonStream(slideAlbumsMgr.iterateSlideAlbums(userCustomers), SlideAlbum.class, NullOutputStream.NULL_OUTPUT_STREAM);
+	}
+
+	@Benchmark
+	public SlideAlbumsPage getSlideAlbumsFirstPage() {
+		return slideAlbumsMgr.getSlideAlbumsPage(userCustomers, firstPage);
+	}
+}
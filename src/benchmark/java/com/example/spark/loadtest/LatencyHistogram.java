@@ -0,0 +1,77 @@
+package com.example.spark.loadtest;
+
+/**
+ * Log-linear histogram of latencies in microseconds: exact below 64 microseconds, then 32 buckets per power of two,
+ * so recorded values are accurate to about 3%. Not thread safe, every load test worker records into its own
+ * histograms and they are merged for the report.
+ * @author Elitza Haltakova
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final long[] counts = new long[(63 - SUB_BUCKET_BITS) * SUB_BUCKETS + 2 * SUB_BUCKETS];
+	private long count;
+	private long max;
+
+	public void record(long micros) {
+		long value = Math.max(0, micros);
+		counts[index(value)]++;
+		count++;
+		max = Math.max(max, value);
+	}
+
+	public void add(LatencyHistogram other) {
+		for(int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		max = Math.max(max, other.max);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * @param percentile e.g. 99.9
+	 * @return the highest latency of the bucket holding the percentile, in microseconds
+	 */
+	public long getPercentile(double percentile) {
+		if(count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for(int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if(seen >= rank) {
+				return Math.min(max, highestValue(i));
+			}
+		}
+		return max;
+	}
+
+	private static int index(long value) {
+		if(value < 2 * SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		return (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + (int) (value >>> (exponent - SUB_BUCKET_BITS));
+	}
+
+	private static long highestValue(int index) {
+		if(index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((mantissa + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+}
@@ -0,0 +1,305 @@
+package com.example.spark.loadtest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.mime.MultipartEntity;
+import org.apache.http.entity.mime.content.InputStreamBody;
+import org.apache.http.entity.mime.content.StringBody;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+
+import com.example.spark.app.Application;
+import com.example.spark.app.Path;
+import com.example.spark.benchmarks.BenchmarkWorkspace;
+import com.example.spark.util.ConfigUtil;
+import com.example.spark.util.JsonUtil;
+
+import spark.Spark;
+
+/**
+ * Load driver running login, list, create and delete scenarios against the application with concurrent virtual users.
+ * By default the application and a stub Authentication API are started in this JVM, so the whole test runs offline.
+ * Reports throughput, latency percentiles and errors per operation.
+ * <p>
+ * Options: --scenario (login, list, create, delete, mixed), --users, --duration and --warmup (seconds), --albums (seeded slide albums),
+ * --url (test an application already running, its auth.api.url pointing to a stub), --auth-port, --auth-latency-ms, --auth-jitter-ms, --auth-error-rate,
+ * --token-verification (remote, local: the stub issues signed session tokens verified by the application)
+ * @author Elitza Haltakova
+ *
+ */
+public class LoadTest {
+
+	private static final String PASSWORD = "password";
+	private static final byte[] SVG = "<svg xmlns=\"http://www.w3.org/2000/svg\"><rect width=\"10\" height=\"10\"/></svg>".getBytes(StandardCharsets.UTF_8);
+
+	/**
+	 * Requests the virtual users send.
+	 */
+	enum Operation {
+		LOGIN, LOGOUT, LIST, CREATE, DELETE
+	}
+
+	/**
+	 * Operations a virtual user repeats and the ones of them that are reported.
+	 */
+	enum Scenario {
+		LOGIN(Arrays.asList(Operation.LOGIN, Operation.LOGOUT), Arrays.asList(Operation.LOGIN)),
+		LIST(Arrays.asList(Operation.LIST), Arrays.asList(Operation.LIST)),
+		CREATE(Arrays.asList(Operation.CREATE, Operation.DELETE), Arrays.asList(Operation.CREATE)),
+		DELETE(Arrays.asList(Operation.CREATE, Operation.DELETE), Arrays.asList(Operation.DELETE)),
+		MIXED(Arrays.asList(Operation.LIST, Operation.CREATE, Operation.LIST, Operation.DELETE), Arrays.asList(Operation.LIST, Operation.CREATE, Operation.DELETE));
+
+		final List<Operation> loop;
+		final List<Operation> reported;
+
+		Scenario(List<Operation> loop, List<Operation> reported) {
+			this.loop = loop;
+			this.reported = reported;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = parseOptions(args);
+		Scenario scenario = Scenario.valueOf(options.getOrDefault("scenario", "mixed").toUpperCase());
+		int users = Integer.parseInt(options.getOrDefault("users", "16"));
+		long durationMillis = Long.parseLong(options.getOrDefault("duration", "30")) * 1000;
+		long warmupMillis = Long.parseLong(options.getOrDefault("warmup", "5")) * 1000;
+		String url = options.get("url");
+		boolean localTokenVerification = "local".equalsIgnoreCase(options.getOrDefault("token-verification", "remote"));
+
+		BenchmarkWorkspace workspace = null;
+		StubAuthServer authServer = null;
+		Application application = null;
+		if(url == null) {
+			workspace = new BenchmarkWorkspace(1, Integer.parseInt(options.getOrDefault("albums", "1000")));
+			authServer = new StubAuthServer.Builder()
+					.port(Integer.parseInt(options.getOrDefault("auth-port", "1818")))
+					.password(PASSWORD)
+					.customers(workspace.getCustomers())
+					.latency(Long.parseLong(options.getOrDefault("auth-latency-ms", "20")), Long.parseLong(options.getOrDefault("auth-jitter-ms", "10")))
+					.errorRate(Double.parseDouble(options.getOrDefault("auth-error-rate", "0")))
+					.signedTokens(localTokenVerification)
+					.build();
+			authServer.start();
+			// before the application configuration is loaded
+			System.setProperty("auth.api.url", authServer.getUrl());
+			System.setProperty("auth.token.verification", localTokenVerification ? "LOCAL" : "REMOTE");
+			application = new Application();
+			application.init();
+			Spark.awaitInitialization();
+			url = "http://localhost:" + ConfigUtil.PORT;
+		}
+		String customer = workspace != null ? workspace.getCustomers().get(0) : options.getOrDefault("customer", "Bosch");
+
+		try {
+			System.out.println("Scenario " + scenario.name().toLowerCase() + ", " + users + " users, " + (durationMillis / 1000) + " s against " + url);
+			List<VirtualUser> virtualUsers = new ArrayList<VirtualUser>();
+			for(int i = 0; i < users; i++) {
+				virtualUsers.add(new VirtualUser(url, "loadtest" + i, customer, scenario));
+			}
+			long start = System.currentTimeMillis();
+			long measureFrom = start + warmupMillis;
+			long end = measureFrom + durationMillis;
+			CountDownLatch done = new CountDownLatch(users);
+			for(VirtualUser virtualUser : virtualUsers) {
+				Thread thread = new Thread(() -> {
+					try {
+						virtualUser.run(measureFrom, end);
+					} finally {
+						done.countDown();
+					}
+				}, "loadtest-" + virtualUser.username);
+				thread.setDaemon(true);
+				thread.start();
+			}
+			done.await();
+			report(scenario, virtualUsers, durationMillis);
+			if(authServer != null) {
+				System.out.println("Authentication API calls: " + authServer.getCalls() + " (token validations: " + authServer.getValidations() 
+						+ "), injected failures: " + authServer.getFailures());
+			}
+		} finally {
+			if(application != null) {
+				Spark.stop();
+				application.destroy();
+			}
+			if(authServer != null) {
+				authServer.stop();
+			}
+			if(workspace != null) {
+				workspace.delete();
+			}
+		}
+		System.exit(0);
+	}
+
+	private static void report(Scenario scenario, List<VirtualUser> virtualUsers, long durationMillis) {
+		System.out.println(String.format("%-8s %10s %8s %12s %10s %10s %10s %10s", "", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+		for(Operation operation : scenario.reported) {
+			LatencyHistogram latencies = new LatencyHistogram();
+			long errors = 0;
+			for(VirtualUser virtualUser : virtualUsers) {
+				latencies.add(virtualUser.latencies.get(operation));
+				errors += virtualUser.errors.get(operation)[0];
+			}
+			System.out.println(String.format("%-8s %10d %8d %12.1f %10.2f %10.2f %10.2f %10.2f", operation.name().toLowerCase(), latencies.getCount() + errors, errors,
+					(latencies.getCount() + errors) * 1000.0 / durationMillis, latencies.getPercentile(50) / 1000.0, latencies.getPercentile(99) / 1000.0,
+					latencies.getPercentile(99.9) / 1000.0, latencies.getMax() / 1000.0));
+		}
+	}
+
+	/**
+	 * A user with its own session, repeating the operations of the scenario back to back (closed model).
+	 */
+	private static class VirtualUser {
+
+		private final String url;
+		private final String username;
+		private final String customer;
+		private final Scenario scenario;
+		private final CloseableHttpClient client;
+		private final Map<Operation, LatencyHistogram> latencies = new EnumMap<Operation, LatencyHistogram>(Operation.class);
+		private final Map<Operation, long[]> errors = new EnumMap<Operation, long[]>(Operation.class);
+		private int slideAlbums;
+		private boolean loggedIn;
+
+		VirtualUser(String url, String username, String customer, Scenario scenario) {
+			this.url = url;
+			this.username = username;
+			this.customer = customer;
+			this.scenario = scenario;
+			this.client = HttpClients.custom().setDefaultCookieStore(new BasicCookieStore()).disableRedirectHandling().setMaxConnPerRoute(1).build();
+			for(Operation operation : Operation.values()) {
+				latencies.put(operation, new LatencyHistogram());
+				errors.put(operation, new long[1]);
+			}
+		}
+
+		void run(long measureFrom, long end) {
+			try {
+				while(System.currentTimeMillis() < end) {
+					// log in again after the session was rejected, as the web client does
+					if(scenario != Scenario.LOGIN && !loggedIn && !execute(Operation.LOGIN)) {
+						continue;
+					}
+					for(Operation operation : scenario.loop) {
+						long start = System.nanoTime();
+						boolean success = execute(operation);
+						long micros = (System.nanoTime() - start) / 1000;
+						if(System.currentTimeMillis() >= measureFrom) {
+							if(success) {
+								latencies.get(operation).record(micros);
+							} else {
+								errors.get(operation)[0]++;
+							}
+						}
+					}
+				}
+			} finally {
+				try {
+					client.close();
+				} catch (IOException e) {
+					// nothing to release
+				}
+			}
+		}
+
+		private boolean execute(Operation operation) {
+			try {
+				switch(operation) {
+				case LOGIN:
+					HttpPost login = new HttpPost(url + Path.LOGIN);
+					login.setEntity(new UrlEncodedFormEntity(Arrays.asList(new BasicNameValuePair("username", username), new BasicNameValuePair("password", PASSWORD)), StandardCharsets.UTF_8));
+					loggedIn = send(login) == 302;
+					return loggedIn;
+				case LOGOUT:
+					loggedIn = false;
+					return send(new HttpGet(url + Path.LOGOUT)) == 302;
+				case LIST:
+					return send(json(Path.AJAX_GET_SLIDEALBUMS, "{}")) == 200;
+				case CREATE:
+					HttpPost create = new HttpPost(url + Path.AJAX_CREATE_SLIDEALBUM);
+					MultipartEntity entity = new MultipartEntity();
+					entity.addPart("title", new StringBody(title(slideAlbums + 1)));
+					entity.addPart("customer", new StringBody(customer));
+					entity.addPart("files[]", new InputStreamBody(new ByteArrayInputStream(SVG), "album.svg"));
+					create.setEntity(entity);
+					boolean created = send(create) == 200;
+					if(created) {
+						slideAlbums++;
+					}
+					return created;
+				case DELETE:
+					if(slideAlbums == 0) {
+						return true;
+					}
+					Map<String, Object> data = new HashMap<String, Object>();
+					data.put("title", title(slideAlbums--));
+					data.put("customer", customer);
+					return send(json(Path.AJAX_DELETE_SLIDEALBUM, JsonUtil.toJson(data))) == 200;
+				default:
+					return false;
+				}
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		private String title(int number) {
+			return "Load test " + username + " " + number;
+		}
+
+		private HttpPost json(String path, String body) {
+			HttpPost post = new HttpPost(url + path);
+			post.setHeader("Accept", "application/json");
+			post.setHeader("Accept-Encoding", "gzip");
+			post.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+			return post;
+		}
+
+		private int send(HttpUriRequest request) throws IOException {
+			HttpResponse response = client.execute(request);
+			EntityUtils.consume(response.getEntity());
+			int status = response.getStatusLine().getStatusCode();
+			if(status == 401) {
+				loggedIn = false;
+			}
+			return status;
+		}
+	}
+
+	static Map<String, String> parseOptions(String[] args) {
+		Map<String, String> options = new HashMap<String, String>();
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			if(!args[i].startsWith("--")) {
+				throw new IllegalArgumentException("Unexpected argument " + args[i] + ", expected --option value pairs.");
+			}
+			options.put(args[i].substring(2), args[i + 1]);
+		}
+		return options;
+	}
+
+	static List<String> splitList(String value) {
+		return Arrays.stream(value.split(",")).map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toList());
+	}
+}
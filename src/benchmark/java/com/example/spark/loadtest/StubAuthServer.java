@@ -0,0 +1,302 @@
+package com.example.spark.loadtest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.example.spark.auth.SignedSessionToken;
+import com.example.spark.util.JsonUtil;
+
+/**
+ * Stand-in for the external SALSSA2 Authentication API (login, logout, validateToken, keys, revocations), for load tests without the real service.
+ * Any user logs in with the configured password. Every call is delayed by the configured latency and fails
+ * with a 500 at the configured error rate. Optionally issues signed session tokens for the local token verification.
+ * @author Elitza Haltakova
+ *
+ */
+public class StubAuthServer {
+
+	public static final String API_PATH = "/SALSSA2-API/api/auth";
+	private static final String KEY_ID = "stub-1";
+	private static final long SIGNED_TOKEN_TTL_SECONDS = 60 * 60;
+
+	private final int port;
+	private final String password;
+	private final List<String> customers;
+	private final long latencyMillis;
+	private final long latencyJitterMillis;
+	private final double errorRate;
+	private final boolean signedTokens;
+	private final KeyPair signingKey = generateKeyPair();
+
+	private final Map<String, String> sessions = new ConcurrentHashMap<String, String>();
+	private final AtomicInteger userIds = new AtomicInteger();
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder validations = new LongAdder();
+	private final Map<String, Long> revoked = new ConcurrentHashMap<String, Long>();
+	private Server server;
+
+	private StubAuthServer(Builder builder) {
+		this.port = builder.port;
+		this.password = builder.password;
+		this.customers = builder.customers;
+		this.latencyMillis = builder.latencyMillis;
+		this.latencyJitterMillis = builder.latencyJitterMillis;
+		this.errorRate = builder.errorRate;
+		this.signedTokens = builder.signedTokens;
+	}
+
+	public static class Builder {
+
+		private int port = 1818;
+		private String password = "password";
+		private List<String> customers = new ArrayList<String>();
+		private long latencyMillis;
+		private long latencyJitterMillis;
+		private double errorRate;
+		private boolean signedTokens;
+
+		public StubAuthServer build() {
+			return new StubAuthServer(this);
+		}
+
+		public Builder port(int port) {
+			this.port = port;
+			return this;
+		}
+
+		public Builder password(String password) {
+			this.password = password;
+			return this;
+		}
+
+		public Builder customers(List<String> customers) {
+			this.customers = customers;
+			return this;
+		}
+
+		/**
+		 * Delay every call by latency plus a uniformly distributed random jitter.
+		 */
+		public Builder latency(long latencyMillis, long latencyJitterMillis) {
+			this.latencyMillis = latencyMillis;
+			this.latencyJitterMillis = latencyJitterMillis;
+			return this;
+		}
+
+		/**
+		 * Fraction of calls (0 to 1) answered with a 500 error.
+		 */
+		public Builder errorRate(double errorRate) {
+			this.errorRate = errorRate;
+			return this;
+		}
+
+		/**
+		 * Issue ES256 signed session tokens and publish the public key, instead of opaque tokens.
+		 */
+		public Builder signedTokens(boolean signedTokens) {
+			this.signedTokens = signedTokens;
+			return this;
+		}
+	}
+
+	public void start() throws Exception {
+		server = new Server(new QueuedThreadPool(500, 8));
+		ServerConnector connector = new ServerConnector(server);
+		connector.setPort(port);
+		server.addConnector(connector);
+		server.setHandler(new AbstractHandler() {
+			@Override
+			public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+				baseRequest.setHandled(true);
+				handleCall(target, request, response);
+			}
+		});
+		server.start();
+	}
+
+	public void stop() throws Exception {
+		if(server != null) {
+			server.stop();
+		}
+	}
+
+	/**
+	 * Base URL to set as auth.api.url of the application.
+	 */
+	public String getUrl() {
+		return "http://localhost:" + port + API_PATH;
+	}
+
+	public long getCalls() {
+		return calls.sum();
+	}
+
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	public long getValidations() {
+		return validations.sum();
+	}
+
+	private void handleCall(String target, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		calls.increment();
+		delay();
+		if(errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+			failures.increment();
+			respond(response, 500, JsonUtil.toJson("Internal server error."));
+			return;
+		}
+		HashMap<String, Object> body = JsonUtil.fromJson(IOUtils.toString(request.getInputStream(), StandardCharsets.UTF_8));
+		if(body == null || !"POST".equals(request.getMethod())) {
+			respond(response, 400, JsonUtil.toJson("Invalid request."));
+			return;
+		}
+		switch(target) {
+		case API_PATH + "/login":
+			String username = (String) body.get("username");
+			if(username == null || !password.equals(body.get("password"))) {
+				respond(response, 401, JsonUtil.toJson("Invalid credentials."));
+				return;
+			}
+			String sessionToken = signedTokens ? SignedSessionToken.sign(KEY_ID, signingKey.getPrivate(), UUID.randomUUID().toString(), username, 
+					System.currentTimeMillis() / 1000 + SIGNED_TOKEN_TTL_SECONDS, customers) : UUID.randomUUID().toString();
+			sessions.put(sessionToken, username);
+			respond(response, 200, userContext(sessionToken, username));
+			return;
+		case API_PATH + "/logout":
+			sessions.remove(body.get("sessionToken"));
+			SignedSessionToken token = signedTokens && body.get("sessionToken") != null ? SignedSessionToken.parse((String) body.get("sessionToken")) : null;
+			if(token != null) {
+				revoked.put(token.getTokenId(), token.getExpiresAt());
+			}
+			respond(response, 200, JsonUtil.toJson(""));
+			return;
+		case API_PATH + "/validateToken":
+			validations.increment();
+			boolean valid = body.get("sessionToken") != null && sessions.containsKey(body.get("sessionToken"));
+			respond(response, valid ? 200 : 401, JsonUtil.toJson(valid ? "" : "Invalid session token."));
+			return;
+		case API_PATH + "/keys":
+			respond(response, 200, keys());
+			return;
+		case API_PATH + "/revocations":
+			revoked.values().removeIf(expiresAt -> expiresAt < System.currentTimeMillis() / 1000);
+			respond(response, 200, JsonUtil.toJson(Collections.singletonMap("revoked", new ArrayList<String>(revoked.keySet()))));
+			return;
+		default:
+			respond(response, 404, JsonUtil.toJson("Not found."));
+		}
+	}
+
+	/**
+	 * User context in the format of the Authentication API login response.
+	 */
+	private String userContext(String sessionToken, String username) {
+		Map<String, Object> userContext = new HashMap<String, Object>();
+		userContext.put("sessionToken", sessionToken);
+		userContext.put("id", userIds.incrementAndGet());
+		userContext.put("username", username);
+		userContext.put("firstname", username);
+		userContext.put("lastname", "Load Test");
+		userContext.put("isAdmin", "0");
+		userContext.put("shouldChangePassword", "0");
+		userContext.put("customers", customers);
+		return JsonUtil.toJson(userContext);
+	}
+
+	private static KeyPair generateKeyPair() {
+		try {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+			generator.initialize(new ECGenParameterSpec("secp256r1"));
+			return generator.generateKeyPair();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Key set in the JSON Web Key format, empty unless signed tokens are issued.
+	 */
+	private String keys() {
+		List<Map<String, Object>> keys = new ArrayList<Map<String, Object>>();
+		if(signedTokens) {
+			Map<String, Object> key = new HashMap<String, Object>();
+			ECPublicKey publicKey = (ECPublicKey) signingKey.getPublic();
+			key.put("kty", "EC");
+			key.put("crv", SignedSessionToken.CURVE);
+			key.put("kid", KEY_ID);
+			key.put("alg", SignedSessionToken.ALGORITHM);
+			key.put("x", Base64.getUrlEncoder().withoutPadding().encodeToString(SignedSessionToken.coordinate(publicKey.getW().getAffineX())));
+			key.put("y", Base64.getUrlEncoder().withoutPadding().encodeToString(SignedSessionToken.coordinate(publicKey.getW().getAffineY())));
+			keys.add(key);
+		}
+		return JsonUtil.toJson(Collections.singletonMap("keys", keys));
+	}
+
+	private void delay() {
+		long delay = latencyMillis + (latencyJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(latencyJitterMillis + 1) : 0);
+		if(delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static void respond(HttpServletResponse response, int status, String json) throws IOException {
+		byte[] content = json.getBytes(StandardCharsets.UTF_8);
+		response.setStatus(status);
+		response.setContentType("application/json");
+		response.setContentLength(content.length);
+		response.getOutputStream().write(content);
+	}
+
+	/**
+	 * Run the stub standalone, e.g. to load test an application started separately with -Dauth.api.url.
+	 * Arguments: --port, --password, --customers (comma separated), --latency-ms, --jitter-ms, --error-rate, --signed-tokens (true, false)
+	 */
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = LoadTest.parseOptions(args);
+		StubAuthServer server = new StubAuthServer.Builder()
+				.port(Integer.parseInt(options.getOrDefault("port", "1818")))
+				.password(options.getOrDefault("password", "password"))
+				.customers(LoadTest.splitList(options.getOrDefault("customers", "Bosch")))
+				.latency(Long.parseLong(options.getOrDefault("latency-ms", "0")), Long.parseLong(options.getOrDefault("jitter-ms", "0")))
+				.errorRate(Double.parseDouble(options.getOrDefault("error-rate", "0")))
+				.signedTokens(Boolean.parseBoolean(options.getOrDefault("signed-tokens", "false")))
+				.build();
+		server.start();
+		System.out.println("Stub Authentication API listening at " + server.getUrl());
+		server.server.join();
+	}
+}
@@ -3,13 +3,25 @@ package com.example.spark.app;
 import static spark.Spark.*;
 import static spark.debug.DebugScreen.*;
 
+import com.example.spark.auth.AuthServiceUnavailableException;
+import com.example.spark.auth.AuthenticationMgr;
+import com.example.spark.auth.SessionManager;
 import com.example.spark.index.IndexController;
 import com.example.spark.login.LoginController;
 import com.example.spark.slidealbums.SlideAlbumsController;
+import com.example.spark.slidealbums.SlideAlbumsMgr;
+import com.example.spark.util.AssetsUtil;
 import com.example.spark.util.CORSUtil;
+import com.example.spark.util.CircuitBreaker;
 import com.example.spark.util.ConfigUtil;
+import com.example.spark.util.CompressionUtil;
+import com.example.spark.util.HTTPUtil;
+import com.example.spark.util.LogUtil;
+import com.example.spark.util.MetricsUtil;
 import com.example.spark.util.Util;
+import com.example.spark.util.ViewUtil;
 
+import spark.Route;
 import spark.servlet.SparkApplication;
 
 import org.apache.log4j.Logger;
@@ -26,16 +38,27 @@ public class Application implements SparkApplication {
 		
 		Application app = new Application();
 		app.init();
+		Runtime.getRuntime().addShutdownHook(new Thread(app::destroy, "application-shutdown"));
 	}
 
 	@Override
 	public void init() {
 		
+		// asynchronous logging in PROD mode
+		LogUtil.configure();
+		
 		// configure port and static resource files directory
 		port(ConfigUtil.PORT);
 		staticFiles.location("/public");
 		staticFiles.expireTime(600L);
 		
+		// serve fingerprinted, precompressed static files with long term caching (files change at runtime in DEV mode)
+		if(ConfigUtil.appMode == ConfigUtil.ApplicationMode.PROD) {
+			for(String assetUrl : AssetsUtil.load("/public")) {
+				get(assetUrl, AssetsUtil.serveAsset);
+			}
+		}
+		
 		// enable debug screen if application is in DEV mode
 		if(ConfigUtil.appMode.name().equals("DEV")) {
 			enableDebugScreen();
@@ -44,28 +67,127 @@ public class Application implements SparkApplication {
 		// set up upload folder
 		Util.setUpUploadDir();
 		
+		// parse the page templates
+		ViewUtil.preloadTemplates();
+		
+		// read the preview cache before the catalog reports the slide albums to render
+		SlideAlbumsMgr.startPreviews();
+		
+		// build the slide albums catalog
+		SlideAlbumsMgr.startCatalog();
+		SlideAlbumsMgr.startTrashPurge();
+		
+		// remove expired sessions from the session store
+		SessionManager.startSessionStoreSweep();
+		
+		// refresh the keys and revoked tokens for the local session token verification
+		AuthenticationMgr.startTokenVerification();
+		
 		// enable CORS
 		CORSUtil.enableCORS();
 
 		// set up before and after filters
-		before("/spark/api/*", Filters.ensureSessionTokenIsValid);
+		before("/spark/api/*", MetricsUtil.timedFilter(MetricsUtil.filters.labels("ensureSessionTokenIsValid"), Filters.ensureSessionTokenIsValid));
 		before(Filters.addResponseHeaders);
 		after(Filters.logResponse);
+		after("/spark/api/*", MetricsUtil.timedFilter(MetricsUtil.filters.labels("compressResponse"), Filters.compressResponse));
 		
 		// register exception handlers
 		exception(Exception.class, ExceptionHandlers.uncheckedExceptions);
+		exception(AuthServiceUnavailableException.class, ExceptionHandlers.authServiceUnavailable);
 		
 		// routes
-		get(Path.INDEX, IndexController.serveIndexPage);
-		get(Path.LOGIN, LoginController.serveLoginPage);
-		post(Path.LOGIN, LoginController.handleLogin);
-		get(Path.LOGOUT, LoginController.handleLogout);
+		get(Path.INDEX, timed("serveIndexPage", IndexController.serveIndexPage));
+		get(Path.LOGIN, timed("serveLoginPage", LoginController.serveLoginPage));
+		post(Path.LOGIN, timed("handleLogin", LoginController.handleLogin));
+		get(Path.LOGOUT, timed("handleLogout", LoginController.handleLogout));
 		// ajax
-		post(Path.AJAX_GET_SLIDEALBUMS, SlideAlbumsController.getSlideAlbums);		
-		post(Path.AJAX_CREATE_SLIDEALBUM, SlideAlbumsController.createSlideAlbum);
-		post(Path.AJAX_DELETE_SLIDEALBUM, SlideAlbumsController.deleteSlideAlbum);		
+		post(Path.AJAX_GET_SLIDEALBUMS, timed("getSlideAlbums", SlideAlbumsController.getSlideAlbums));		
+		get(Path.AJAX_GET_SLIDEALBUMS_PAGE, timed("getSlideAlbumsPage", SlideAlbumsController.getSlideAlbumsPage));
+		get(Path.AJAX_SEARCH_SLIDEALBUMS, timed("searchSlideAlbums", SlideAlbumsController.searchSlideAlbums));
+		post(Path.AJAX_CREATE_SLIDEALBUM, timed("createSlideAlbum", SlideAlbumsController.createSlideAlbum));
+		post(Path.AJAX_BULK_UPLOAD_SLIDEALBUM, timed("bulkUploadSlideAlbum", SlideAlbumsController.bulkUploadSlideAlbum));
+		post(Path.AJAX_DELETE_SLIDEALBUM, timed("deleteSlideAlbum", SlideAlbumsController.deleteSlideAlbum));		
+		post(Path.AJAX_RESTORE_SLIDEALBUM, timed("restoreSlideAlbum", SlideAlbumsController.restoreSlideAlbum));
+		get(Path.AJAX_GET_SLIDEALBUMS_TRASH, timed("getSlideAlbumsTrash", SlideAlbumsController.getSlideAlbumsTrash));
+		post(Path.AJAX_LOCK_SLIDEALBUM, timed("lockSlideAlbum", SlideAlbumsController.lockSlideAlbum));
+		post(Path.AJAX_UNLOCK_SLIDEALBUM, timed("unlockSlideAlbum", SlideAlbumsController.unlockSlideAlbum));
+		post(Path.AJAX_STEAL_SLIDEALBUM_LOCK, timed("stealSlideAlbumLock", SlideAlbumsController.stealSlideAlbumLock));
+		get(Path.AJAX_GET_SLIDEALBUM_FILE, timed("getSlideAlbumFile", SlideAlbumsController.getSlideAlbumFile));
+		get(Path.AJAX_GET_SLIDEALBUM_PREVIEW, timed("getSlideAlbumPreview", SlideAlbumsController.getSlideAlbumPreview));
 		// tests
 		get("/spark/test/slidealbum/*/*", SlideAlbumsController.getSlideAlbum);		
 		get("/hello", (req, res) -> "Hello World");
-	}	
+		// metrics
+		get(Path.METRICS, MetricsUtil.serveMetrics);
+		exportStatistics();
+	}
+	
+	/**
+	 * Route recording its duration under its name.
+	 */
+	private static Route timed(String name, Route route) {
+		return MetricsUtil.timed(MetricsUtil.routes.labels(name), route);
+	}
+	
+	/**
+	 * Expose the statistics of the caches, pools and compression as metrics.
+	 */
+	private static void exportStatistics() {
+		MetricsUtil.counter("slidealbums_session_token_cache_hits_total", "Session token validations answered from the cache.", 
+				() -> AuthenticationMgr.getSessionTokenCache().getHits());
+		MetricsUtil.counter("slidealbums_session_token_cache_misses_total", "Session token validations calling the Authentication API.", 
+				() -> AuthenticationMgr.getSessionTokenCache().getMisses());
+		MetricsUtil.counter("slidealbums_session_token_cache_evictions_total", "Session tokens evicted from the cache.", 
+				() -> AuthenticationMgr.getSessionTokenCache().getEvictions());
+		MetricsUtil.gauge("slidealbums_session_token_cache_size", "Session tokens in the cache.", 
+				() -> AuthenticationMgr.getSessionTokenCache().size());
+		MetricsUtil.counter("slidealbums_restored_sessions_total", "User sessions restored from the session store, e.g. after a restart.", 
+				SessionManager::getRestoredSessions);
+		MetricsUtil.counter("slidealbums_session_tokens_verified_locally_total", "Signed session tokens verified as valid without calling the Authentication API.", 
+				() -> AuthenticationMgr.getTokenVerifier().getValid());
+		MetricsUtil.counter("slidealbums_session_tokens_rejected_locally_total", "Signed session tokens rejected without calling the Authentication API.", 
+				() -> AuthenticationMgr.getTokenVerifier().getInvalid());
+		MetricsUtil.counter("slidealbums_session_tokens_unverified_locally_total", "Session tokens left to the Authentication API in LOCAL verification mode.", 
+				() -> AuthenticationMgr.getTokenVerifier().getUnverified());
+		MetricsUtil.gauge("slidealbums_auth_api_circuit_open", "1 if calls to the Authentication API are rejected by the circuit breaker.", 
+				() -> AuthenticationMgr.getCircuitBreakerState() == CircuitBreaker.State.OPEN ? 1 : 0);
+		MetricsUtil.gauge("slidealbums_http_pool_leased_connections", "Connections of the HTTP client pool in use.", 
+				() -> HTTPUtil.getPoolStats().getLeased());
+		MetricsUtil.gauge("slidealbums_http_pool_available_connections", "Idle connections of the HTTP client pool.", 
+				() -> HTTPUtil.getPoolStats().getAvailable());
+		MetricsUtil.gauge("slidealbums_http_pool_pending_requests", "Requests waiting for a connection of the HTTP client pool.", 
+				() -> HTTPUtil.getPoolStats().getPending());
+		MetricsUtil.gauge("slidealbums_search_index_documents", "Slide albums in the full-text search index.", 
+				SlideAlbumsMgr::getSearchIndexSize);
+		MetricsUtil.gauge("slidealbums_search_index_backlog", "Slide album changes not yet in the full-text search index.", 
+				SlideAlbumsMgr::getSearchIndexBacklog);
+		MetricsUtil.counter("slidealbums_previews_rendered_total", "Slide album previews rendered.", 
+				SlideAlbumsMgr::getPreviewRenders);
+		MetricsUtil.counter("slidealbums_preview_memory_hits_total", "Slide album previews served from the memory cache.", 
+				SlideAlbumsMgr::getPreviewMemoryHits);
+		MetricsUtil.counter("slidealbums_preview_disk_hits_total", "Slide album previews served from the disk cache.", 
+				SlideAlbumsMgr::getPreviewDiskHits);
+		MetricsUtil.gauge("slidealbums_preview_disk_cache_bytes", "Size of the slide album previews on disk.", 
+				SlideAlbumsMgr::getPreviewDiskCacheBytes);
+		MetricsUtil.gauge("slidealbums_preview_backlog", "Changed slide albums waiting for their preview to be rendered.", 
+				SlideAlbumsMgr::getPreviewBacklog);
+		MetricsUtil.counter("slidealbums_compressed_responses_total", "Responses sent compressed.", 
+				CompressionUtil::getCompressedResponses);
+		MetricsUtil.counter("slidealbums_compression_bytes_in_total", "Bytes of response content before compression.", 
+				CompressionUtil::getBytesIn);
+		MetricsUtil.counter("slidealbums_compression_bytes_out_total", "Bytes of compressed response content sent.", 
+				CompressionUtil::getBytesOut);
+	}
+	
+	@Override
+	public void destroy() {
+		
+		// release background threads and pooled connections
+		SlideAlbumsMgr.shutdown();
+		AuthenticationMgr.shutdown();
+		SessionManager.shutdown();
+		HTTPUtil.shutdown();
+		LogUtil.shutdown();
+	}
 }
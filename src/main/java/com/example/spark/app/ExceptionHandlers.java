@@ -1,5 +1,6 @@
 package com.example.spark.app;
 
+import com.example.spark.util.ConfigUtil;
 import com.example.spark.util.JsonUtil;
 
 import spark.ExceptionHandler;
@@ -19,4 +20,14 @@ public class ExceptionHandlers {
 		response.status(500);
 		response.body(JsonUtil.toJson(new ResponseError("An internal error occured. Please, contact your system administrator.").getMessage()));
 	};
+	
+	/**
+	 * Handle failures of the external Authentication API (unreachable, too slow or circuit breaker open)
+	 */
+	public static ExceptionHandler authServiceUnavailable = (e, request, response) -> {
+		Application.logger.error(e.getMessage());
+		response.status(503);
+		response.header("Retry-After", String.valueOf(ConfigUtil.AUTH_CIRCUIT_BREAKER_OPEN_SECONDS));
+		response.body(JsonUtil.toJson(new ResponseError("The authentication service is currently unavailable. Please, try again later.").getMessage()));
+	};
 }
@@ -1,8 +1,13 @@
 package com.example.spark.app;
 
+import java.nio.charset.StandardCharsets;
+
 import com.example.spark.auth.AuthenticationMgr;
 import com.example.spark.auth.SessionManager;
 import com.example.spark.auth.UserContext;
+import com.example.spark.util.CompressionUtil;
+import com.example.spark.util.ConfigUtil;
+import com.example.spark.util.LogUtil;
 
 import spark.Filter;
 import spark.Request;
@@ -23,8 +28,8 @@ public class Filters {
 	 * Check if session token passed in the request is valid.
 	 */
 	public static Filter ensureSessionTokenIsValid = (Request request, Response response) -> {
-		UserContext userContext = request.session().attribute("userContext"); 
-		if(userContext == null || !authMgr.isSessionTokenValid(userContext.getSessionToken())) {
+		UserContext userContext = SessionManager.getUserContext(request);
+		if(userContext == null || !authMgr.isSessionTokenValid(userContext.getSessionToken(), userContext.getUser().getCustomers())) {
 			SessionManager.clearUserContext(request);
 			Spark.halt(401, "Your session is invalid or expired. Please, login again.");
 		}
@@ -44,15 +49,17 @@ public class Filters {
 
 	/**
 	 * After filter.
-	 * Logs response status and body to the log file and the console.
+	 * Logs response status to the log file and the console. Bodies of successful responses are sampled and truncated.
+	 * Only client and server errors (status 400 and above) are logged as errors, redirects are logged at debug level.
 	 */
 	public static Filter logResponse = (Request request, Response response) -> {
-		if(response.raw().getStatus() == 200) {
-			Application.logger.debug(request.pathInfo() + ": " + response.raw().getStatus());
-			Application.logger.debug(response.body());
+		int status = response.raw().getStatus();
+		if(status < 400) {
+			LogUtil.debug(Application.logger, "{}: {}", request.pathInfo(), status);
+			LogUtil.debugBody(Application.logger, request.pathInfo(), response.body());
 		} else {
-			Application.logger.error(request.pathInfo() + ": " + response.raw().getStatus());
-			Application.logger.error(response.body());
+			Application.logger.error(request.pathInfo() + ": " + status);
+			Application.logger.error(LogUtil.truncate(response.body()));
 		}
 	};
 	
@@ -69,9 +76,22 @@ public class Filters {
     
     /**
      * After filter
-     * Enable GZIP for all responses.
+     * Compress the response body if the client accepts gzip or deflate and the body is large enough.
+     * Responses already written by the route (streamed, files) are left as they are.
      */
-    public static Filter addGzipResponseHeader = (Request request, Response response) -> {
-        response.header("Content-Encoding", "gzip");
+    public static Filter compressResponse = (Request request, Response response) -> {
+    	String body = response.body();
+    	if(body == null || response.raw().isCommitted() || response.raw().containsHeader("Content-Encoding")) {
+    		return;
+    	}
+    	byte[] content = body.getBytes(StandardCharsets.UTF_8);
+    	if(content.length < ConfigUtil.COMPRESSION_MIN_SIZE || CompressionUtil.negotiate(request.headers("Accept-Encoding")) == null) {
+    		return;
+    	}
+    	if(response.raw().getContentType() == null) {
+    		response.type("text/html; charset=utf-8");
+    	}
+    	CompressionUtil.send(request, response, out -> out.write(content));
+    	response.body(""); // already sent
     };
 }
@@ -13,13 +13,24 @@ public class Path {
 	public static final String USERS = "/users";
 	public static final String USER = "/user/";
 	public static final String LOGOUT = "/logout";
+	public static final String METRICS = "/metrics";
 	
 	// api end points
 	private static final String API = "/spark/api";
 	public static final String AJAX_GET_SLIDEALBUMS = API + "/slidealbums";
+	public static final String AJAX_GET_SLIDEALBUMS_PAGE = API + "/slidealbums/page";
+	public static final String AJAX_SEARCH_SLIDEALBUMS = API + "/slidealbums/search";
 	public static final String AJAX_DELETE_SLIDEALBUM = API + "/slidealbums/delete";
+	public static final String AJAX_RESTORE_SLIDEALBUM = API + "/slidealbums/restore";
+	public static final String AJAX_GET_SLIDEALBUMS_TRASH = API + "/slidealbums/trash";
 	public static final String AJAX_CREATE_SLIDEALBUM = API + "/slidealbums/create";
+	public static final String AJAX_BULK_UPLOAD_SLIDEALBUM = API + "/slidealbums/bulk";
+	public static final String AJAX_LOCK_SLIDEALBUM = API + "/slidealbums/lock";
+	public static final String AJAX_UNLOCK_SLIDEALBUM = API + "/slidealbums/unlock";
+	public static final String AJAX_STEAL_SLIDEALBUM_LOCK = API + "/slidealbums/lock/steal";
 	public static final String AJAX_GET_SLIDEALBUM = API + "test/slidealbum/*/*";
+	public static final String AJAX_GET_SLIDEALBUM_FILE = API + "/slidealbums/:customer/:title/files/:file";
+	public static final String AJAX_GET_SLIDEALBUM_PREVIEW = API + "/slidealbums/:customer/:title/preview";
 
 	public static String getIndex() {
 		return INDEX;
@@ -1,5 +1,8 @@
 package com.example.spark.app;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
 import spark.Request;
 
 public class RequestUtil {
@@ -14,4 +17,16 @@ public class RequestUtil {
         return accept != null && accept.contains("application/json");
     }
 
+    /**
+     * Get the container's request, bypassing wrappers such as Spark's one which reads 
+     * the whole body into memory on first access. Use it to stream large request bodies.
+     */
+    public static HttpServletRequest unwrap(Request request) {
+        HttpServletRequest raw = request.raw();
+        while (raw instanceof HttpServletRequestWrapper) {
+            raw = (HttpServletRequest) ((HttpServletRequestWrapper) raw).getRequest();
+        }
+        return raw;
+    }
+
 }
@@ -0,0 +1,20 @@
+package com.example.spark.auth;
+
+/**
+ * Thrown when the external Authentication API cannot be reached in time
+ * or calls to it are rejected by the circuit breaker.
+ * @author Elitza Haltakova
+ *
+ */
+public class AuthServiceUnavailableException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public AuthServiceUnavailableException(String message) {
+		super(message);
+	}
+
+	public AuthServiceUnavailableException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
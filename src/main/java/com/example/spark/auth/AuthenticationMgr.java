@@ -1,60 +1,324 @@
 package com.example.spark.auth;
 
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.example.spark.util.CircuitBreaker;
+import com.example.spark.util.ConfigUtil;
 import com.example.spark.util.HTTPUtil;
 import com.example.spark.util.HTTPUtil.HTTPResponse;
 import com.example.spark.util.JsonUtil;
+import com.example.spark.util.MetricsUtil;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.apache.log4j.Logger;
 
 /**
  * Authentication Manager class.
  * Calls web services of the external Authentication API.
+ * The blocking calls are bounded by a deadline and delegate to the asynchronous ones.
+ * In LOCAL token verification mode signed session tokens are verified without calling the Authentication API,
+ * against its key set and revocation list refreshed in the background.
  * @author Elitza Haltakova
  *
  */
 public class AuthenticationMgr {
 
+	final static Logger logger = Logger.getLogger(AuthenticationMgr.class);
+
+	private static final SessionTokenCache sessionTokenCache = new SessionTokenCache(ConfigUtil.SESSION_TOKEN_CACHE_MAX_SIZE, 
+			ConfigUtil.SESSION_TOKEN_CACHE_VALID_TTL_SECONDS, ConfigUtil.SESSION_TOKEN_CACHE_INVALID_TTL_SECONDS, TimeUnit.SECONDS);
+	private static final CircuitBreaker circuitBreaker = new CircuitBreaker(ConfigUtil.AUTH_CIRCUIT_BREAKER_FAILURE_THRESHOLD, 
+			ConfigUtil.AUTH_CIRCUIT_BREAKER_OPEN_SECONDS, TimeUnit.SECONDS);
+	private static final ExecutorService authExecutor = new ThreadPoolExecutor(ConfigUtil.AUTH_EXECUTOR_THREADS, ConfigUtil.AUTH_EXECUTOR_THREADS, 
+			0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(ConfigUtil.AUTH_EXECUTOR_QUEUE_SIZE), daemonThreadFactory("auth-api"));
+	private static final ScheduledExecutorService deadlineScheduler = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("auth-api-deadline"));
+	private static final MetricsUtil.Histogram callDurations = MetricsUtil.histogram("slidealbums_auth_api_duration_seconds", 
+			"Duration of the Authentication API calls, including waiting for a call thread.", "call", "outcome");
+	private static final MetricsUtil.Histogram.Child[][] callTimers = {
+			{callDurations.labels("login", "success"), callDurations.labels("login", "failure")},
+			{callDurations.labels("logout", "success"), callDurations.labels("logout", "failure")},
+			{callDurations.labels("validateToken", "success"), callDurations.labels("validateToken", "failure")},
+			{callDurations.labels("keys", "success"), callDurations.labels("keys", "failure")},
+			{callDurations.labels("revocations", "success"), callDurations.labels("revocations", "failure")}};
+	private static final SessionTokenVerifier tokenVerifier = new SessionTokenVerifier(ConfigUtil.SESSION_TOKEN_CACHE_MAX_SIZE, 
+			ConfigUtil.AUTH_TOKEN_CLOCK_SKEW_SECONDS, ConfigUtil.AUTH_TOKEN_REVOCATIONS_MAX_AGE_SECONDS, TimeUnit.SECONDS);
+	private static ScheduledExecutorService tokenRefreshScheduler;
+
 	public HTTPResponse login(String username, String password) {	
+		return await(loginAsync(username, password, deadline()));
+	}
+	
+	public HTTPResponse logout(String sessionToken) {
+		return await(logoutAsync(sessionToken, deadline()));
+	}
+	
+	public HTTPResponse validateSessionToken(String sessionToken) {
+		return await(validateSessionTokenAsync(sessionToken, deadline()));
+	}
+	
+	/**
+	 * @param deadline time in milliseconds since the epoch the call has to complete by
+	 */
+	public CompletableFuture<HTTPResponse> loginAsync(String username, String password, long deadline) {
 		Map<String, Object> requestBodyData = new HashMap<String, Object>();
 		requestBodyData.put("username", username);
 		requestBodyData.put("password", password);
 		String jsonBody = JsonUtil.toJson(requestBodyData);		
-		HTTPResponse response = HTTPUtil.postRequest(AuthAPIPath.AUTH_API_MAIN_URL, AuthAPIPath.LOGIN, jsonBody);
-		return response;
+		return postAsync(AuthAPIPath.LOGIN, jsonBody, deadline, callTimers[0]);
 	}
 	
-	public HTTPResponse logout(String sessionToken) {
+	public CompletableFuture<HTTPResponse> logoutAsync(String sessionToken, long deadline) {
 		Map<String, Object> requestBodyData = new HashMap<String, Object>();
 		requestBodyData.put("sessionToken", sessionToken);
 		String jsonBody = JsonUtil.toJson(requestBodyData);
-		HTTPResponse response = HTTPUtil.postRequest(AuthAPIPath.AUTH_API_MAIN_URL, AuthAPIPath.LOGOUT, jsonBody);
-		return response;
+		return postAsync(AuthAPIPath.LOGOUT, jsonBody, deadline, callTimers[1]);
 	}
 	
-	public HTTPResponse validateSessionToken(String sessionToken) {
+	public CompletableFuture<HTTPResponse> validateSessionTokenAsync(String sessionToken, long deadline) {
 		Map<String, Object> requestBodyData = new HashMap<String, Object>();
 		requestBodyData.put("sessionToken", sessionToken);
 		String jsonBody = JsonUtil.toJson(requestBodyData);
-		HTTPResponse response = HTTPUtil.postRequest(AuthAPIPath.AUTH_API_MAIN_URL, AuthAPIPath.VALIDATE_REQUEST, jsonBody);
-		return response;
+		return postAsync(AuthAPIPath.VALIDATE_REQUEST, jsonBody, deadline, callTimers[2]);
 	}
 	
-	public boolean isSessionTokenValid(String sessionToken) {
-		AuthenticationMgr authMgr = new AuthenticationMgr();
-		HTTPResponse response = authMgr.validateSessionToken(sessionToken);
-		if(response.status == 200) {
-			return true;
+	public CompletableFuture<HTTPResponse> keysAsync(long deadline) {
+		return postAsync(AuthAPIPath.KEYS, "{}", deadline, callTimers[3]);
+	}
+	
+	public CompletableFuture<HTTPResponse> revocationsAsync(long deadline) {
+		return postAsync(AuthAPIPath.REVOCATIONS, "{}", deadline, callTimers[4]);
+	}
+	
+	/**
+	 * Check if a session token is valid. In LOCAL token verification mode signed tokens are verified locally.
+	 * Other validation results are cached, so the external Authentication API is called only for unknown or expired tokens.
+	 * @param customers customers of the session user
+	 */
+	public boolean isSessionTokenValid(String sessionToken, List<String> customers) {
+		if(ConfigUtil.AUTH_TOKEN_VERIFICATION == ConfigUtil.TokenVerification.LOCAL) {
+			Boolean verified = tokenVerifier.verify(sessionToken, customers);
+			if(verified != null) {
+				return verified;
+			}
 		}
-		return false;
+		return sessionTokenCache.isValid(sessionToken, token -> {
+			HTTPResponse response = validateSessionToken(token);
+			if(response == null) {
+				return null;
+			}
+			if(response.status == 200) {
+				return true;
+			}
+			if(response.status == 400 || response.status == 401 || response.status == 403) {
+				return false;
+			}
+			return null; // Authentication API failure, do not cache
+		});
+	}
+	
+	/**
+	 * Drop the cached validation result of a session token and revoke it for the local verification.
+	 */
+	public void invalidateSessionToken(String sessionToken) {
+		sessionTokenCache.invalidate(sessionToken);
+		tokenVerifier.revoke(sessionToken);
+	}
+	
+	public static SessionTokenCache getSessionTokenCache() {
+		return sessionTokenCache;
+	}
+	
+	public static CircuitBreaker.State getCircuitBreakerState() {
+		return circuitBreaker.getState();
+	}
+	
+	public static SessionTokenVerifier getTokenVerifier() {
+		return tokenVerifier;
+	}
+	
+	/**
+	 * Start refreshing the signing keys and the revocation list in the background, in LOCAL token verification mode.
+	 * Until the first refresh succeeds tokens are validated by the Authentication API.
+	 */
+	public static synchronized void startTokenVerification() {
+		if(ConfigUtil.AUTH_TOKEN_VERIFICATION != ConfigUtil.TokenVerification.LOCAL || tokenRefreshScheduler != null) {
+			return;
+		}
+		tokenRefreshScheduler = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("auth-token-refresh"));
+		tokenRefreshScheduler.scheduleWithFixedDelay(AuthenticationMgr::refreshKeys, 0, ConfigUtil.AUTH_TOKEN_KEYS_REFRESH_SECONDS, TimeUnit.SECONDS);
+		tokenRefreshScheduler.scheduleWithFixedDelay(AuthenticationMgr::refreshRevocations, 0, ConfigUtil.AUTH_TOKEN_REVOCATIONS_REFRESH_SECONDS, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Stop the Authentication API call threads.
+	 */
+	public static synchronized void shutdown() {
+		if(tokenRefreshScheduler != null) {
+			tokenRefreshScheduler.shutdownNow();
+			tokenRefreshScheduler = null;
+		}
+		authExecutor.shutdownNow();
+		deadlineScheduler.shutdownNow();
+	}
+	
+	/**
+	 * Load the ES256 public keys of the key set {"keys": [{"kid": ..., "alg": "ES256", "kty": "EC", "crv": "P-256", "x": ..., "y": ...}]},
+	 * coordinates base64url encoded. Keys of other types are skipped. On failure the known keys are kept.
+	 */
+	private static void refreshKeys() {
+		try {
+			HTTPResponse response = await(new AuthenticationMgr().keysAsync(deadline()));
+			if(response.status != 200) {
+				logger.warn("Signing keys cannot be loaded, the Authentication API returned " + response.status + ".");
+				return;
+			}
+			Map<String, PublicKey> keys = new HashMap<String, PublicKey>();
+			for(JsonElement key : JsonUtil.fromJsonToClass(response.body, JsonObject.class).getAsJsonArray("keys")) {
+				JsonObject jwk = key.getAsJsonObject();
+				if(jwk.has("kid") && jwk.has("x") && jwk.has("y") && jwk.has("alg") && jwk.has("crv")
+						&& SignedSessionToken.ALGORITHM.equals(jwk.get("alg").getAsString()) && SignedSessionToken.CURVE.equals(jwk.get("crv").getAsString())) {
+					keys.put(jwk.get("kid").getAsString(), SignedSessionToken.publicKey(Base64.getUrlDecoder().decode(jwk.get("x").getAsString()), 
+							Base64.getUrlDecoder().decode(jwk.get("y").getAsString())));
+				}
+			}
+			tokenVerifier.setKeys(keys);
+		} catch (RuntimeException | GeneralSecurityException e) {
+			logger.warn("Signing keys cannot be loaded. " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Load the ids of the revoked tokens {"revoked": [...]}. On failure the known revocation list is kept 
+	 * until it is older than AUTH_TOKEN_REVOCATIONS_MAX_AGE_SECONDS, then tokens are validated by the Authentication API again.
+	 */
+	private static void refreshRevocations() {
+		try {
+			HTTPResponse response = await(new AuthenticationMgr().revocationsAsync(deadline()));
+			if(response.status != 200) {
+				logger.warn("Revoked tokens cannot be loaded, the Authentication API returned " + response.status + ".");
+				return;
+			}
+			List<String> revoked = JsonUtil.fromJsonElementToType(JsonUtil.fromJsonToClass(response.body, JsonObject.class).get("revoked"), JsonUtil.STRING_LIST_TYPE);
+			tokenVerifier.setRevocations(revoked);
+		} catch (RuntimeException e) {
+			logger.warn("Revoked tokens cannot be loaded. " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Call the Authentication API on the bounded auth executor. 
+	 * Fails fast with AuthServiceUnavailableException if the circuit breaker is open, 
+	 * the executor is saturated or the deadline is exceeded.
+	 * @param timers timers of the successful and of the failed calls (errors, 5xx responses)
+	 */
+	private static CompletableFuture<HTTPResponse> postAsync(String path, String jsonBody, long deadline, MetricsUtil.Histogram.Child[] timers) {
+		long start = System.nanoTime();
+		CompletableFuture<HTTPResponse> result = new CompletableFuture<HTTPResponse>();
+		long remaining = deadline - System.currentTimeMillis();
+		// calls failed before reaching the Authentication API are recorded as failures too, so the failure rate shows them
+		if(remaining <= 0) {
+			result.completeExceptionally(new AuthServiceUnavailableException("Authentication API call deadline exceeded."));
+			timers[1].recordSince(start);
+			return result;
+		}
+		if(!circuitBreaker.allowRequest()) {
+			result.completeExceptionally(new AuthServiceUnavailableException("Authentication API is unavailable."));
+			timers[1].recordSince(start);
+			return result;
+		}
+		Future<?> call;
+		try {
+			call = authExecutor.submit(() -> {
+				try {
+					HTTPResponse response = HTTPUtil.postRequest(AuthAPIPath.AUTH_API_MAIN_URL, path, jsonBody, deadline - System.currentTimeMillis());
+					if(!result.isDone()) {
+						if(response.status >= 500) {
+							circuitBreaker.recordFailure();
+						} else {
+							circuitBreaker.recordSuccess();
+						}
+					}
+					result.complete(response);
+				} catch (IOException | RuntimeException e) {
+					if(!result.isDone()) {
+						circuitBreaker.recordFailure();
+					}
+					result.completeExceptionally(new AuthServiceUnavailableException("Authentication API call failed: " + e.getMessage(), e));
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			if(circuitBreaker.getState() == CircuitBreaker.State.HALF_OPEN) {
+				circuitBreaker.recordFailure(); // the trial call was not made, open again instead of rejecting every call
+			}
+			result.completeExceptionally(new AuthServiceUnavailableException("Too many pending Authentication API calls.", e));
+			timers[1].recordSince(start);
+			return result;
+		}
+		ScheduledFuture<?> deadlineCheck = deadlineScheduler.schedule(() -> {
+			if(result.completeExceptionally(new AuthServiceUnavailableException("Authentication API call deadline exceeded."))) {
+				circuitBreaker.recordFailure();
+				call.cancel(true);
+			}
+		}, remaining, TimeUnit.MILLISECONDS);
+		result.whenComplete((response, e) -> {
+			deadlineCheck.cancel(false);
+			timers[e == null && response.status < 500 ? 0 : 1].recordSince(start);
+		});
+		return result;
+	}
+	
+	private static long deadline() {
+		return System.currentTimeMillis() + ConfigUtil.AUTH_API_TIMEOUT_MS;
+	}
+	
+	private static HTTPResponse await(CompletableFuture<HTTPResponse> call) {
+		try {
+			return call.join();
+		} catch (CompletionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+	
+	private static ThreadFactory daemonThreadFactory(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
 	}
 	
 	private static class AuthAPIPath {
 
-		public static final String AUTH_API_MAIN_URL = "http://localhost:1818/SALSSA2-API/api/auth";
+		public static final String AUTH_API_MAIN_URL = ConfigUtil.AUTH_API_URL;
 		
 		public static final String LOGIN = "/login";
 		public static final String LOGOUT = "/logout";
 		public static final String VALIDATE_REQUEST = "/validateToken";
+		public static final String KEYS = "/keys";
+		public static final String REVOCATIONS = "/revocations";
 	}
 }
@@ -0,0 +1,147 @@
+package com.example.spark.auth;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Session store shared by the application instances of a host (or of hosts mounting the same directory).
+ * Every session is a file of its expiry time and binary encoded user context ({@link UserContextCodec}),
+ * named by the session id. Files are replaced atomically, so instances never read a partly written session,
+ * and any instance can sweep the expired ones.
+ * @author Elitza Haltakova
+ *
+ */
+public class DirectorySessionStore implements SessionStore {
+
+	final static Logger logger = Logger.getLogger(DirectorySessionStore.class);
+
+	private static final String EXTENSION = ".session";
+	private static final String TEMP_EXTENSION = ".tmp";
+	// session ids used as file names as they are, others are not stored
+	private static final Pattern SESSION_ID = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]{0,127}");
+	// temporary files left by a crash during a write are deleted by the sweep after this time
+	private static final long TEMP_FILE_MAX_AGE_MS = 60 * 60 * 1000;
+
+	private final Path dir;
+
+	public DirectorySessionStore(Path dir) {
+		this.dir = dir;
+	}
+
+	@Override
+	public UserContext get(String sessionId) {
+		Path file = file(sessionId);
+		if(file == null) {
+			return null;
+		}
+		try {
+			ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+			if(data.getLong() <= System.currentTimeMillis()) {
+				Files.deleteIfExists(file);
+				return null;
+			}
+			return UserContextCodec.decode(data);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			logger.error("Session cannot be read from " + file + ". " + e.getMessage(), e);
+			return null;
+		} catch (RuntimeException e) {
+			logger.error("Stored session " + file + " cannot be decoded and is removed. " + e.getMessage());
+			remove(sessionId);
+			return null;
+		}
+	}
+
+	@Override
+	public void put(String sessionId, UserContext userContext, long expiresAt) {
+		Path file = file(sessionId);
+		if(file == null) {
+			return;
+		}
+		byte[] userContextData = UserContextCodec.encode(userContext);
+		ByteBuffer data = ByteBuffer.allocate(8 + userContextData.length).putLong(expiresAt).put(userContextData);
+		Path temp = dir.resolve(file.getFileName() + "." + UUID.randomUUID() + TEMP_EXTENSION);
+		try {
+			Files.createDirectories(dir);
+			Files.write(temp, data.array());
+			Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			logger.error("Session cannot be stored in " + file + ". " + e.getMessage(), e);
+			try {
+				Files.deleteIfExists(temp);
+			} catch (IOException deleteException) {
+				// removed by the sweep
+			}
+		}
+	}
+
+	@Override
+	public void remove(String sessionId) {
+		Path file = file(sessionId);
+		if(file == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			logger.error("Session " + file + " cannot be removed. " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public int sweep() {
+		if(!Files.isDirectory(dir)) {
+			return 0;
+		}
+		long now = System.currentTimeMillis();
+		int removed = 0;
+		byte[] expiresAt = new byte[8];
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+			for(Path file : files) {
+				String name = file.getFileName().toString();
+				try {
+					if(name.endsWith(EXTENSION)) {
+						// only the expiry time is read
+						boolean expired;
+						try(InputStream in = Files.newInputStream(file)) {
+							expired = in.read(expiresAt) < expiresAt.length || ByteBuffer.wrap(expiresAt).getLong() <= now;
+						}
+						if(expired && Files.deleteIfExists(file)) {
+							removed++;
+						}
+					} else if(name.endsWith(TEMP_EXTENSION) && Files.getLastModifiedTime(file).toMillis() < now - TEMP_FILE_MAX_AGE_MS) {
+						Files.deleteIfExists(file);
+					}
+				} catch (NoSuchFileException e) {
+					// replaced or removed by another instance
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Sessions in " + dir + " cannot be swept. " + e.getMessage(), e);
+		}
+		return removed;
+	}
+
+	@Override
+	public void close() {
+		// every change is written immediately
+	}
+
+	private Path file(String sessionId) {
+		if(sessionId == null || !SESSION_ID.matcher(sessionId).matches()) {
+			return null;
+		}
+		return dir.resolve(sessionId + EXTENSION);
+	}
+}
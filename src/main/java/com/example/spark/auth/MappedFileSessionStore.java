@@ -0,0 +1,316 @@
+package com.example.spark.auth;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Session store of a single application instance in a memory-mapped file.
+ * Sessions are appended as records of status, expiry time, session id and binary encoded user context
+ * ({@link UserContextCodec}); removing a session only clears its status byte. Writes go to the page cache,
+ * so they survive a restart or crash of the application without a disk write per login.
+ * <p>
+ * The file is opened and its records indexed on first use, user contexts are decoded only when looked up.
+ * When the file is full, the live records are compacted in place and the mapping is grown if still needed.
+ * The file is locked, instances sharing sessions use the {@link DirectorySessionStore}.
+ * @author Elitza Haltakova
+ *
+ */
+public class MappedFileSessionStore implements SessionStore {
+
+	final static Logger logger = Logger.getLogger(MappedFileSessionStore.class);
+
+	private static final int MAGIC = 0x53535331; // "SSS1"
+	// magic, user context format version, end of the records
+	private static final int HEADER_SIZE = 16;
+	private static final int END_OFFSET = 8;
+	// status, expiry time, session id length, data length
+	private static final int RECORD_OVERHEAD = 1 + 8 + 2 + 4;
+	private static final byte LIVE = 1;
+	private static final byte REMOVED = 0;
+
+	private final Path file;
+	private final int initialSize;
+
+	// record offsets of the live sessions, all access is synchronized on the store
+	private final Map<String, Integer> offsets = new HashMap<String, Integer>();
+	private FileChannel channel;
+	private FileLock lock;
+	private MappedByteBuffer buffer;
+	private int end;
+
+	/**
+	 * @param initialSize size of the mapping of a new file in bytes
+	 */
+	public MappedFileSessionStore(Path file, int initialSize) {
+		this.file = file;
+		this.initialSize = Math.max(initialSize, HEADER_SIZE + 4096);
+	}
+
+	@Override
+	public synchronized UserContext get(String sessionId) {
+		if(!open()) {
+			return null;
+		}
+		Integer offset = offsets.get(sessionId);
+		if(offset == null) {
+			return null;
+		}
+		if(buffer.getLong(offset + 1) <= System.currentTimeMillis()) {
+			removeRecord(sessionId, offset);
+			return null;
+		}
+		ByteBuffer record = buffer.duplicate();
+		int dataOffset = offset + 1 + 8 + 2 + (record.getShort(offset + 1 + 8) & 0xFFFF);
+		record.position(dataOffset + 4);
+		record.limit(dataOffset + 4 + record.getInt(dataOffset));
+		try {
+			return UserContextCodec.decode(record);
+		} catch (RuntimeException e) {
+			logger.error("Stored session cannot be decoded and is removed. " + e.getMessage());
+			removeRecord(sessionId, offset);
+			return null;
+		}
+	}
+
+	@Override
+	public void put(String sessionId, UserContext userContext, long expiresAt) {
+		byte[] id = sessionId.getBytes(StandardCharsets.UTF_8);
+		byte[] data = UserContextCodec.encode(userContext);
+		if(id.length > 0xFFFF) {
+			return;
+		}
+		synchronized(this) {
+			if(!open()) {
+				return;
+			}
+			Integer previous = offsets.get(sessionId);
+			if(previous != null) {
+				removeRecord(sessionId, previous);
+			}
+			int size = RECORD_OVERHEAD + id.length + data.length;
+			try {
+				ensureCapacity(size);
+			} catch (IOException e) {
+				logger.error("Session cannot be stored in " + file + ". " + e.getMessage(), e);
+				return;
+			}
+			// the record becomes visible to a restarted instance only once it is complete
+			ByteBuffer record = buffer.duplicate();
+			record.position(end);
+			record.put(REMOVED).putLong(expiresAt).putShort((short) id.length).put(id).putInt(data.length).put(data);
+			buffer.put(end, LIVE);
+			offsets.put(sessionId, end);
+			setEnd(end + size);
+		}
+	}
+
+	@Override
+	public synchronized void remove(String sessionId) {
+		if(!open()) {
+			return;
+		}
+		Integer offset = offsets.get(sessionId);
+		if(offset != null) {
+			removeRecord(sessionId, offset);
+		}
+	}
+
+	@Override
+	public synchronized int sweep() {
+		if(buffer == null) {
+			return 0;
+		}
+		long now = System.currentTimeMillis();
+		int removed = 0;
+		for(Iterator<Integer> it = offsets.values().iterator(); it.hasNext();) {
+			int offset = it.next();
+			if(buffer.getLong(offset + 1) <= now) {
+				buffer.put(offset, REMOVED);
+				it.remove();
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	@Override
+	public synchronized void close() {
+		if(buffer == null) {
+			return;
+		}
+		buffer.force();
+		try {
+			lock.release();
+			channel.close();
+		} catch (IOException e) {
+			logger.error("Session store " + file + " cannot be closed. " + e.getMessage());
+		}
+		// the mapping is released when the buffer is garbage collected
+		buffer = null;
+		channel = null;
+		offsets.clear();
+	}
+
+	/**
+	 * Open the file and index its records on first use.
+	 * @return false if the file cannot be opened, the sessions are then kept only in the servlet sessions
+	 */
+	private boolean open() {
+		if(buffer != null) {
+			return true;
+		}
+		try {
+			Files.createDirectories(file.toAbsolutePath().getParent());
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			// a region past the records, so the lock does not conflict with the mapped reads and writes on any platform
+			try {
+				lock = channel.tryLock(Long.MAX_VALUE - 1, 1, false);
+			} catch (OverlappingFileLockException e) {
+				lock = null;
+			}
+			if(lock == null) {
+				throw new IOException("The file is used by another instance.");
+			}
+			long size = Math.max(channel.size(), initialSize);
+			if(size > Integer.MAX_VALUE) {
+				throw new IOException("The file is larger than " + Integer.MAX_VALUE + " bytes.");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			index();
+			logger.info("Session store " + file + " opened with " + offsets.size() + " sessions.");
+			return true;
+		} catch (IOException e) {
+			logger.error("Session store " + file + " cannot be opened. " + e.getMessage(), e);
+			try {
+				if(channel != null) {
+					channel.close();
+				}
+			} catch (IOException closeException) {
+				// nothing to release
+			}
+			channel = null;
+			buffer = null;
+			return false;
+		}
+	}
+
+	/**
+	 * Index the live, unexpired records. A new or unreadable file is started over;
+	 * records of a previous user context format version are dropped.
+	 */
+	private void index() {
+		int storedEnd = buffer.getInt(END_OFFSET);
+		if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != UserContextCodec.VERSION
+				|| storedEnd < HEADER_SIZE || storedEnd > buffer.capacity()) {
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, UserContextCodec.VERSION);
+			setEnd(HEADER_SIZE);
+			return;
+		}
+		long now = System.currentTimeMillis();
+		int offset = HEADER_SIZE;
+		while(offset + RECORD_OVERHEAD <= storedEnd) {
+			int idLength = buffer.getShort(offset + 1 + 8) & 0xFFFF;
+			int dataOffset = offset + 1 + 8 + 2 + idLength;
+			if(dataOffset + 4 > storedEnd) {
+				break;
+			}
+			int next = dataOffset + 4 + buffer.getInt(dataOffset);
+			if(next < dataOffset + 4 || next > storedEnd) {
+				break;
+			}
+			if(buffer.get(offset) == LIVE) {
+				if(buffer.getLong(offset + 1) > now) {
+					offsets.put(readId(offset, idLength), offset);
+				} else {
+					buffer.put(offset, REMOVED);
+				}
+			}
+			offset = next;
+		}
+		// a record torn by a crash is overwritten
+		setEnd(offset);
+	}
+
+	private String readId(int offset, int idLength) {
+		byte[] id = new byte[idLength];
+		ByteBuffer record = buffer.duplicate();
+		record.position(offset + 1 + 8 + 2);
+		record.get(id);
+		return new String(id, StandardCharsets.UTF_8);
+	}
+
+	private void removeRecord(String sessionId, int offset) {
+		buffer.put(offset, REMOVED);
+		offsets.remove(sessionId);
+	}
+
+	/**
+	 * Make room for a record: compact the live records, then grow the mapping if still needed.
+	 */
+	private void ensureCapacity(int size) throws IOException {
+		if(end + size <= buffer.capacity()) {
+			return;
+		}
+		sweep();
+		compact();
+		if(end + size <= buffer.capacity()) {
+			return;
+		}
+		long newSize = Math.max((long) buffer.capacity() * 2, (long) end + size);
+		if(newSize > Integer.MAX_VALUE) {
+			throw new IOException("The session store is full.");
+		}
+		buffer.force();
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+		logger.info("Session store " + file + " grown to " + newSize + " bytes.");
+	}
+
+	/**
+	 * Move the live records to the start of the file. The sessions are lost if the application
+	 * crashes during compaction, the end of the records is only set when it is complete.
+	 */
+	private void compact() {
+		List<Map.Entry<String, byte[]>> records = new ArrayList<Map.Entry<String, byte[]>>(offsets.size());
+		for(Map.Entry<String, Integer> entry : offsets.entrySet()) {
+			int offset = entry.getValue();
+			int idLength = buffer.getShort(offset + 1 + 8) & 0xFFFF;
+			int dataOffset = offset + 1 + 8 + 2 + idLength;
+			byte[] record = new byte[dataOffset + 4 + buffer.getInt(dataOffset) - offset];
+			ByteBuffer source = buffer.duplicate();
+			source.position(offset);
+			source.get(record);
+			records.add(new AbstractMap.SimpleEntry<String, byte[]>(entry.getKey(), record));
+		}
+		setEnd(HEADER_SIZE);
+		offsets.clear();
+		ByteBuffer target = buffer.duplicate();
+		target.position(HEADER_SIZE);
+		for(Map.Entry<String, byte[]> record : records) {
+			offsets.put(record.getKey(), target.position());
+			target.put(record.getValue());
+		}
+		setEnd(target.position());
+	}
+
+	private void setEnd(int end) {
+		this.end = end;
+		buffer.putInt(END_OFFSET, end);
+	}
+}
@@ -1,15 +1,33 @@
 package com.example.spark.auth;
 
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+import com.example.spark.util.ConfigUtil;
 import com.example.spark.util.JsonUtil;
 import com.google.gson.JsonObject;
-import com.google.gson.reflect.TypeToken;
 
 import spark.Request;
+import spark.Session;
 
 public class SessionManager {
 
+	private static final String USER_CONTEXT = "userContext";
+	// session id the user context was restored from, its store record is removed on logout
+	private static final String RESTORED_FROM = "restoredFrom";
+	private static final String MAPPED_FILE_NAME = "sessions.map";
+
+	// user contexts by servlet session id, read when the servlet session does not know the user (e.g. after a restart)
+	private static final SessionStore sessionStore = ConfigUtil.SESSION_STORE == ConfigUtil.SessionStoreType.SHARED_DIRECTORY
+			? new DirectorySessionStore(Paths.get(ConfigUtil.SESSION_STORE_DIR))
+			: new MappedFileSessionStore(Paths.get(ConfigUtil.SESSION_STORE_DIR, MAPPED_FILE_NAME), ConfigUtil.SESSION_STORE_MAPPED_FILE_SIZE);
+	private static final LongAdder restoredSessions = new LongAdder();
+	private static ScheduledExecutorService sweepExecutor;
+
 	public static void setUserContext(Request request, String userContextAsJsonStr) {
 		JsonObject jsonBody = JsonUtil.fromJsonToClass(userContextAsJsonStr, JsonObject.class);
 		String sessionToken = jsonBody.get("sessionToken").getAsString();
@@ -19,21 +37,101 @@ public class SessionManager {
 		String lastName = jsonBody.get("lastname").getAsString();
 		boolean admin = jsonBody.get("isAdmin").getAsString().equals("1");
 		boolean changePassword = jsonBody.get("shouldChangePassword").getAsString().equals("1");
-		List<String> customers = JsonUtil.fromJsonElementToType(jsonBody.get("customers"), new TypeToken<List<String>>(){}.getType());
+		List<String> customers = JsonUtil.fromJsonElementToType(jsonBody.get("customers"), JsonUtil.STRING_LIST_TYPE);
 		User user = new User(id, username, firstName, lastName, admin, changePassword, customers);
 		UserContext userContext = new UserContext(sessionToken, user);
-		request.session(true).attribute("userContext", userContext);
+		Session session = request.session(true);
+		session.attribute(USER_CONTEXT, userContext);
+		sessionStore.put(session.id(), userContext, expiresAt());
 	}
-	
+
+	/**
+	 * User context of the servlet session. If the servlet session does not know the user, the user context stored
+	 * for the requested session id is restored into a new servlet session and stored again under its id.
+	 * The record of the requested session id is kept until it expires or the user logs out, as concurrent requests
+	 * may still send it. Requests with unknown session ids get no servlet session.
+	 */
 	public static UserContext getUserContext(Request request) {
-		return request.session().attribute("userContext");
+		Session session = request.session(false);
+		UserContext userContext = session != null ? session.attribute(USER_CONTEXT) : null;
+		if(userContext != null) {
+			return userContext;
+		}
+		String requestedSessionId = request.raw().getRequestedSessionId();
+		if(requestedSessionId == null || (session != null && requestedSessionId.equals(session.id()))) {
+			return null;
+		}
+		userContext = sessionStore.get(requestedSessionId);
+		if(userContext == null) {
+			return null;
+		}
+		session = request.session(true);
+		session.attribute(USER_CONTEXT, userContext);
+		if(!requestedSessionId.equals(session.id())) {
+			session.attribute(RESTORED_FROM, requestedSessionId);
+			sessionStore.put(session.id(), userContext, expiresAt());
+		}
+		restoredSessions.increment();
+		return userContext;
 	}
-	
+
 	public static void clearUserContext(Request request) {
-		request.session().removeAttribute("userContext");
+		Session session = request.session(false);
+		if(session != null) {
+			String restoredFrom = session.attribute(RESTORED_FROM);
+			if(restoredFrom != null) {
+				sessionStore.remove(restoredFrom);
+				session.removeAttribute(RESTORED_FROM);
+			}
+			session.removeAttribute(USER_CONTEXT);
+			sessionStore.remove(session.id());
+		}
+		String requestedSessionId = request.raw().getRequestedSessionId();
+		if(requestedSessionId != null) {
+			sessionStore.remove(requestedSessionId);
+		}
 	}
-	
+
 	public static boolean isUserContextSet(Request request) {
-		return request.session().attribute("userContext") != null;
+		return getUserContext(request) != null;
+	}
+
+	/**
+	 * Number of user contexts restored from the session store into new servlet sessions.
+	 */
+	public static long getRestoredSessions() {
+		return restoredSessions.sum();
+	}
+
+	/**
+	 * Start removing the expired sessions from the session store in the background.
+	 */
+	public static synchronized void startSessionStoreSweep() {
+		if(sweepExecutor != null) {
+			return;
+		}
+		sweepExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "session-store-sweep");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		sweepExecutor.scheduleWithFixedDelay(sessionStore::sweep,
+				ConfigUtil.SESSION_STORE_SWEEP_INTERVAL_SECONDS, ConfigUtil.SESSION_STORE_SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stop the sweep and close the session store.
+	 */
+	public static synchronized void shutdown() {
+		if(sweepExecutor != null) {
+			sweepExecutor.shutdownNow();
+			sweepExecutor = null;
+		}
+		sessionStore.close();
+	}
+
+	private static long expiresAt() {
+		return System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ConfigUtil.SESSION_STORE_TTL_SECONDS);
 	}
 }
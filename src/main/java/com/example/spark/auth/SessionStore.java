@@ -0,0 +1,36 @@
+package com.example.spark.auth;
+
+/**
+ * Store of the user contexts of the sessions by session id, surviving application restarts.
+ * The servlet session keeps the user context of active sessions, the store is read only for sessions
+ * the servlet container does not know (e.g. after a restart or on another instance).
+ * Storage failures are logged and not propagated, the users of lost sessions log in again.
+ * @author Elitza Haltakova
+ *
+ */
+public interface SessionStore {
+
+	/**
+	 * @return the user context of the session, null if it is not stored or expired
+	 */
+	UserContext get(String sessionId);
+
+	/**
+	 * Store the user context of the session, replacing the stored one.
+	 * @param expiresAt time in milliseconds after which the session is no longer returned
+	 */
+	void put(String sessionId, UserContext userContext, long expiresAt);
+
+	void remove(String sessionId);
+
+	/**
+	 * Remove the expired sessions.
+	 * @return number of sessions removed
+	 */
+	int sweep();
+
+	/**
+	 * Write pending changes and release the storage.
+	 */
+	void close();
+}
@@ -0,0 +1,169 @@
+package com.example.spark.auth;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded LRU cache of session token validation results with separate TTLs for valid and invalid tokens.
+ * Concurrent validations of the same token are collapsed into a single call of the validator.
+ * @author Elitza Haltakova
+ *
+ */
+public class SessionTokenCache {
+
+	private final long positiveTtlMillis;
+	private final long negativeTtlMillis;
+	private final Map<String, CachedResult> entries;
+	private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<String, CompletableFuture<Boolean>>();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public SessionTokenCache(int maxSize, long positiveTtl, long negativeTtl, TimeUnit unit) {
+		this.positiveTtlMillis = unit.toMillis(positiveTtl);
+		this.negativeTtlMillis = unit.toMillis(negativeTtl);
+		this.entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+				if(size() > maxSize) {
+					evictions.increment();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Check if a session token is valid, calling the validator only if there is no live cached result.
+	 * @param validator returns whether the token is valid or null if this could not be determined (the result is not cached then)
+	 */
+	public boolean isValid(String sessionToken, Function<String, Boolean> validator) {
+		if(sessionToken == null) {
+			return false;
+		}
+		Boolean cached = lookup(sessionToken);
+		if(cached != null) {
+			hits.increment();
+			return cached;
+		}
+		misses.increment();
+		CompletableFuture<Boolean> call = new CompletableFuture<Boolean>();
+		CompletableFuture<Boolean> pendingCall = inFlight.putIfAbsent(sessionToken, call);
+		if(pendingCall != null) {
+			return awaitPendingCall(pendingCall);
+		}
+		long invalidationsBefore = invalidations.get();
+		try {
+			Boolean valid = validator.apply(sessionToken);
+			if(valid != null && invalidations.get() == invalidationsBefore) {
+				put(sessionToken, valid);
+			}
+			call.complete(valid);
+			return Boolean.TRUE.equals(valid);
+		} catch (RuntimeException | Error e) {
+			call.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(sessionToken, call);
+		}
+	}
+
+	/**
+	 * Drop the cached result for a session token (e.g. on logout).
+	 */
+	public void invalidate(String sessionToken) {
+		if(sessionToken == null) {
+			return;
+		}
+		invalidations.incrementAndGet();
+		synchronized (entries) {
+			entries.remove(sessionToken);
+		}
+	}
+
+	public void clear() {
+		invalidations.incrementAndGet();
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	private Boolean lookup(String sessionToken) {
+		synchronized (entries) {
+			CachedResult entry = entries.get(sessionToken);
+			if(entry == null) {
+				return null;
+			}
+			if(entry.expiresAt < System.currentTimeMillis()) {
+				entries.remove(sessionToken);
+				return null;
+			}
+			return entry.valid;
+		}
+	}
+
+	private void put(String sessionToken, boolean valid) {
+		long ttl = valid ? positiveTtlMillis : negativeTtlMillis;
+		if(ttl <= 0) {
+			return;
+		}
+		synchronized (entries) {
+			entries.put(sessionToken, new CachedResult(valid, System.currentTimeMillis() + ttl));
+		}
+	}
+
+	private static boolean awaitPendingCall(CompletableFuture<Boolean> pendingCall) {
+		try {
+			return Boolean.TRUE.equals(pendingCall.join());
+		} catch (CompletionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if(e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private static class CachedResult {
+
+		final boolean valid;
+		final long expiresAt;
+
+		CachedResult(boolean valid, long expiresAt) {
+			this.valid = valid;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.example.spark.auth;
+
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local verification of signed session tokens against the key set and the revocation list of the Authentication API,
+ * both refreshed in the background. A verification is a signature check and a few lookups, without a remote call.
+ * Tokens with a verified signature are kept, so requests of a session only check the expiry and the revocations.
+ * Tokens that cannot be verified locally (opaque tokens, unknown keys, tokens without an id or customers claim, 
+ * a revocation list too old to be trusted) are left to the remote validation.
+ * @author Elitza Haltakova
+ *
+ */
+public class SessionTokenVerifier {
+
+	private final int maxVerifiedTokens;
+	private final long clockSkewSeconds;
+	private final long revocationsMaxAgeMillis;
+	// tokens with a verified signature by token, cleared when full or when the keys change
+	private final Map<String, SignedSessionToken> verifiedTokens = new ConcurrentHashMap<String, SignedSessionToken>();
+
+	// replaced as a whole on refresh
+	private volatile Map<String, VerificationKey> keys = Collections.emptyMap();
+	private volatile Set<String> revokedByAuthAPI = Collections.emptySet();
+	private volatile long revocationsRefreshedAt;
+	// expiry times of the tokens logged out by this instance and not yet in the pulled revocation list
+	private final Map<String, Long> revokedLocally = new ConcurrentHashMap<String, Long>();
+
+	private final LongAdder valid = new LongAdder();
+	private final LongAdder invalid = new LongAdder();
+	private final LongAdder unverified = new LongAdder();
+
+	public SessionTokenVerifier(int maxVerifiedTokens, long clockSkew, long revocationsMaxAge, TimeUnit unit) {
+		this.maxVerifiedTokens = maxVerifiedTokens;
+		this.clockSkewSeconds = unit.toSeconds(clockSkew);
+		this.revocationsMaxAgeMillis = unit.toMillis(revocationsMaxAge);
+	}
+
+	/**
+	 * Verify a session token locally.
+	 * @param customers customers of the session, the token has to grant access to all of them
+	 * @return whether the token is valid or null if it cannot be verified locally
+	 */
+	public Boolean verify(String sessionToken, List<String> customers) {
+		if(sessionToken == null || System.currentTimeMillis() - revocationsRefreshedAt > revocationsMaxAgeMillis) {
+			unverified.increment();
+			return null;
+		}
+		SignedSessionToken token = verifiedTokens.get(sessionToken);
+		if(token == null) {
+			token = SignedSessionToken.parse(sessionToken);
+			VerificationKey key = token != null ? keys.get(token.getKeyId()) : null;
+			// without an id the token cannot be checked against the revocation list
+			if(key == null || token.getTokenId() == null || token.getCustomers() == null) {
+				unverified.increment();
+				return null;
+			}
+			if(!key.verify(token)) {
+				invalid.increment();
+				return false;
+			}
+			if(verifiedTokens.size() >= maxVerifiedTokens) {
+				verifiedTokens.clear();
+			}
+			verifiedTokens.put(sessionToken, token);
+		}
+		boolean verified = token.getExpiresAt() + clockSkewSeconds > System.currentTimeMillis() / 1000
+				&& (customers == null || token.getCustomers().containsAll(customers))
+				&& !revokedByAuthAPI.contains(token.getTokenId()) && !revokedLocally.containsKey(token.getTokenId());
+		(verified ? valid : invalid).increment();
+		return verified;
+	}
+
+	/**
+	 * Revoke a token on this instance right away, e.g. on logout.
+	 */
+	public void revoke(String sessionToken) {
+		SignedSessionToken token = sessionToken != null ? SignedSessionToken.parse(sessionToken) : null;
+		if(token != null && token.getTokenId() != null) {
+			revokedLocally.put(token.getTokenId(), token.getExpiresAt());
+		}
+	}
+
+	/**
+	 * Replace the signing keys.
+	 * @param keys ES256 public keys by key id
+	 */
+	public void setKeys(Map<String, PublicKey> keys) {
+		Map<String, VerificationKey> verificationKeys = new HashMap<String, VerificationKey>();
+		boolean replaced = false;
+		for(Map.Entry<String, PublicKey> key : keys.entrySet()) {
+			VerificationKey current = this.keys.get(key.getKey());
+			if(current != null && MessageDigest.isEqual(current.key.getEncoded(), key.getValue().getEncoded())) {
+				verificationKeys.put(key.getKey(), current);
+			} else {
+				verificationKeys.put(key.getKey(), new VerificationKey(key.getValue()));
+				replaced |= current != null;
+			}
+		}
+		if(replaced || !verificationKeys.keySet().containsAll(this.keys.keySet())) {
+			// tokens of removed or replaced keys are verified again
+			verifiedTokens.clear();
+		}
+		this.keys = verificationKeys;
+	}
+
+	/**
+	 * Replace the revocation list with the one pulled from the Authentication API.
+	 * @param tokenIds ids of the revoked tokens which have not expired yet
+	 */
+	public void setRevocations(Collection<String> tokenIds) {
+		revokedByAuthAPI = new HashSet<String>(tokenIds);
+		// drop the tokens the Authentication API knows by now and the expired ones
+		long now = System.currentTimeMillis() / 1000;
+		revokedLocally.entrySet().removeIf(revoked -> revokedByAuthAPI.contains(revoked.getKey()) || revoked.getValue() + clockSkewSeconds <= now);
+		revocationsRefreshedAt = System.currentTimeMillis();
+	}
+
+	public long getValid() {
+		return valid.sum();
+	}
+
+	public long getInvalid() {
+		return invalid.sum();
+	}
+
+	public long getUnverified() {
+		return unverified.sum();
+	}
+
+	private static class VerificationKey {
+
+		private final PublicKey key;
+		private final ThreadLocal<Signature> verifiers = ThreadLocal.withInitial(SignedSessionToken::signature);
+
+		VerificationKey(PublicKey key) {
+			this.key = key;
+		}
+
+		boolean verify(SignedSessionToken token) {
+			return token.isSignedBy(key, verifiers.get());
+		}
+	}
+}
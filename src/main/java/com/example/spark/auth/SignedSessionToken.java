@@ -0,0 +1,225 @@
+package com.example.spark.auth;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.example.spark.util.JsonUtil;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Session token signed by the Authentication API, in the JWT compact format with ECDSA P-256 SHA-256 (ES256) signatures:
+ * base64url(header).base64url(claims).base64url(signature). The header names the signing key (kid),
+ * the claims hold the token id (jti), the username (sub), the expiry time (exp, seconds since the epoch) and the customers.
+ * Only the public keys are needed to verify tokens, the private key stays with the Authentication API.
+ * @author Elitza Haltakova
+ *
+ */
+public class SignedSessionToken {
+
+	public static final String ALGORITHM = "ES256";
+	public static final String CURVE = "P-256";
+	private static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+	// size of each of the two integers of an ES256 signature and of the key coordinates
+	private static final int COORDINATE_SIZE = 32;
+
+	private final String keyId;
+	private final String tokenId;
+	private final String subject;
+	private final long expiresAt;
+	private final List<String> customers;
+	private final String signedContent;
+	private final byte[] signature;
+
+	private SignedSessionToken(String keyId, String tokenId, String subject, long expiresAt, List<String> customers, String signedContent, byte[] signature) {
+		this.keyId = keyId;
+		this.tokenId = tokenId;
+		this.subject = subject;
+		this.expiresAt = expiresAt;
+		this.customers = customers;
+		this.signedContent = signedContent;
+		this.signature = signature;
+	}
+
+	/**
+	 * Parse a token without verifying its signature.
+	 * @return null if the token is not a signed token (e.g. an opaque token of the Authentication API)
+	 */
+	public static SignedSessionToken parse(String token) {
+		int claimsStart = token.indexOf('.') + 1;
+		int signatureStart = token.indexOf('.', claimsStart) + 1;
+		if(claimsStart == 0 || signatureStart == 0 || token.indexOf('.', signatureStart) >= 0) {
+			return null;
+		}
+		try {
+			Base64.Decoder decoder = Base64.getUrlDecoder();
+			JsonObject header = JsonUtil.fromJsonToClass(new String(decoder.decode(token.substring(0, claimsStart - 1)), StandardCharsets.UTF_8), JsonObject.class);
+			JsonObject claims = JsonUtil.fromJsonToClass(new String(decoder.decode(token.substring(claimsStart, signatureStart - 1)), StandardCharsets.UTF_8), JsonObject.class);
+			if(header == null || claims == null || !ALGORITHM.equals(string(header, "alg")) || !claims.has("exp")) {
+				return null;
+			}
+			List<String> customers = claims.has("customers") ? JsonUtil.fromJsonElementToType(claims.get("customers"), JsonUtil.STRING_LIST_TYPE) : null;
+			return new SignedSessionToken(string(header, "kid"), string(claims, "jti"), string(claims, "sub"), claims.get("exp").getAsLong(),
+					customers, token.substring(0, signatureStart - 1), decoder.decode(token.substring(signatureStart)));
+		} catch (RuntimeException e) {
+			// not base64url, not JSON or claims of unexpected types
+			return null;
+		}
+	}
+
+	/**
+	 * Sign a session token, as done by the Authentication API (e.g. a stand-in server in tests).
+	 */
+	public static String sign(String keyId, PrivateKey key, String tokenId, String subject, long expiresAt, List<String> customers) {
+		Map<String, Object> header = new HashMap<String, Object>();
+		header.put("alg", ALGORITHM);
+		header.put("typ", "JWT");
+		header.put("kid", keyId);
+		JsonObject claims = new JsonObject();
+		claims.addProperty("jti", tokenId);
+		claims.addProperty("sub", subject);
+		claims.addProperty("exp", expiresAt);
+		JsonArray customersClaim = new JsonArray();
+		for(String customer : customers) {
+			customersClaim.add(customer);
+		}
+		claims.add("customers", customersClaim);
+		Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+		String signedContent = encoder.encodeToString(JsonUtil.toJson(header).getBytes(StandardCharsets.UTF_8)) + "."
+				+ encoder.encodeToString(claims.toString().getBytes(StandardCharsets.UTF_8));
+		try {
+			Signature signer = signature();
+			signer.initSign(key);
+			signer.update(signedContent.getBytes(StandardCharsets.US_ASCII));
+			return signedContent + "." + encoder.encodeToString(derToConcatenated(signer.sign()));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Session token cannot be signed.", e);
+		}
+	}
+
+	/**
+	 * P-256 public key from the coordinates of a JSON Web Key (x and y, unsigned big-endian).
+	 * @throws GeneralSecurityException if the coordinates are not a point of the curve
+	 */
+	public static PublicKey publicKey(byte[] x, byte[] y) throws GeneralSecurityException {
+		AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+		parameters.init(new ECGenParameterSpec("secp256r1"));
+		ECPoint point = new ECPoint(new BigInteger(1, x), new BigInteger(1, y));
+		return KeyFactory.getInstance("EC").generatePublic(new ECPublicKeySpec(point, parameters.getParameterSpec(ECParameterSpec.class)));
+	}
+
+	/**
+	 * Coordinate of a public key point as in a JSON Web Key: unsigned big-endian, 32 bytes.
+	 */
+	public static byte[] coordinate(BigInteger value) {
+		return unsigned(value);
+	}
+
+	/**
+	 * Create a signature engine. Signatures are not thread safe, verifiers keep one per thread.
+	 */
+	static Signature signature() {
+		try {
+			return Signature.getInstance(SIGNATURE_ALGORITHM);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(SIGNATURE_ALGORITHM + " is not supported.", e);
+		}
+	}
+
+	/**
+	 * Verify the signature of the token with a public key.
+	 */
+	boolean isSignedBy(PublicKey key, Signature verifier) {
+		if(signature.length != 2 * COORDINATE_SIZE) {
+			return false;
+		}
+		try {
+			verifier.initVerify(key);
+			verifier.update(signedContent.getBytes(StandardCharsets.US_ASCII));
+			return verifier.verify(concatenatedToDer(signature));
+		} catch (GeneralSecurityException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * JWS signatures are the two integers r and s concatenated, the JCA signature engine reads and writes them DER encoded.
+	 */
+	static byte[] concatenatedToDer(byte[] signature) {
+		byte[] r = new BigInteger(1, Arrays.copyOfRange(signature, 0, COORDINATE_SIZE)).toByteArray();
+		byte[] s = new BigInteger(1, Arrays.copyOfRange(signature, COORDINATE_SIZE, 2 * COORDINATE_SIZE)).toByteArray();
+		byte[] der = new byte[6 + r.length + s.length]; // at most 2 * 33 integer bytes, so single byte lengths
+		der[0] = 0x30;
+		der[1] = (byte) (4 + r.length + s.length);
+		der[2] = 0x02;
+		der[3] = (byte) r.length;
+		System.arraycopy(r, 0, der, 4, r.length);
+		der[4 + r.length] = 0x02;
+		der[5 + r.length] = (byte) s.length;
+		System.arraycopy(s, 0, der, 6 + r.length, s.length);
+		return der;
+	}
+
+	static byte[] derToConcatenated(byte[] der) {
+		int rLength = der[3];
+		BigInteger r = new BigInteger(1, Arrays.copyOfRange(der, 4, 4 + rLength));
+		int sLength = der[5 + rLength];
+		BigInteger s = new BigInteger(1, Arrays.copyOfRange(der, 6 + rLength, 6 + rLength + sLength));
+		byte[] signature = new byte[2 * COORDINATE_SIZE];
+		System.arraycopy(unsigned(r), 0, signature, 0, COORDINATE_SIZE);
+		System.arraycopy(unsigned(s), 0, signature, COORDINATE_SIZE, COORDINATE_SIZE);
+		return signature;
+	}
+
+	private static byte[] unsigned(BigInteger value) {
+		byte[] bytes = value.toByteArray();
+		byte[] unsigned = new byte[COORDINATE_SIZE];
+		int length = Math.min(bytes.length, COORDINATE_SIZE);
+		System.arraycopy(bytes, bytes.length - length, unsigned, COORDINATE_SIZE - length, length);
+		return unsigned;
+	}
+
+	public String getKeyId() {
+		return keyId;
+	}
+
+	public String getTokenId() {
+		return tokenId;
+	}
+
+	public String getSubject() {
+		return subject;
+	}
+
+	/**
+	 * @return expiry time in seconds since the epoch
+	 */
+	public long getExpiresAt() {
+		return expiresAt;
+	}
+
+	public List<String> getCustomers() {
+		return customers;
+	}
+
+	private static String string(JsonObject object, String name) {
+		JsonElement value = object.get(name);
+		return value == null || value.isJsonNull() ? null : value.getAsString();
+	}
+}
@@ -1,7 +1,14 @@
 package com.example.spark.auth;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
 /**
  * User class.
  * @author Elitza Haltakova
@@ -55,4 +62,89 @@ public class User {
 	public List<String> getCustomers() {
 		return customers;
 	}
+
+	/**
+	 * Reflection free Gson adapter, registered in JsonUtil.
+	 */
+	public static class GsonAdapter extends TypeAdapter<User> {
+
+		@Override
+		public void write(JsonWriter out, User user) throws IOException {
+			if(user == null) {
+				out.nullValue();
+				return;
+			}
+			out.beginObject();
+			out.name("id").value(user.id);
+			out.name("username").value(user.username);
+			out.name("firstName").value(user.firstName);
+			out.name("lastName").value(user.lastName);
+			out.name("admin").value(user.admin);
+			out.name("changePassword").value(user.changePassword);
+			if(user.customers != null) {
+				out.name("customers");
+				out.beginArray();
+				for(String customer : user.customers) {
+					out.value(customer);
+				}
+				out.endArray();
+			}
+			out.endObject();
+		}
+
+		@Override
+		public User read(JsonReader in) throws IOException {
+			if(in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			int id = 0;
+			String username = null;
+			String firstName = null;
+			String lastName = null;
+			boolean admin = false;
+			boolean changePassword = false;
+			List<String> customers = null;
+			in.beginObject();
+			while(in.hasNext()) {
+				String name = in.nextName();
+				if(in.peek() == JsonToken.NULL) {
+					in.nextNull();
+					continue;
+				}
+				switch(name) {
+					case "id":
+						id = in.nextInt();
+						break;
+					case "username":
+						username = in.nextString();
+						break;
+					case "firstName":
+						firstName = in.nextString();
+						break;
+					case "lastName":
+						lastName = in.nextString();
+						break;
+					case "admin":
+						admin = in.nextBoolean();
+						break;
+					case "changePassword":
+						changePassword = in.nextBoolean();
+						break;
+					case "customers":
+						customers = new ArrayList<String>();
+						in.beginArray();
+						while(in.hasNext()) {
+							customers.add(in.nextString());
+						}
+						in.endArray();
+						break;
+					default:
+						in.skipValue();
+				}
+			}
+			in.endObject();
+			return new User(id, username, firstName, lastName, admin, changePassword, customers);
+		}
+	}
 }
@@ -1,9 +1,14 @@
 package com.example.spark.auth;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
 import com.example.spark.util.JsonUtil;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * User context class.
@@ -39,4 +44,56 @@ public class UserContext {
 		map.put("customers", user.getCustomers());
 		return JsonUtil.toJson(map);
 	}
+
+	/**
+	 * Reflection free Gson adapter, registered in JsonUtil.
+	 */
+	public static class GsonAdapter extends TypeAdapter<UserContext> {
+
+		private final User.GsonAdapter userAdapter = new User.GsonAdapter();
+
+		@Override
+		public void write(JsonWriter out, UserContext userContext) throws IOException {
+			if(userContext == null) {
+				out.nullValue();
+				return;
+			}
+			out.beginObject();
+			out.name("sessionToken").value(userContext.sessionToken);
+			if(userContext.user != null) {
+				out.name("user");
+				userAdapter.write(out, userContext.user);
+			}
+			out.endObject();
+		}
+
+		@Override
+		public UserContext read(JsonReader in) throws IOException {
+			if(in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			String sessionToken = null;
+			User user = null;
+			in.beginObject();
+			while(in.hasNext()) {
+				switch(in.nextName()) {
+					case "sessionToken":
+						if(in.peek() == JsonToken.NULL) {
+							in.nextNull();
+						} else {
+							sessionToken = in.nextString();
+						}
+						break;
+					case "user":
+						user = userAdapter.read(in);
+						break;
+					default:
+						in.skipValue();
+				}
+			}
+			in.endObject();
+			return new UserContext(sessionToken, user);
+		}
+	}
 }
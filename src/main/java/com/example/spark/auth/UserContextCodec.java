@@ -0,0 +1,143 @@
+package com.example.spark.auth;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary encoding of a user context for the session stores.
+ * Fields are written in a fixed order after a format version byte: lengths and counts as variable length integers
+ * (0 for null, otherwise the length plus 1), strings as UTF-8 and the user flags in a single byte.
+ * A typical user context takes about a hundred bytes and is decoded without reflection or intermediate objects.
+ * @author Elitza Haltakova
+ *
+ */
+final class UserContextCodec {
+
+	static final byte VERSION = 1;
+
+	private static final int ADMIN = 1;
+	private static final int CHANGE_PASSWORD = 2;
+
+	private byte[] bytes = new byte[128];
+	private int length;
+
+	private UserContextCodec() {
+	}
+
+	static byte[] encode(UserContext userContext) {
+		UserContextCodec out = new UserContextCodec();
+		User user = userContext.getUser();
+		out.writeByte(VERSION);
+		out.writeString(userContext.getSessionToken());
+		out.writeVarInt(user.getId());
+		out.writeString(user.getUsername());
+		out.writeString(user.getFirstName());
+		out.writeString(user.getLastName());
+		out.writeByte((user.isAdmin() ? ADMIN : 0) | (user.shouldChangePassword() ? CHANGE_PASSWORD : 0));
+		List<String> customers = user.getCustomers();
+		out.writeVarInt(customers == null ? 0 : customers.size() + 1);
+		if(customers != null) {
+			for(String customer : customers) {
+				out.writeString(customer);
+			}
+		}
+		return Arrays.copyOf(out.bytes, out.length);
+	}
+
+	/**
+	 * Decode a user context from the current position of the buffer, advancing it past the encoded user context.
+	 * @throws IllegalArgumentException if the data is not a user context of a known format version
+	 */
+	static UserContext decode(ByteBuffer in) {
+		byte version = in.get();
+		if(version != VERSION) {
+			throw new IllegalArgumentException("Unknown user context format version " + version + ".");
+		}
+		String sessionToken = readString(in);
+		int id = readVarInt(in);
+		String username = readString(in);
+		String firstName = readString(in);
+		String lastName = readString(in);
+		int flags = in.get();
+		int count = readVarInt(in);
+		List<String> customers = null;
+		if(count > 0) {
+			customers = new ArrayList<String>(count - 1);
+			for(int i = 1; i < count; i++) {
+				customers.add(readString(in));
+			}
+		}
+		User user = new User(id, username, firstName, lastName, (flags & ADMIN) != 0, (flags & CHANGE_PASSWORD) != 0, customers);
+		return new UserContext(sessionToken, user);
+	}
+
+	private void writeByte(int value) {
+		ensureCapacity(1);
+		bytes[length++] = (byte) value;
+	}
+
+	/**
+	 * Unsigned LEB128: 7 bits per byte, the high bit set on all bytes but the last.
+	 */
+	private void writeVarInt(int value) {
+		ensureCapacity(5);
+		while((value & ~0x7F) != 0) {
+			bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[length++] = (byte) value;
+	}
+
+	private void writeString(String value) {
+		if(value == null) {
+			writeVarInt(0);
+			return;
+		}
+		byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(utf8.length + 1);
+		ensureCapacity(utf8.length);
+		System.arraycopy(utf8, 0, bytes, length, utf8.length);
+		length += utf8.length;
+	}
+
+	private void ensureCapacity(int additional) {
+		if(length + additional > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+		}
+	}
+
+	private static int readVarInt(ByteBuffer in) {
+		int value = 0;
+		for(int shift = 0; shift < 32; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if(b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed variable length integer.");
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = readVarInt(in) - 1;
+		if(length < 0) {
+			return null;
+		}
+		if(length > in.remaining()) {
+			throw new IllegalArgumentException("String of " + length + " bytes exceeds the encoded user context.");
+		}
+		String value;
+		if(in.hasArray()) {
+			value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+			in.position(in.position() + length);
+		} else {
+			byte[] utf8 = new byte[length];
+			in.get(utf8);
+			value = new String(utf8, StandardCharsets.UTF_8);
+		}
+		return value;
+	}
+}
@@ -27,7 +27,7 @@ public class IndexController {
 		}
 		HashMap<String, String> links = new HashMap<String, String>();
 		model.put("links", links);
-		UserContext usrContext =  request.session().attribute("userContext");
+		UserContext usrContext = SessionManager.getUserContext(request);
 		response.header("Set-Cookie", "userContext=" + usrContext);  // to be able to access the user context on the client side
 		return ViewUtil.render(request, model, Path.Template.INDEX);
 	};
@@ -54,7 +54,9 @@ public class LoginController {
 	// get /logout
 	public static Route handleLogout = (Request request, Response response) -> {		
 		AuthenticationMgr authMgr = new AuthenticationMgr();
-		HTTPResponse result = authMgr.logout(SessionManager.getUserContext(request).getSessionToken());		
+		String sessionToken = SessionManager.getUserContext(request).getSessionToken();
+		authMgr.invalidateSessionToken(sessionToken);
+		HTTPResponse result = authMgr.logout(sessionToken);		
 		if (result.status == 200) {
 			SessionManager.clearUserContext(request);
 			String contextPath = request.contextPath() != null ? request.contextPath() : "";
@@ -0,0 +1,432 @@
+package com.example.spark.slidealbums;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Persistent state of the slide albums catalog: a snapshot of all slide albums and a journal of the changes since,
+ * so a restarted catalog is loaded from two local files instead of walking the workspaces directory.
+ * <p>
+ * Both files are binary with length prefixed UTF-8 strings. The snapshot ends with a CRC32 of its content and is
+ * replaced atomically; journal records carry their own CRC32, so a record torn by a crash ends the replay.
+ * Replaying a record twice has no effect, which makes a checkpoint safe at any point: the journal is rotated,
+ * the snapshot written, then the rotated journal deleted. Journal writes are not forced to disk,
+ * they survive a crash of the application; anything lost otherwise is found by the reconcile.
+ * The snapshot also keeps the modification time of each customer directory when its slide albums were listed,
+ * so the reconcile after a load can skip the customer directories not changed since.
+ * @author Elitza Haltakova
+ *
+ */
+class CatalogStore {
+
+	final static Logger logger = Logger.getLogger(CatalogStore.class);
+
+	private static final int SNAPSHOT_MAGIC = 0x53414353; // "SACS"
+	private static final int FORMAT_VERSION = 2;
+	private static final String SNAPSHOT = "catalog.snapshot";
+	private static final String JOURNAL = "catalog.journal";
+	private static final String ROTATED_JOURNAL = "catalog.journal.1";
+
+	// journal record types
+	private static final byte CUSTOMER = 1;
+	private static final byte PUT = 2;
+	private static final byte REMOVE = 3;
+	private static final byte REMOVE_CUSTOMER = 4;
+
+	// slide album flags
+	private static final int RACY = 1;
+
+	/**
+	 * Receiver of the loaded snapshot and of the replayed journal records.
+	 */
+	interface Loader {
+
+		void customer(String customer);
+
+		/**
+		 * @param racy the slide album directory was modified within the timestamp resolution of being read
+		 */
+		void put(SlideAlbum slideAlbum, boolean racy);
+
+		void remove(String title, String customer);
+
+		void removeCustomer(String customer);
+
+		/**
+		 * Modification time of a customer directory when its slide albums were listed, 
+		 * called after loading for the customers without journaled changes since the snapshot.
+		 */
+		void customerDirModified(String customer, long modified);
+	}
+
+	private final Path dir;
+	private FileChannel journal;
+	private long journalRecords;
+	private boolean closed;
+
+	CatalogStore(Path dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Load the snapshot and replay the journal, then open the journal for appending.
+	 * @return false if there is no usable snapshot, the catalog then has to be built by a full scan
+	 * and changes are journaled from its first checkpoint on
+	 */
+	synchronized boolean load(Loader loader) {
+		try {
+			Files.createDirectories(dir);
+			Map<String, Long> customerDirsModified = new HashMap<String, Long>();
+			if(!readSnapshot(loader, customerDirsModified)) {
+				return false;
+			}
+			// left by a checkpoint interrupted before its snapshot was written or the journal deleted
+			replay(dir.resolve(ROTATED_JOURNAL), loader, customerDirsModified.keySet());
+			journalRecords = replay(dir.resolve(JOURNAL), loader, customerDirsModified.keySet());
+			openJournal(false);
+			customerDirsModified.forEach(loader::customerDirModified);
+			return true;
+		} catch (IOException e) {
+			logger.error("Slide albums catalog state in " + dir + " cannot be loaded. " + e.getMessage(), e);
+			return false;
+		}
+	}
+
+	void appendCustomer(String customer) {
+		append(CUSTOMER, out -> writeString(out, customer));
+	}
+
+	void appendPut(SlideAlbum slideAlbum, boolean racy) {
+		append(PUT, out -> writeSlideAlbum(out, slideAlbum, racy));
+	}
+
+	void appendRemove(String title, String customer) {
+		append(REMOVE, out -> {
+			writeString(out, customer);
+			writeString(out, title);
+		});
+	}
+
+	void appendRemoveCustomer(String customer) {
+		append(REMOVE_CUSTOMER, out -> writeString(out, customer));
+	}
+
+	/**
+	 * @return whether there are changes since the last snapshot
+	 */
+	synchronized boolean hasChanges() {
+		return journal == null || journalRecords > 0;
+	}
+
+	/**
+	 * Write a snapshot of the catalog and start a new journal.
+	 * @param slideAlbums slide albums by customer, taken while no records are appended
+	 * @param racy slide albums to read again on the next reconcile
+	 * @param customerDirModified modification time of a customer directory when its slide albums were listed, -1 if unknown
+	 */
+	void checkpoint(Supplier<Map<String, Collection<SlideAlbum>>> slideAlbums, Predicate<SlideAlbum> racy, 
+			ToLongFunction<String> customerDirModified) {
+		Map<String, Collection<SlideAlbum>> state;
+		synchronized(this) {
+			if(closed) {
+				return;
+			}
+			try {
+				Files.createDirectories(dir);
+				if(journal != null) {
+					journal.close();
+					Files.move(dir.resolve(JOURNAL), dir.resolve(ROTATED_JOURNAL), StandardCopyOption.REPLACE_EXISTING);
+				}
+				state = slideAlbums.get();
+				openJournal(true);
+			} catch (IOException e) {
+				logger.error("Slide albums catalog journal cannot be rotated. " + e.getMessage(), e);
+				reopenJournal();
+				return;
+			}
+		}
+		Path temp = dir.resolve(SNAPSHOT + ".tmp");
+		try {
+			CRC32 crc = new CRC32();
+			try(OutputStream file = Files.newOutputStream(temp)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc), 65536));
+				out.writeInt(SNAPSHOT_MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(state.size());
+				for(Map.Entry<String, Collection<SlideAlbum>> customer : state.entrySet()) {
+					writeString(out, customer.getKey());
+					out.writeLong(customerDirModified.applyAsLong(customer.getKey()));
+					out.writeInt(customer.getValue().size());
+					for(SlideAlbum slideAlbum : customer.getValue()) {
+						writeSlideAlbum(out, slideAlbum, racy.test(slideAlbum));
+					}
+				}
+				out.flush();
+				// the checksum itself is not part of the checked content
+				new DataOutputStream(file).writeLong(crc.getValue());
+			}
+			Files.move(temp, dir.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			Files.deleteIfExists(dir.resolve(ROTATED_JOURNAL));
+		} catch (IOException e) {
+			// the rotated journal is replayed with the current one on the next start
+			logger.error("Slide albums catalog snapshot cannot be written. " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Close the journal, later changes and checkpoints are ignored.
+	 */
+	synchronized void close() {
+		closed = true;
+		if(journal != null) {
+			try {
+				journal.force(false);
+				journal.close();
+			} catch (IOException e) {
+				logger.error("Slide albums catalog journal cannot be closed. " + e.getMessage());
+			}
+			journal = null;
+		}
+	}
+
+	private interface RecordWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	private void append(byte type, RecordWriter writer) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0); // length and checksum, set below
+			out.writeLong(0);
+			out.writeByte(type);
+			writer.write(out);
+			ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+			CRC32 crc = new CRC32();
+			crc.update(record.array(), 12, record.limit() - 12);
+			record.putInt(0, record.limit() - 12).putLong(4, crc.getValue());
+			synchronized(this) {
+				if(journal == null) {
+					return;
+				}
+				while(record.hasRemaining()) {
+					journal.write(record);
+				}
+				journalRecords++;
+			}
+		} catch (IOException e) {
+			// the change is found by the next reconcile
+			logger.error("Slide albums catalog journal cannot be written. " + e.getMessage(), e);
+		}
+	}
+
+	private void openJournal(boolean truncate) throws IOException {
+		Path file = dir.resolve(JOURNAL);
+		journal = truncate
+				? FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+				: FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		if(truncate) {
+			journalRecords = 0;
+		}
+		journal.position(journal.size());
+	}
+
+	private void reopenJournal() {
+		try {
+			if(!Files.exists(dir.resolve(JOURNAL)) && Files.exists(dir.resolve(ROTATED_JOURNAL))) {
+				Files.move(dir.resolve(ROTATED_JOURNAL), dir.resolve(JOURNAL));
+			}
+			openJournal(false);
+		} catch (IOException e) {
+			logger.error("Slide albums catalog journal cannot be opened, changes are found by the reconcile only. " + e.getMessage(), e);
+			journal = null;
+		}
+	}
+
+	private boolean readSnapshot(Loader loader, Map<String, Long> customerDirsModified) throws IOException {
+		byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(dir.resolve(SNAPSHOT));
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+		ByteBuffer in = ByteBuffer.wrap(bytes);
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, Math.max(0, bytes.length - 8));
+		if(bytes.length < 20 || in.getInt(0) != SNAPSHOT_MAGIC || in.getInt(4) != FORMAT_VERSION || in.getLong(bytes.length - 8) != crc.getValue()) {
+			logger.warn("Slide albums catalog snapshot is not valid and is ignored.");
+			return false;
+		}
+		in.position(8);
+		in.limit(bytes.length - 8);
+		try {
+			int customers = in.getInt();
+			for(int i = 0; i < customers; i++) {
+				String customer = readString(in);
+				loader.customer(customer);
+				long modified = in.getLong();
+				if(modified >= 0) {
+					customerDirsModified.put(customer, modified);
+				}
+				int count = in.getInt();
+				for(int j = 0; j < count; j++) {
+					readSlideAlbum(in, loader);
+				}
+			}
+		} catch (RuntimeException e) {
+			logger.warn("Slide albums catalog snapshot cannot be read and is ignored. " + e.getMessage());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Apply the complete records of a journal and truncate a torn one at its end.
+	 * @param unchangedCustomers customers whose records are replayed are removed
+	 * @return number of records applied
+	 */
+	private long replay(Path file, Loader loader, Set<String> unchangedCustomers) throws IOException {
+		byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(file);
+		} catch (NoSuchFileException e) {
+			return 0;
+		}
+		ByteBuffer in = ByteBuffer.wrap(bytes);
+		long records = 0;
+		CRC32 crc = new CRC32();
+		while(in.remaining() >= 12) {
+			int start = in.position();
+			int length = in.getInt();
+			long checksum = in.getLong();
+			if(length <= 0 || length > in.remaining()) {
+				in.position(start);
+				break;
+			}
+			crc.reset();
+			crc.update(bytes, in.position(), length);
+			if(crc.getValue() != checksum) {
+				in.position(start);
+				break;
+			}
+			ByteBuffer record = ByteBuffer.wrap(bytes, in.position(), length).slice();
+			in.position(in.position() + length);
+			String customer;
+			switch(record.get()) {
+				case CUSTOMER:
+					customer = readString(record);
+					loader.customer(customer);
+					break;
+				case PUT:
+					customer = readSlideAlbum(record, loader).getCustomer();
+					break;
+				case REMOVE:
+					customer = readString(record);
+					loader.remove(readString(record), customer);
+					break;
+				case REMOVE_CUSTOMER:
+					customer = readString(record);
+					loader.removeCustomer(customer);
+					break;
+				default:
+					customer = null;
+					break;
+			}
+			unchangedCustomers.remove(customer);
+			records++;
+		}
+		if(in.position() < bytes.length) {
+			logger.warn("Slide albums catalog journal " + file.getFileName() + " ends with an incomplete record, which is dropped.");
+			try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.truncate(in.position());
+			}
+		}
+		return records;
+	}
+
+	private static void writeSlideAlbum(DataOutputStream out, SlideAlbum slideAlbum, boolean racy) throws IOException {
+		writeString(out, slideAlbum.getCustomer());
+		writeString(out, slideAlbum.getTitle());
+		out.writeLong(slideAlbum.getModificationDate());
+		out.writeByte(racy ? RACY : 0);
+		writeString(out, slideAlbum.lockedBy());
+		writeString(out, slideAlbum.getSvg());
+		List<SlideAlbumFile> files = slideAlbum.getFiles();
+		out.writeInt(files != null ? files.size() : -1);
+		if(files != null) {
+			for(SlideAlbumFile file : files) {
+				writeString(out, file.getExt());
+				writeString(out, file.getName());
+			}
+		}
+	}
+
+	private static SlideAlbum readSlideAlbum(ByteBuffer in, Loader loader) {
+		String customer = readString(in);
+		SlideAlbum.Builder builder = new SlideAlbum.Builder(readString(in), customer)
+				.modificationDate(in.getLong());
+		boolean racy = (in.get() & RACY) != 0;
+		builder = builder.lockedBy(readString(in)).svg(readString(in));
+		int count = in.getInt();
+		if(count >= 0) {
+			List<SlideAlbumFile> files = new ArrayList<SlideAlbumFile>(count);
+			for(int i = 0; i < count; i++) {
+				files.add(new SlideAlbumFile(readString(in), readString(in)));
+			}
+			builder = builder.files(files);
+		}
+		SlideAlbum slideAlbum = builder.build();
+		loader.put(slideAlbum, racy);
+		return slideAlbum;
+	}
+
+	/**
+	 * Unsigned short length plus 1 (0 for null) and UTF-8 bytes, file names are far below the limit.
+	 */
+	static void writeString(DataOutputStream out, String value) throws IOException {
+		if(value == null) {
+			out.writeShort(0);
+			return;
+		}
+		byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+		if(utf8.length >= 0xFFFF) {
+			throw new IOException("Name of " + utf8.length + " bytes is too long to be stored.");
+		}
+		out.writeShort(utf8.length + 1);
+		out.write(utf8);
+	}
+
+	static String readString(ByteBuffer in) {
+		int length = (in.getShort() & 0xFFFF) - 1;
+		if(length < 0) {
+			return null;
+		}
+		String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+		in.position(in.position() + length);
+		return value;
+	}
+}
@@ -0,0 +1,71 @@
+package com.example.spark.slidealbums;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Slide albums of one customer in the catalog, indexed by exact title and kept pre-sorted
+ * by title and by modification date. Updates are serialized, reads are lock free.
+ * @author Elitza Haltakova
+ *
+ */
+class CustomerSlideAlbums {
+
+	static final Comparator<SlideAlbum> BY_TITLE = Comparator.comparing(SlideAlbum::getTitle, String.CASE_INSENSITIVE_ORDER)
+			.thenComparing(SlideAlbum::getTitle)
+			.thenComparing(SlideAlbum::getCustomer);
+	static final Comparator<SlideAlbum> BY_MODIFICATION_DATE = Comparator.comparingLong(SlideAlbum::getModificationDate)
+			.thenComparing(SlideAlbum::getCustomer)
+			.thenComparing(SlideAlbum::getTitle);
+	static final Comparator<SlideAlbum> BY_CUSTOMER = Comparator.comparing(SlideAlbum::getCustomer)
+			.thenComparing(BY_TITLE);
+
+	private final ConcurrentSkipListMap<String, SlideAlbum> byKey = new ConcurrentSkipListMap<String, SlideAlbum>();
+	private final ConcurrentSkipListSet<SlideAlbum> byTitle = new ConcurrentSkipListSet<SlideAlbum>(BY_TITLE);
+	private final ConcurrentSkipListSet<SlideAlbum> byModificationDate = new ConcurrentSkipListSet<SlideAlbum>(BY_MODIFICATION_DATE);
+
+	SlideAlbum get(String title) {
+		return byKey.get(title);
+	}
+
+	/**
+	 * Live view ordered by title.
+	 */
+	Collection<SlideAlbum> values() {
+		return Collections.unmodifiableCollection(byKey.values());
+	}
+
+	NavigableSet<SlideAlbum> byTitle() {
+		return Collections.unmodifiableNavigableSet(byTitle);
+	}
+
+	NavigableSet<SlideAlbum> byModificationDate() {
+		return Collections.unmodifiableNavigableSet(byModificationDate);
+	}
+
+	int size() {
+		return byKey.size();
+	}
+
+	synchronized void put(SlideAlbum slideAlbum) {
+		SlideAlbum previous = byKey.put(slideAlbum.getTitle(), slideAlbum);
+		if(previous != null) {
+			byTitle.remove(previous);
+			byModificationDate.remove(previous);
+		}
+		byTitle.add(slideAlbum);
+		byModificationDate.add(slideAlbum);
+	}
+
+	synchronized void remove(String title) {
+		SlideAlbum previous = byKey.remove(title);
+		if(previous != null) {
+			byTitle.remove(previous);
+			byModificationDate.remove(previous);
+		}
+	}
+}
@@ -1,7 +1,14 @@
 package com.example.spark.slidealbums;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
 /**
  * Slide Album model class.
  * Uses Builder pattern.
@@ -94,4 +101,85 @@ public class SlideAlbum {
 	public String toString() {
 		return "Slide album " + title + " [" + customer + "]"; 
 	}
+
+	/**
+	 * Reflection free Gson adapter, registered in JsonUtil.
+	 */
+	public static class GsonAdapter extends TypeAdapter<SlideAlbum> {
+
+		private final SlideAlbumFile.GsonAdapter fileAdapter = new SlideAlbumFile.GsonAdapter();
+
+		@Override
+		public void write(JsonWriter out, SlideAlbum slideAlbum) throws IOException {
+			if(slideAlbum == null) {
+				out.nullValue();
+				return;
+			}
+			out.beginObject();
+			out.name("title").value(slideAlbum.title);
+			out.name("customer").value(slideAlbum.customer);
+			out.name("modificationDate").value(slideAlbum.modificationDate);
+			out.name("locked").value(slideAlbum.locked);
+			out.name("svg").value(slideAlbum.svg);
+			if(slideAlbum.files != null) {
+				out.name("files");
+				out.beginArray();
+				for(SlideAlbumFile file : slideAlbum.files) {
+					fileAdapter.write(out, file);
+				}
+				out.endArray();
+			}
+			out.endObject();
+		}
+
+		@Override
+		public SlideAlbum read(JsonReader in) throws IOException {
+			if(in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			String title = null;
+			String customer = null;
+			long modificationDate = 0;
+			String locked = null;
+			String svg = null;
+			List<SlideAlbumFile> files = null;
+			in.beginObject();
+			while(in.hasNext()) {
+				switch(in.nextName()) {
+					case "title":
+						title = SlideAlbumFile.nextString(in);
+						break;
+					case "customer":
+						customer = SlideAlbumFile.nextString(in);
+						break;
+					case "modificationDate":
+						modificationDate = in.nextLong();
+						break;
+					case "locked":
+						locked = SlideAlbumFile.nextString(in);
+						break;
+					case "svg":
+						svg = SlideAlbumFile.nextString(in);
+						break;
+					case "files":
+						if(in.peek() == JsonToken.NULL) {
+							in.nextNull();
+							break;
+						}
+						files = new ArrayList<SlideAlbumFile>();
+						in.beginArray();
+						while(in.hasNext()) {
+							files.add(fileAdapter.read(in));
+						}
+						in.endArray();
+						break;
+					default:
+						in.skipValue();
+				}
+			}
+			in.endObject();
+			return new Builder(title, customer).modificationDate(modificationDate).lockedBy(locked).svg(svg).files(files).build();
+		}
+	}
 }
@@ -0,0 +1,22 @@
+package com.example.spark.slidealbums;
+
+/**
+ * Thrown when a user changes slide albums of a customer the user cannot access.
+ * @author Elitza Haltakova
+ *
+ */
+public class SlideAlbumAccessDeniedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String customer;
+
+	public SlideAlbumAccessDeniedException(String customer) {
+		super("Slide albums of customer " + customer + " cannot be accessed.");
+		this.customer = customer;
+	}
+
+	public String getCustomer() {
+		return customer;
+	}
+}
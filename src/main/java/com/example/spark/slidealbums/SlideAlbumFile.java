@@ -1,5 +1,12 @@
 package com.example.spark.slidealbums;
 
+import java.io.IOException;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
 /**
  * Slide Album File model class
  * @author Elitza Haltakova
@@ -21,4 +28,55 @@ public class SlideAlbumFile {
 	public String getName() {
 		return name;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Reflection free Gson adapter, registered in JsonUtil.
+	 */
+	public static class GsonAdapter extends TypeAdapter<SlideAlbumFile> {
+
+		@Override
+		public void write(JsonWriter out, SlideAlbumFile file) throws IOException {
+			if(file == null) {
+				out.nullValue();
+				return;
+			}
+			out.beginObject();
+			out.name("ext").value(file.ext);
+			out.name("name").value(file.name);
+			out.endObject();
+		}
+
+		@Override
+		public SlideAlbumFile read(JsonReader in) throws IOException {
+			if(in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			String ext = null;
+			String name = null;
+			in.beginObject();
+			while(in.hasNext()) {
+				switch(in.nextName()) {
+					case "ext":
+						ext = nextString(in);
+						break;
+					case "name":
+						name = nextString(in);
+						break;
+					default:
+						in.skipValue();
+				}
+			}
+			in.endObject();
+			return new SlideAlbumFile(ext, name);
+		}
+	}
+
+	static String nextString(JsonReader in) throws IOException {
+		if(in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		return in.nextString();
+	}
+}
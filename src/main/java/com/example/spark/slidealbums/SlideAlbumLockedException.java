@@ -0,0 +1,28 @@
+package com.example.spark.slidealbums;
+
+/**
+ * Thrown when a slide album is locked by another user whose lease has not expired.
+ * @author Elitza Haltakova
+ *
+ */
+public class SlideAlbumLockedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String title;
+	private final String lockedBy;
+
+	public SlideAlbumLockedException(String title, String lockedBy) {
+		super("Slide album " + title + " is locked by " + lockedBy + ".");
+		this.title = title;
+		this.lockedBy = lockedBy;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getLockedBy() {
+		return lockedBy;
+	}
+}
@@ -0,0 +1,120 @@
+package com.example.spark.slidealbums;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Striped read/write locks of the slide albums, keyed by customer and title.
+ * Writers also hold an exclusive file lock on a hidden lock file of the slide album,
+ * so other processes working on the workspaces directory are excluded as well.
+ * Slide albums on different stripes never block each other.
+ * @author Elitza Haltakova
+ *
+ */
+class SlideAlbumLocks {
+
+	private static final String LOCKS_DIR = ".locks";
+	private static final long FILE_LOCK_RETRY_MS = 20;
+
+	private final File workspacesDir;
+	private final ReadWriteLock[] stripes;
+	private final long timeoutMillis;
+
+	/**
+	 * @param stripes number of stripes, rounded up to a power of two
+	 * @param timeoutMillis how long to wait for a lock before giving up
+	 */
+	SlideAlbumLocks(String workspacesDir, int stripes, long timeoutMillis) {
+		this.workspacesDir = new File(workspacesDir);
+		this.stripes = new ReadWriteLock[Integer.highestOneBit(Math.max(1, stripes - 1)) << 1];
+		for(int i = 0; i < this.stripes.length; i++) {
+			this.stripes[i] = new ReentrantReadWriteLock();
+		}
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Work on a slide album, run while holding its lock.
+	 */
+	interface Action<T> {
+		T run() throws IOException;
+	}
+
+	/**
+	 * Run an action that only reads the slide album. Readers of the same slide album run concurrently.
+	 */
+	<T> T read(String customer, String title, Action<T> action) throws IOException {
+		Lock lock = stripe(customer, title).readLock();
+		acquire(lock, customer, title);
+		try {
+			return action.run();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Run an action that changes the slide album, excluding all other readers and writers of it,
+	 * in this and in other processes.
+	 */
+	<T> T write(String customer, String title, Action<T> action) throws IOException {
+		Lock lock = stripe(customer, title).writeLock();
+		acquire(lock, customer, title);
+		try {
+			Path locksDir = new File(workspacesDir, customer + "/" + LOCKS_DIR).toPath();
+			Files.createDirectories(locksDir);
+			try (FileChannel channel = FileChannel.open(locksDir.resolve(title + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				FileLock fileLock = lockFile(channel, customer, title);
+				try {
+					return action.run();
+				} finally {
+					fileLock.release();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private ReadWriteLock stripe(String customer, String title) {
+		int hash = (customer + "/" + title).hashCode();
+		return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+	}
+
+	private void acquire(Lock lock, String customer, String title) throws IOException {
+		try {
+			if(!lock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new IOException("Timed out waiting for the lock of slide album " + customer + "/" + title + ".");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for the lock of slide album " + customer + "/" + title + ".", e);
+		}
+	}
+
+	private FileLock lockFile(FileChannel channel, String customer, String title) throws IOException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		FileLock fileLock;
+		while((fileLock = channel.tryLock()) == null) {
+			if(System.currentTimeMillis() > deadline) {
+				throw new IOException("Timed out waiting for the file lock of slide album " + customer + "/" + title + ".");
+			}
+			try {
+				Thread.sleep(FILE_LOCK_RETRY_MS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted waiting for the file lock of slide album " + customer + "/" + title + ".", e);
+			}
+		}
+		return fileLock;
+	}
+}
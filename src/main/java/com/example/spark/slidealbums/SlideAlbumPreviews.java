@@ -0,0 +1,492 @@
+package com.example.spark.slidealbums;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import org.apache.log4j.Logger;
+
+import com.example.spark.util.LogUtil;
+
+/**
+ * PNG previews of the SVG files of the slide albums, rendered by {@link SvgRenderer}.
+ * <p>
+ * Previews are cached on disk, size capped and evicted least recently used first, with the most recently used
+ * ones also kept in memory. A preview is identified by the SVG file, its size and modification time and the preview size,
+ * so a changed SVG gets a new preview and the stale one ages out of the caches.
+ * <p>
+ * Created and changed slide albums are rendered in the background by a bounded pool of low priority threads,
+ * changes arriving while the queue is full are dropped. Previews missing when requested are rendered on the request
+ * thread, a limited number at a time, and requests for a preview being rendered wait for it.
+ * @author Elitza Haltakova
+ *
+ */
+class SlideAlbumPreviews implements SlideAlbumsCatalog.Listener {
+
+	final static Logger logger = Logger.getLogger(SlideAlbumPreviews.class);
+
+	// changed when the renderer draws differently, so previews of older versions are rendered again
+	private static final int RENDERER_VERSION = 2;
+	private static final String EXT = ".png";
+	private static final String TEMP_EXT = ".tmp";
+	private static final int MAX_FAILED = 10000;
+	// pending change of a slide album removed from the catalog
+	private static final SlideAlbum REMOVED = new SlideAlbum.Builder("", "").build();
+
+	private final Path workspacesDir;
+	private final Path cacheDir;
+	private final long diskCacheBytes;
+	private final long memoryCacheBytes;
+	private final int width;
+	private final int height;
+	private final long maxSvgBytes;
+	private final long renderWaitMs;
+	private final int renderQueueSize;
+	private final ThreadPoolExecutor renderers;
+	private final Semaphore onDemandRenders;
+	private final AtomicBoolean started = new AtomicBoolean(false);
+	// latest not yet rendered change by slide album key
+	private final Map<String, SlideAlbum> pending = new ConcurrentHashMap<String, SlideAlbum>();
+	// renders in progress by preview id, awaited by the requests of the same preview
+	private final Map<String, CompletableFuture<Preview>> rendering = new ConcurrentHashMap<String, CompletableFuture<Preview>>();
+
+	// guarded by this, access ordered: least recently used first
+	private final LinkedHashMap<String, Long> disk = new LinkedHashMap<String, Long>(1024, 0.75f, true);
+	private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<String, byte[]>(256, 0.75f, true);
+	// preview ids of SVG files that cannot be rendered, not tried again
+	private final LinkedHashMap<String, Boolean> failed = new LinkedHashMap<String, Boolean>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > MAX_FAILED;
+		}
+	};
+	private long diskBytes;
+	private long memoryBytes;
+
+	private final AtomicLong renders = new AtomicLong();
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+
+	/**
+	 * PNG preview of a slide album.
+	 */
+	static class Preview {
+
+		private final String id;
+		private final byte[] png;
+
+		Preview(String id, byte[] png) {
+			this.id = id;
+			this.png = png;
+		}
+
+		/**
+		 * Identifies the content, usable as an ETag.
+		 */
+		String getId() {
+			return id;
+		}
+
+		byte[] getPng() {
+			return png;
+		}
+	}
+
+	/**
+	 * @param cacheDir directory of the disk cache, files not ending in .png are left alone
+	 * @param renderThreads background render threads
+	 * @param renderQueueSize slide albums waiting for a background render at most
+	 * @param onDemandRenders previews rendered on request threads at the same time at most
+	 * @param renderWaitMs time a request waits for its preview to be rendered
+	 * @param maxSvgBytes larger SVG files are not rendered
+	 */
+	SlideAlbumPreviews(String workspacesDir, String cacheDir, long diskCacheBytes, long memoryCacheBytes, int width, int height,
+			int renderThreads, int renderQueueSize, int onDemandRenders, long renderWaitMs, long maxSvgBytes) {
+		this.workspacesDir = Paths.get(workspacesDir);
+		this.cacheDir = Paths.get(cacheDir).toAbsolutePath();
+		this.diskCacheBytes = diskCacheBytes;
+		this.memoryCacheBytes = memoryCacheBytes;
+		this.width = width;
+		this.height = height;
+		this.maxSvgBytes = maxSvgBytes;
+		this.renderWaitMs = renderWaitMs;
+		this.renderQueueSize = renderQueueSize;
+		this.onDemandRenders = new Semaphore(onDemandRenders);
+		AtomicInteger count = new AtomicInteger();
+		this.renderers = new ThreadPoolExecutor(renderThreads, renderThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(renderQueueSize), r -> {
+					Thread thread = new Thread(r, "slidealbums-preview-renderer-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * Read the disk cache directory, oldest first so the least recently used previews are evicted first.
+	 * Subsequent calls have no effect.
+	 */
+	void start() {
+		if(!started.compareAndSet(false, true)) {
+			return;
+		}
+		List<Path> files = new ArrayList<Path>();
+		Map<Path, BasicFileAttributes> attributes = new LinkedHashMap<Path, BasicFileAttributes>();
+		try {
+			Files.createDirectories(cacheDir);
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDir)) {
+				for(Path file : stream) {
+					String name = file.getFileName().toString();
+					if(name.endsWith(TEMP_EXT)) {
+						Files.deleteIfExists(file); // render interrupted by a stop
+					} else if(name.endsWith(EXT)) {
+						attributes.put(file, Files.readAttributes(file, BasicFileAttributes.class));
+						files.add(file);
+					}
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Preview cache directory " + cacheDir + " cannot be read, previews are rendered again. " + e.getMessage(), e);
+		}
+		Collections.sort(files, (a, b) -> attributes.get(a).lastModifiedTime().compareTo(attributes.get(b).lastModifiedTime()));
+		synchronized(this) {
+			for(Path file : files) {
+				String name = file.getFileName().toString();
+				long size = attributes.get(file).size();
+				disk.put(name.substring(0, name.length() - EXT.length()), size);
+				diskBytes += size;
+			}
+		}
+		evictDisk();
+		synchronized(this) {
+			logger.info("Preview cache holds " + disk.size() + " previews, " + diskBytes / 1024 + " KB.");
+		}
+	}
+
+	@Override
+	public void put(SlideAlbum slideAlbum) {
+		if(slideAlbum.getSvg() == null) {
+			return;
+		}
+		String key = key(slideAlbum.getTitle(), slideAlbum.getCustomer());
+		// the queue is bounded, the backlog of a bulk change (e.g. a cold start) is left to the requests
+		if(renderers.isShutdown() || pending.size() >= renderQueueSize || pending.put(key, slideAlbum) != null) {
+			return;
+		}
+		try {
+			renderers.execute(() -> renderPending(key));
+		} catch (RejectedExecutionException e) {
+			pending.remove(key); // queue full or shut down
+		}
+	}
+
+	@Override
+	public void remove(String title, String customer) {
+		pending.replace(key(title, customer), REMOVED);
+	}
+
+	/**
+	 * Get the preview of a slide album, rendering it if not cached.
+	 * @return the preview, or null if the slide album has no SVG file, it cannot be rendered or rendering it takes too long
+	 */
+	Preview get(SlideAlbum slideAlbum) throws IOException {
+		start();
+		Path svgFile = svgFile(slideAlbum);
+		if(svgFile == null) {
+			return null;
+		}
+		String id;
+		try {
+			id = previewId(slideAlbum, Files.readAttributes(svgFile, BasicFileAttributes.class));
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		Preview preview = cached(id);
+		if(preview != null || isFailed(id)) {
+			return preview;
+		}
+		CompletableFuture<Preview> render = new CompletableFuture<Preview>();
+		CompletableFuture<Preview> current = rendering.putIfAbsent(id, render);
+		if(current != null) {
+			return await(current);
+		}
+		try {
+			if(!onDemandRenders.tryAcquire(renderWaitMs, TimeUnit.MILLISECONDS)) {
+				logger.debug("Preview " + id + " of " + svgFile + " not rendered, too many renders in progress.");
+				render.complete(null);
+				return null;
+			}
+			try {
+				preview = render(id, svgFile);
+			} finally {
+				onDemandRenders.release();
+			}
+			render.complete(preview);
+			return preview;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			render.complete(null);
+			return null;
+		} catch (IOException | RuntimeException e) {
+			render.complete(null);
+			throw e;
+		} finally {
+			rendering.remove(id, render);
+		}
+	}
+
+	/**
+	 * Stop the background render threads. Renders in progress are interrupted, their temporary files deleted on the next start.
+	 */
+	void shutdown() {
+		renderers.shutdownNow();
+		pending.clear();
+	}
+
+	/**
+	 * Number of slide albums waiting for a background render.
+	 */
+	int getBacklog() {
+		return pending.size();
+	}
+
+	long getRenders() {
+		return renders.get();
+	}
+
+	long getMemoryHits() {
+		return memoryHits.get();
+	}
+
+	long getDiskHits() {
+		return diskHits.get();
+	}
+
+	synchronized long getDiskBytes() {
+		return diskBytes;
+	}
+
+	/**
+	 * Render the latest change of a slide album unless its preview is cached. Runs on a background render thread.
+	 */
+	private void renderPending(String key) {
+		SlideAlbum slideAlbum = pending.remove(key);
+		if(slideAlbum == null || slideAlbum == REMOVED) {
+			return;
+		}
+		start();
+		Path svgFile = svgFile(slideAlbum);
+		if(svgFile == null) {
+			return;
+		}
+		try {
+			String id = previewId(slideAlbum, Files.readAttributes(svgFile, BasicFileAttributes.class));
+			synchronized(this) {
+				if(disk.containsKey(id) || failed.containsKey(id)) {
+					return;
+				}
+			}
+			CompletableFuture<Preview> render = new CompletableFuture<Preview>();
+			if(rendering.putIfAbsent(id, render) != null) {
+				return; // rendered on request
+			}
+			try {
+				render.complete(render(id, svgFile));
+			} finally {
+				render.complete(null);
+				rendering.remove(id, render);
+			}
+		} catch (NoSuchFileException e) {
+			// changed again since, the next change is rendered
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Preview of " + svgFile + " cannot be rendered. " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Render a preview, store it in the caches and evict the least recently used ones beyond their sizes.
+	 * Caller has registered the render in rendering.
+	 * @return the preview or null if the SVG file cannot be rendered
+	 */
+	private Preview render(String id, Path svgFile) throws IOException {
+		long start = System.nanoTime();
+		byte[] png;
+		try {
+			BufferedImage image = SvgRenderer.render(svgFile, width, height, maxSvgBytes);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(16384);
+			ImageIO.write(image, "png", out);
+			png = out.toByteArray();
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			logger.debug("Preview of " + svgFile + " cannot be rendered. " + e.getMessage());
+			synchronized(this) {
+				failed.put(id, Boolean.TRUE);
+			}
+			return null;
+		}
+		renders.incrementAndGet();
+		Path file = cacheDir.resolve(id + EXT);
+		Path temp = cacheDir.resolve(id + TEMP_EXT);
+		try {
+			Files.write(temp, png);
+			Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			synchronized(this) {
+				Long previous = disk.put(id, (long) png.length);
+				diskBytes += png.length - (previous != null ? previous : 0);
+			}
+			evictDisk();
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			logger.warn("Preview " + file + " cannot be stored, it is kept in memory only. " + e.getMessage());
+		}
+		putMemory(id, png);
+		LogUtil.debug(logger, "Rendered preview of {} in {} ms.", svgFile, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		return new Preview(id, png);
+	}
+
+	/**
+	 * Preview from the memory or the disk cache, a disk hit is moved to the memory cache.
+	 */
+	private Preview cached(String id) throws IOException {
+		synchronized(this) {
+			byte[] png = memory.get(id);
+			if(png != null) {
+				memoryHits.incrementAndGet();
+				return new Preview(id, png);
+			}
+			if(!disk.containsKey(id)) {
+				return null;
+			}
+		}
+		Path file = cacheDir.resolve(id + EXT);
+		byte[] png;
+		try {
+			png = Files.readAllBytes(file);
+			// keeps the use order on disk for the next start
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (NoSuchFileException e) {
+			synchronized(this) {
+				Long size = disk.remove(id);
+				diskBytes -= size != null ? size : 0;
+			}
+			return null;
+		}
+		diskHits.incrementAndGet();
+		putMemory(id, png);
+		return new Preview(id, png);
+	}
+
+	private Preview await(CompletableFuture<Preview> render) {
+		try {
+			return render.get(renderWaitMs, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException | TimeoutException e) {
+			return null;
+		}
+	}
+
+	private synchronized boolean isFailed(String id) {
+		return failed.containsKey(id);
+	}
+
+	private synchronized void putMemory(String id, byte[] png) {
+		if(png.length > memoryCacheBytes) {
+			return;
+		}
+		byte[] previous = memory.put(id, png);
+		memoryBytes += png.length - (previous != null ? previous.length : 0);
+		Iterator<byte[]> eldest = memory.values().iterator();
+		while(memoryBytes > memoryCacheBytes && eldest.hasNext()) {
+			memoryBytes -= eldest.next().length;
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Delete the least recently used previews until the disk cache fits its size.
+	 */
+	private void evictDisk() {
+		List<String> evicted = new ArrayList<String>();
+		synchronized(this) {
+			Iterator<Map.Entry<String, Long>> eldest = disk.entrySet().iterator();
+			while(diskBytes > diskCacheBytes && eldest.hasNext()) {
+				Map.Entry<String, Long> entry = eldest.next();
+				diskBytes -= entry.getValue();
+				evicted.add(entry.getKey());
+				eldest.remove();
+			}
+		}
+		for(String id : evicted) {
+			try {
+				Files.deleteIfExists(cacheDir.resolve(id + EXT));
+			} catch (IOException e) {
+				logger.warn("Evicted preview " + id + " cannot be deleted. " + e.getMessage());
+			}
+		}
+	}
+
+	private Path svgFile(SlideAlbum slideAlbum) {
+		if(slideAlbum.getSvg() == null) {
+			return null;
+		}
+		return workspacesDir.resolve(slideAlbum.getCustomer()).resolve(slideAlbum.getTitle()).resolve(slideAlbum.getSvg() + ".svg");
+	}
+
+	/**
+	 * Hash of the SVG file, its size and modification time, the preview size and the renderer version.
+	 */
+	private String previewId(SlideAlbum slideAlbum, BasicFileAttributes attributes) {
+		String source = slideAlbum.getCustomer() + "/" + slideAlbum.getTitle() + "/" + slideAlbum.getSvg() + "\n" + attributes.size() + "\n"
+				+ attributes.lastModifiedTime().toMillis() + "\n" + width + "x" + height + "\n" + RENDERER_VERSION;
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+			StringBuilder id = new StringBuilder();
+			for(int i = 0; i < 20; i++) {
+				id.append(String.format("%02x", digest[i]));
+			}
+			return id.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String key(String title, String customer) {
+		return customer + "/" + title;
+	}
+}
@@ -0,0 +1,278 @@
+package com.example.spark.slidealbums;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Files of a slide album being uploaded.
+ * Each file is written once to a hidden temp file, in the slide album directory when it is already known
+ * or in the staging directory otherwise, and atomically moved into the slide album directory on commit.
+ * @author Elitza Haltakova
+ *
+ */
+public class SlideAlbumUpload {
+
+	final static Logger logger = Logger.getLogger(SlideAlbumUpload.class);
+
+	private static final String TEMP_FILE_PREFIX = ".upload-";
+
+	private final File stagingDir;
+	private final List<UploadedFile> files = Collections.synchronizedList(new ArrayList<UploadedFile>());
+	// size of the files extracted from all archives of the upload
+	private final AtomicLong extractedSize = new AtomicLong();
+	private File slideAlbumDir;
+	private boolean slideAlbumDirCreated;
+
+	SlideAlbumUpload(File stagingDir) {
+		this.stagingDir = stagingDir;
+	}
+
+	/**
+	 * Set the directory the files are written to. Creates it if it does not exist.
+	 */
+	void setSlideAlbumDir(File slideAlbumDir) throws IOException {
+		this.slideAlbumDir = slideAlbumDir;
+		if(!slideAlbumDir.isDirectory()) {
+			Files.createDirectories(slideAlbumDir.toPath());
+			slideAlbumDirCreated = true;
+		}
+	}
+
+	/**
+	 * Write an uploaded file to a temp file next to its destination.
+	 */
+	public void write(String fileName, InputStream content) throws IOException {
+		Files.copy(content, newTempFile(fileName));
+	}
+
+	/**
+	 * Extract the files of a zip archive in parallel. Directories inside the archive are flattened,
+	 * files that cannot be stored in a slide album (hidden names, lock markers) are skipped.
+	 * The archive is streamed to the staging directory first, as entries can only be read concurrently from a file.
+	 * @param maxTotalSize size of the files extracted from all archives of the upload at most
+	 */
+	public void extractArchive(InputStream archive, ExecutorService executor, long maxFileSize, long maxTotalSize) throws IOException {
+		Files.createDirectories(stagingDir.toPath());
+		Path archiveFile = stagingDir.toPath().resolve(TEMP_FILE_PREFIX + UUID.randomUUID() + ".zip");
+		try {
+			Files.copy(archive, archiveFile);
+			try (ZipFile zipFile = new ZipFile(archiveFile.toFile())) {
+				AtomicBoolean aborted = new AtomicBoolean();
+				List<Future<?>> extractions = new ArrayList<Future<?>>();
+				Enumeration<? extends ZipEntry> entries = zipFile.entries();
+				while(entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+					String fileName = FilenameUtils.getName(entry.getName());
+					if(entry.isDirectory() || !SlideAlbumsMgr.isValidFileName(fileName) || entry.getName().startsWith("__MACOSX")) {
+						continue;
+					}
+					Path temp = newTempFile(fileName);
+					extractions.add(executor.submit(() -> {
+						if(aborted.get()) {
+							return null;
+						}
+						try (InputStream content = zipFile.getInputStream(entry); OutputStream out = Files.newOutputStream(temp)) {
+							copy(content, out, maxFileSize, extractedSize, maxTotalSize, aborted);
+						}
+						return null;
+					}));
+				}
+				// the zip file stays open until no extraction uses it any more
+				await(extractions, aborted);
+			}
+		} finally {
+			Files.deleteIfExists(archiveFile);
+		}
+	}
+
+	/**
+	 * Flush all written files to disk in parallel, so a whole batch of files costs about one fsync round.
+	 */
+	void sync(ExecutorService executor) throws IOException {
+		AtomicBoolean aborted = new AtomicBoolean();
+		List<Future<?>> syncs = new ArrayList<Future<?>>();
+		for(UploadedFile file : snapshot()) {
+			syncs.add(executor.submit(() -> {
+				if(aborted.get()) {
+					return null;
+				}
+				try (FileChannel channel = FileChannel.open(file.temp, StandardOpenOption.WRITE)) {
+					channel.force(true);
+				}
+				return null;
+			}));
+		}
+		await(syncs, aborted);
+	}
+
+	public List<String> getFileNames() {
+		List<String> fileNames = new ArrayList<String>();
+		for(UploadedFile file : files) {
+			fileNames.add(file.name);
+		}
+		return fileNames;
+	}
+
+	public boolean isEmpty() {
+		return files.isEmpty();
+	}
+
+	/**
+	 * Move all uploaded files into the slide album directory.
+	 */
+	void commit() throws IOException {
+		for(UploadedFile file : snapshot()) {
+			Path target = slideAlbumDir.toPath().resolve(file.name);
+			try {
+				Files.move(file.temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(file.temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		files.clear();
+	}
+
+	/**
+	 * Delete the temp files and the slide album directory if it was created by this upload and is empty.
+	 */
+	public void discard() {
+		for(UploadedFile file : snapshot()) {
+			try {
+				Files.deleteIfExists(file.temp);
+			} catch (IOException e) {
+				logger.error(e.getMessage(), e);
+			}
+		}
+		files.clear();
+		if(slideAlbumDirCreated) {
+			String[] content = slideAlbumDir.list();
+			if(content != null && content.length == 0) {
+				slideAlbumDir.delete();
+			}
+		}
+	}
+
+	private Path newTempFile(String fileName) throws IOException {
+		File dir = slideAlbumDir != null ? slideAlbumDir : stagingDir;
+		Files.createDirectories(dir.toPath());
+		Path temp = dir.toPath().resolve(TEMP_FILE_PREFIX + UUID.randomUUID() + ".part");
+		files.add(new UploadedFile(fileName, temp));
+		return temp;
+	}
+
+	private List<UploadedFile> snapshot() {
+		synchronized (files) {
+			return new ArrayList<UploadedFile>(files);
+		}
+	}
+
+	private static void copy(InputStream in, OutputStream out, long maxFileSize, AtomicLong totalSize, long maxTotalSize, AtomicBoolean aborted) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		long size = 0;
+		int read;
+		while(!aborted.get() && (read = in.read(buffer)) != -1) {
+			size += read;
+			if(size > maxFileSize || totalSize.addAndGet(read) > maxTotalSize) {
+				throw new LimitExceededException("Extracted files exceed the upload size limits.");
+			}
+			out.write(buffer, 0, read);
+		}
+	}
+
+	/**
+	 * Wait for all tasks. After the first failure the remaining tasks are aborted, and still awaited,
+	 * so no task writes a file after the upload is discarded. Further failures are added as suppressed.
+	 * @param aborted checked by the tasks, set on the first failure
+	 */
+	private static void await(List<Future<?>> tasks, AtomicBoolean aborted) throws IOException {
+		IOException failure = null;
+		boolean interrupted = false;
+		for(Future<?> task : tasks) {
+			while(true) {
+				try {
+					task.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+					if(failure == null) {
+						failure = new IOException("Upload interrupted.", e);
+					}
+					aborted.set(true);
+				} catch (ExecutionException | CancellationException e) {
+					Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+					if(failure == null) {
+						failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+					} else if(failure != cause) {
+						failure.addSuppressed(cause);
+					}
+					aborted.set(true);
+					break;
+				}
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if(failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Persist the directory entries of committed files. Not supported on all platforms (e.g. Windows), ignored there.
+	 */
+	void syncSlideAlbumDir() {
+		try (FileChannel channel = FileChannel.open(slideAlbumDir.toPath(), StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			logger.debug("Directory " + slideAlbumDir + " cannot be synced. " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Thrown when uploaded content exceeds the size limits.
+	 */
+	public static class LimitExceededException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		public LimitExceededException(String message) {
+			super(message);
+		}
+	}
+
+	private static class UploadedFile {
+
+		final String name;
+		final Path temp;
+
+		UploadedFile(String name, Path temp) {
+			this.name = name;
+			this.temp = temp;
+		}
+	}
+}
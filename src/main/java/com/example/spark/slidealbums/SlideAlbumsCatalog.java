@@ -0,0 +1,753 @@
+package com.example.spark.slidealbums;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.log4j.Logger;
+
+import com.example.spark.util.ConfigUtil;
+import com.example.spark.util.MetricsUtil;
+
+/**
+ * In-memory catalog of the slide albums in the workspaces directory (customer -> title -> slide album).
+ * Built once on start and kept up to date by a WatchService and a periodic reconcile pass,
+ * so lookups are answered without any file system access.
+ * Directory scans fan out across customers and slide albums on a bounded work-stealing pool.
+ * The reconcile reads only slide album directories modified since they were last read.
+ * With a state directory, the catalog is saved as a snapshot and a journal of changes ({@link CatalogStore}),
+ * loaded on start before the workspaces directory is reconciled in the background. That first reconcile does not
+ * list the customer directories with the modification time they had when saved, as long as their slide albums
+ * are not racy; changes inside their slide album directories are found by the watcher or the next reconcile.
+ * @author Elitza Haltakova
+ *
+ */
+public class SlideAlbumsCatalog {
+
+	final static Logger logger = Logger.getLogger(SlideAlbumsCatalog.class);
+	private static final MetricsUtil.Histogram scanDurations = MetricsUtil.histogram("slidealbums_catalog_scan_duration_seconds", 
+			"Duration of reading the workspaces directory (full rescan) and single slide album directories.", "scan");
+	private static final MetricsUtil.Histogram.Child reconcileTimer = scanDurations.labels("workspaces");
+	private static final MetricsUtil.Histogram.Child refreshTimer = scanDurations.labels("slidealbum");
+	final static String LOCK_MARKER_EXT = "txt";
+	final static String LOCK_MARKER_PREFIX = "lock_";
+
+	/**
+	 * Receiver of the changes of the catalog content, called by the thread making the change.
+	 */
+	interface Listener {
+
+		void put(SlideAlbum slideAlbum);
+
+		void remove(String title, String customer);
+	}
+
+	private final Path workspacesDir;
+	private final CatalogStore store;
+	private final Map<String, CustomerSlideAlbums> slideAlbums = new ConcurrentHashMap<String, CustomerSlideAlbums>();
+	private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<WatchKey, Path>();
+	private final Set<Path> watchedPaths = ConcurrentHashMap.newKeySet();
+	// slide albums modified within the file system timestamp resolution of being read, read again by the reconcile
+	private final Set<String> racy = ConcurrentHashMap.newKeySet();
+	// System.nanoTime() of the last refresh by slide album key and by customer, scan results older than that are stale
+	private final Map<String, Long> refreshedAt = new ConcurrentHashMap<String, Long>();
+	private final Map<String, Long> customersRefreshedAt = new ConcurrentHashMap<String, Long>();
+	// modification time of the customer directories when their slide albums were listed, if not within the timestamp resolution
+	private final Map<String, Long> customerDirsModified = new ConcurrentHashMap<String, Long>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private final AtomicBoolean started = new AtomicBoolean(false);
+
+	private volatile ForkJoinPool scanPool;
+	private WatchService watchService;
+	private ScheduledExecutorService reconcileExecutor;
+
+	public SlideAlbumsCatalog(String workspacesDir) {
+		this(workspacesDir, null);
+	}
+
+	/**
+	 * @param stateDir directory of the catalog snapshot and journal, null to build the catalog by a full scan on every start
+	 */
+	public SlideAlbumsCatalog(String workspacesDir, String stateDir) {
+		this.workspacesDir = new File(workspacesDir).toPath().toAbsolutePath().normalize();
+		this.store = stateDir != null ? new CatalogStore(new File(stateDir).toPath().toAbsolutePath()) : null;
+	}
+
+	/**
+	 * Notify a listener of the changes of the catalog content, including the slide albums loaded on start.
+	 */
+	void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Build the catalog and start watching the workspaces directory. Subsequent calls have no effect.
+	 * If the catalog is loaded from its snapshot and journal, the workspaces directory is reconciled in the background.
+	 */
+	public void start() {
+		if(!started.compareAndSet(false, true)) {
+			return;
+		}
+		scanPool = createScanPool();
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+		} catch (IOException e) {
+			logger.error("Workspaces directory cannot be watched, the catalog relies on reconcile only. " + e.getMessage(), e);
+		}
+		boolean loaded = load();
+		if(!loaded) {
+			reconcile();
+		}
+		if(watchService != null) {
+			Thread watcher = new Thread(this::processEvents, "slidealbums-catalog-watcher");
+			watcher.setDaemon(true);
+			watcher.start();
+		}
+		reconcileExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "slidealbums-catalog-reconcile");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if(loaded) {
+			reconcileExecutor.execute(() -> reconcile(true));
+		}
+		long interval = ConfigUtil.CATALOG_RECONCILE_INTERVAL_SECONDS;
+		reconcileExecutor.scheduleWithFixedDelay(this::reconcile, interval, interval, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stop watching the workspaces directory and the scan threads. A running scan is cancelled.
+	 */
+	public void stop() {
+		if(!started.compareAndSet(true, false)) {
+			return;
+		}
+		if(reconcileExecutor != null) {
+			reconcileExecutor.shutdownNow();
+		}
+		scanPool.shutdownNow();
+		if(watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				logger.error(e.getMessage(), e);
+			}
+		}
+		watchedDirs.clear();
+		watchedPaths.clear();
+		if(store != null) {
+			checkpoint();
+			store.close();
+		}
+	}
+
+	public List<SlideAlbum> getSlideAlbums(String customer) {
+		CustomerSlideAlbums customerSlideAlbums = slideAlbums.get(customer);
+		if(customerSlideAlbums == null) {
+			return Collections.emptyList();
+		}
+		return new ArrayList<SlideAlbum>(customerSlideAlbums.values());
+	}
+
+	/**
+	 * Live, weakly consistent view of the slide albums of a customer, ordered by title. Nothing is copied.
+	 */
+	public Collection<SlideAlbum> slideAlbumsView(String customer) {
+		CustomerSlideAlbums customerSlideAlbums = slideAlbums.get(customer);
+		if(customerSlideAlbums == null) {
+			return Collections.emptyList();
+		}
+		return customerSlideAlbums.values();
+	}
+
+	/**
+	 * Pre-sorted indexes of the slide albums of a customer.
+	 * @return the indexes or null if the customer has no slide albums directory
+	 */
+	CustomerSlideAlbums customerIndex(String customer) {
+		return slideAlbums.get(customer);
+	}
+
+	public SlideAlbum getSlideAlbum(String title, String customer) {
+		CustomerSlideAlbums customerSlideAlbums = slideAlbums.get(customer);
+		return customerSlideAlbums != null ? customerSlideAlbums.get(title) : null;
+	}
+
+	/**
+	 * Re-read a single slide album directory and update its catalog entry.
+	 * @return the up to date slide album or null if its directory does not exist
+	 */
+	public SlideAlbum refresh(String title, String customer) {
+		long start = System.nanoTime();
+		refreshedAt.put(key(title, customer), start);
+		customersRefreshedAt.put(customer, start);
+		Path slideAlbumDir = workspacesDir.resolve(customer).resolve(title);
+		SlideAlbum slideAlbum;
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(slideAlbumDir, BasicFileAttributes.class);
+			if(!attributes.isDirectory()) {
+				remove(title, customer);
+				return null;
+			}
+			register(slideAlbumDir);
+			slideAlbum = read(slideAlbumDir, attributes, customer);
+		} catch (IOException e) {
+			remove(title, customer);
+			return null;
+		} finally {
+			refreshTimer.recordSince(start);
+		}
+		put(slideAlbum);
+		return slideAlbum;
+	}
+
+	public void remove(String title, String customer) {
+		CustomerSlideAlbums customerSlideAlbums = slideAlbums.get(customer);
+		if(customerSlideAlbums != null && customerSlideAlbums.get(title) != null) {
+			customerSlideAlbums.remove(title);
+			racy.remove(key(title, customer));
+			if(store != null) {
+				store.appendRemove(title, customer);
+			}
+			notifyRemove(title, customer);
+		}
+	}
+
+	/**
+	 * Rescan the whole workspaces directory and replace the catalog content.
+	 * Covers events lost by the WatchService (overflow, network shares not reporting changes).
+	 * Customers and slide albums are read in parallel on the scan pool, slide album directories
+	 * with the modification time of their catalog entry are not read again. 
+	 * Slide albums refreshed while scanning keep their refreshed entry.
+	 */
+	public void reconcile() {
+		reconcile(false);
+	}
+
+	/**
+	 * @param skipUnchanged keep the slide albums of the customer directories with the modification time
+	 * they had when last listed, without listing them
+	 */
+	private synchronized void reconcile(boolean skipUnchanged) {
+		long start = System.nanoTime();
+		try {
+			Map<Path, BasicFileAttributes> customerDirs;
+			try {
+				customerDirs = listDirs(workspacesDir);
+			} catch (IOException e) {
+				logger.warn("Workspaces directory " + workspacesDir + " cannot be read. " + e.getMessage());
+				return;
+			}
+			register(workspacesDir);
+			Map<String, Long> listedDirsModified = new ConcurrentHashMap<String, Long>();
+			Map<String, List<SlideAlbum>> scanned = scanPool.invoke(ForkJoinTask.adapt(
+					() -> scanCustomers(customerDirs, skipUnchanged, listedDirsModified)));
+			for(Map.Entry<String, List<SlideAlbum>> customer : scanned.entrySet()) {
+				update(customer.getKey(), customer.getValue(), start);
+				updateDirModified(customer.getKey(), listedDirsModified);
+			}
+			for(String customer : slideAlbums.keySet()) {
+				if(!scanned.containsKey(customer) && !isRefreshedSince(customersRefreshedAt.get(customer), start)) {
+					removeCustomer(customer);
+				}
+			}
+			// only refreshes during a scan matter, scans are serialized
+			refreshedAt.values().removeIf(refreshed -> refreshed - start < 0);
+			customersRefreshedAt.values().removeIf(refreshed -> refreshed - start < 0);
+			if(store != null && store.hasChanges()) {
+				checkpoint();
+			}
+		} catch (CancellationException | RejectedExecutionException e) {
+			logger.debug("Reconcile aborted, the catalog is stopped.");
+		} catch (RuntimeException e) {
+			logger.error(e.getMessage(), e);
+		} finally {
+			reconcileTimer.recordSince(start);
+		}
+	}
+
+	/**
+	 * Read a slide album from its directory.
+	 * @param attributes attributes of the slide album directory
+	 */
+	static SlideAlbum readSlideAlbum(Path slideAlbumDir, BasicFileAttributes attributes, String customer) throws IOException {
+		SlideAlbum.Builder builder = new SlideAlbum.Builder(slideAlbumDir.getFileName().toString(), customer);
+		builder = builder.modificationDate(attributes.lastModifiedTime().toMillis());
+		Set<String> fileNames = new TreeSet<String>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(slideAlbumDir)) {
+			for(Path file : files) {
+				fileNames.add(file.getFileName().toString());
+			}
+		}
+		List<SlideAlbumFile> slideAlbumFiles = new ArrayList<SlideAlbumFile>();
+		for(String fileName : fileNames) {
+			if(isHidden(fileName)) {
+				continue;
+			}
+			String ext = FilenameUtils.getExtension(fileName);
+			String name = FilenameUtils.getBaseName(fileName);
+			if(ext.equals(LOCK_MARKER_EXT)) {
+				builder = builder.lockedBy(lockOwner(name));
+			} else {
+				slideAlbumFiles.add(new SlideAlbumFile(ext, name));
+				if(ext.equals("svg")) {
+					builder = builder.svg(name);
+				}
+			}
+		}
+		return builder.files(slideAlbumFiles).build();
+	}
+
+	/**
+	 * User holding the lock of a slide album, from the name of its lock marker file (e.g. lock_username.txt).
+	 * Markers written by other applications may hold more before the user name, e.g. name_lock_username.txt.
+	 */
+	static String lockOwner(String lockMarkerName) {
+		if(lockMarkerName.startsWith(LOCK_MARKER_PREFIX)) {
+			return lockMarkerName.substring(LOCK_MARKER_PREFIX.length());
+		}
+		return lockMarkerName.split("_")[lockMarkerName.split("_").length-1];
+	}
+
+	/**
+	 * File name of the lock marker of a user.
+	 */
+	static String lockMarkerName(String user) {
+		return LOCK_MARKER_PREFIX + user + "." + LOCK_MARKER_EXT;
+	}
+
+	/**
+	 * Hidden files and directories (upload temp files, staging areas) are not part of the catalog.
+	 */
+	static boolean isHidden(String name) {
+		return name.startsWith(".");
+	}
+
+	private synchronized void scanCustomer(Path customerDir) {
+		long start = System.nanoTime();
+		String customer = customerDir.getFileName().toString();
+		Map<String, Long> listedDirsModified = new ConcurrentHashMap<String, Long>();
+		List<SlideAlbum> customerSlideAlbums;
+		try {
+			customerSlideAlbums = scanPool.invoke(ForkJoinTask.adapt(() -> scanCustomer(customerDir, customer, listedDirsModified)));
+		} catch (CancellationException | RejectedExecutionException e) {
+			logger.debug("Scan of " + customerDir + " aborted, the catalog is stopped.");
+			return;
+		}
+		if(customerSlideAlbums == null) {
+			if(!isRefreshedSince(customersRefreshedAt.get(customer), start)) {
+				removeCustomer(customer);
+			}
+		} else {
+			update(customer, customerSlideAlbums, start);
+			updateDirModified(customer, listedDirsModified);
+		}
+	}
+
+	private void updateDirModified(String customer, Map<String, Long> listedDirsModified) {
+		Long modified = listedDirsModified.get(customer);
+		if(modified != null) {
+			customerDirsModified.put(customer, modified);
+		} else {
+			customerDirsModified.remove(customer);
+		}
+	}
+
+	/**
+	 * Scan all customers in parallel. Runs on the scan pool.
+	 * @param skipUnchanged keep the catalog entries of the customer directories not modified since last listed
+	 * @param listedDirsModified receives the modification time of the listed customer directories
+	 * @return the slide albums of each readable customer, ordered by customer
+	 */
+	private Map<String, List<SlideAlbum>> scanCustomers(Map<Path, BasicFileAttributes> customerDirs, boolean skipUnchanged, 
+			Map<String, Long> listedDirsModified) {
+		Map<String, ForkJoinTask<List<SlideAlbum>>> scans = new TreeMap<String, ForkJoinTask<List<SlideAlbum>>>();
+		Map<String, List<SlideAlbum>> scanned = new TreeMap<String, List<SlideAlbum>>();
+		for(Map.Entry<Path, BasicFileAttributes> customerDir : customerDirs.entrySet()) {
+			String customer = customerDir.getKey().getFileName().toString();
+			if(skipUnchanged && isUnchanged(customer, customerDir.getValue())) {
+				List<SlideAlbum> known = getSlideAlbums(customer);
+				register(customerDir.getKey());
+				for(SlideAlbum slideAlbum : known) {
+					register(customerDir.getKey().resolve(slideAlbum.getTitle()));
+				}
+				scanned.put(customer, known);
+				listedDirsModified.put(customer, customerDirsModified.get(customer));
+			} else {
+				scans.put(customer, ForkJoinTask.adapt(() -> scanCustomer(customerDir.getKey(), customer, listedDirsModified)).fork());
+			}
+		}
+		for(Map.Entry<String, ForkJoinTask<List<SlideAlbum>>> scan : scans.entrySet()) {
+			List<SlideAlbum> customerSlideAlbums = scan.getValue().join();
+			if(customerSlideAlbums != null) {
+				scanned.put(scan.getKey(), customerSlideAlbums);
+			}
+		}
+		return scanned;
+	}
+
+	/**
+	 * Whether a customer directory has the modification time it had when its slide albums were last listed
+	 * and none of them has to be read again.
+	 */
+	private boolean isUnchanged(String customer, BasicFileAttributes attributes) {
+		Long modified = customerDirsModified.get(customer);
+		if(modified == null || modified != attributes.lastModifiedTime().toMillis() || !slideAlbums.containsKey(customer)) {
+			return false;
+		}
+		String prefix = key("", customer);
+		return racy.stream().noneMatch(key -> key.startsWith(prefix));
+	}
+
+	/**
+	 * Read all slide albums of a customer in parallel. Runs on the scan pool.
+	 * @param listedDirsModified receives the modification time of the customer directory, 
+	 * unless it is within the timestamp resolution of the listing
+	 * @return the slide albums ordered by title or null if the customer directory cannot be read
+	 */
+	private List<SlideAlbum> scanCustomer(Path customerDir, String customer, Map<String, Long> listedDirsModified) {
+		Map<Path, BasicFileAttributes> slideAlbumDirs;
+		try {
+			// read before the listing, a change while listing modifies the directory after it
+			long listedAt = System.currentTimeMillis();
+			long modified = Files.getLastModifiedTime(customerDir).toMillis();
+			slideAlbumDirs = listDirs(customerDir);
+			if(listedAt - modified >= ConfigUtil.CATALOG_MTIME_RESOLUTION_MS) {
+				listedDirsModified.put(customer, modified);
+			}
+		} catch (IOException e) {
+			logger.warn("Customer directory " + customerDir + " cannot be read. " + e.getMessage());
+			return null;
+		}
+		register(customerDir);
+		List<ForkJoinTask<SlideAlbum>> reads = new ArrayList<ForkJoinTask<SlideAlbum>>();
+		for(Map.Entry<Path, BasicFileAttributes> slideAlbumDir : slideAlbumDirs.entrySet()) {
+			reads.add(ForkJoinTask.adapt(() -> {
+				register(slideAlbumDir.getKey());
+				String title = slideAlbumDir.getKey().getFileName().toString();
+				SlideAlbum known = getSlideAlbum(title, customer);
+				if(known != null && known.getModificationDate() == slideAlbumDir.getValue().lastModifiedTime().toMillis() 
+						&& !racy.contains(key(title, customer))) {
+					return known;
+				}
+				try {
+					return read(slideAlbumDir.getKey(), slideAlbumDir.getValue(), customer);
+				} catch (IOException e) {
+					return null; // deleted while scanning
+				}
+			}).fork());
+		}
+		List<SlideAlbum> customerSlideAlbums = new ArrayList<SlideAlbum>();
+		for(ForkJoinTask<SlideAlbum> read : reads) {
+			SlideAlbum slideAlbum = read.join();
+			if(slideAlbum != null) {
+				customerSlideAlbums.add(slideAlbum);
+			}
+		}
+		return customerSlideAlbums;
+	}
+
+	/**
+	 * Replace the slide albums of a customer with the scanned ones, 
+	 * except the slide albums refreshed since the scan started (e.g. created or deleted by a request while scanning).
+	 * @param scanStart System.nanoTime() when the scan started
+	 */
+	private void update(String customer, List<SlideAlbum> scanned, long scanStart) {
+		CustomerSlideAlbums customerSlideAlbums = customerSlideAlbums(customer);
+		Set<String> titles = new HashSet<String>();
+		for(SlideAlbum slideAlbum : scanned) {
+			titles.add(slideAlbum.getTitle());
+			if(customerSlideAlbums.get(slideAlbum.getTitle()) != slideAlbum 
+					&& !isRefreshedSince(refreshedAt.get(key(slideAlbum.getTitle(), customer)), scanStart)) {
+				put(slideAlbum);
+			}
+		}
+		for(SlideAlbum slideAlbum : customerSlideAlbums.values()) {
+			if(!titles.contains(slideAlbum.getTitle()) 
+					&& !isRefreshedSince(refreshedAt.get(key(slideAlbum.getTitle(), customer)), scanStart)) {
+				remove(slideAlbum.getTitle(), customer);
+			}
+		}
+	}
+
+	private static boolean isRefreshedSince(Long refreshed, long scanStart) {
+		return refreshed != null && refreshed - scanStart >= 0;
+	}
+
+	/**
+	 * Read a slide album and note if it has to be read again, because it was modified
+	 * within the timestamp resolution of the file system before being read.
+	 */
+	private SlideAlbum read(Path slideAlbumDir, BasicFileAttributes attributes, String customer) throws IOException {
+		long readAt = System.currentTimeMillis();
+		SlideAlbum slideAlbum = readSlideAlbum(slideAlbumDir, attributes, customer);
+		if(readAt - slideAlbum.getModificationDate() < ConfigUtil.CATALOG_MTIME_RESOLUTION_MS) {
+			racy.add(key(slideAlbum.getTitle(), customer));
+		} else {
+			racy.remove(key(slideAlbum.getTitle(), customer));
+		}
+		return slideAlbum;
+	}
+
+	private void put(SlideAlbum slideAlbum) {
+		customerSlideAlbums(slideAlbum.getCustomer()).put(slideAlbum);
+		if(store != null) {
+			store.appendPut(slideAlbum, racy.contains(key(slideAlbum.getTitle(), slideAlbum.getCustomer())));
+		}
+		notifyPut(slideAlbum);
+	}
+
+	private void removeCustomer(String customer) {
+		CustomerSlideAlbums removed = slideAlbums.remove(customer);
+		customerDirsModified.remove(customer);
+		if(removed != null) {
+			racy.removeIf(key -> key.startsWith(customer + "/"));
+			if(store != null) {
+				store.appendRemoveCustomer(customer);
+			}
+			for(SlideAlbum slideAlbum : removed.values()) {
+				notifyRemove(slideAlbum.getTitle(), customer);
+			}
+		}
+	}
+
+	private void notifyPut(SlideAlbum slideAlbum) {
+		for(Listener listener : listeners) {
+			listener.put(slideAlbum);
+		}
+	}
+
+	private void notifyRemove(String title, String customer) {
+		for(Listener listener : listeners) {
+			listener.remove(title, customer);
+		}
+	}
+
+	private static String key(String title, String customer) {
+		return customer + "/" + title;
+	}
+
+	/**
+	 * Load the catalog from its snapshot and journal.
+	 * @return false if there is no saved catalog
+	 */
+	private boolean load() {
+		if(store == null) {
+			return false;
+		}
+		long start = System.nanoTime();
+		boolean loaded = store.load(new CatalogStore.Loader() {
+			@Override
+			public void customer(String customer) {
+				slideAlbums.computeIfAbsent(customer, c -> new CustomerSlideAlbums());
+			}
+
+			@Override
+			public void put(SlideAlbum slideAlbum, boolean isRacy) {
+				customer(slideAlbum.getCustomer());
+				slideAlbums.get(slideAlbum.getCustomer()).put(slideAlbum);
+				if(isRacy) {
+					racy.add(key(slideAlbum.getTitle(), slideAlbum.getCustomer()));
+				} else {
+					racy.remove(key(slideAlbum.getTitle(), slideAlbum.getCustomer()));
+				}
+			}
+
+			@Override
+			public void remove(String title, String customer) {
+				CustomerSlideAlbums customerSlideAlbums = slideAlbums.get(customer);
+				if(customerSlideAlbums != null) {
+					customerSlideAlbums.remove(title);
+				}
+				racy.remove(key(title, customer));
+			}
+
+			@Override
+			public void removeCustomer(String customer) {
+				slideAlbums.remove(customer);
+				racy.removeIf(key -> key.startsWith(customer + "/"));
+			}
+
+			@Override
+			public void customerDirModified(String customer, long modified) {
+				customerDirsModified.put(customer, modified);
+			}
+		});
+		if(loaded) {
+			int count = slideAlbums.values().stream().mapToInt(CustomerSlideAlbums::size).sum();
+			logger.info("Slide albums catalog loaded with " + count + " slide albums in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+			for(CustomerSlideAlbums customerSlideAlbums : slideAlbums.values()) {
+				customerSlideAlbums.values().forEach(this::notifyPut);
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Save a snapshot of the catalog and start a new journal.
+	 */
+	private void checkpoint() {
+		store.checkpoint(() -> {
+			Map<String, Collection<SlideAlbum>> state = new LinkedHashMap<String, Collection<SlideAlbum>>();
+			for(Map.Entry<String, CustomerSlideAlbums> customer : slideAlbums.entrySet()) {
+				state.put(customer.getKey(), new ArrayList<SlideAlbum>(customer.getValue().values()));
+			}
+			return state;
+		}, slideAlbum -> racy.contains(key(slideAlbum.getTitle(), slideAlbum.getCustomer())),
+				customer -> customerDirsModified.getOrDefault(customer, -1L));
+	}
+
+	/**
+	 * Not hidden sub directories of a directory with their attributes, read in one pass, ordered by name.
+	 */
+	private static Map<Path, BasicFileAttributes> listDirs(Path dir) throws IOException {
+		Map<Path, BasicFileAttributes> dirs = new TreeMap<Path, BasicFileAttributes>();
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+			for(Path entry : entries) {
+				if(isHidden(entry.getFileName().toString())) {
+					continue;
+				}
+				try {
+					BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+					if(attributes.isDirectory()) {
+						dirs.put(entry, attributes);
+					}
+				} catch (IOException e) {
+					// deleted while listing
+				}
+			}
+		}
+		return dirs;
+	}
+
+	private static ForkJoinPool createScanPool() {
+		return new ForkJoinPool(ConfigUtil.CATALOG_SCAN_PARALLELISM, pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("slidealbums-catalog-scan-" + thread.getPoolIndex());
+			return thread;
+		}, null, false);
+	}
+
+	private CustomerSlideAlbums customerSlideAlbums(String customer) {
+		CustomerSlideAlbums customerSlideAlbums = slideAlbums.get(customer);
+		if(customerSlideAlbums != null) {
+			return customerSlideAlbums;
+		}
+		CustomerSlideAlbums created = new CustomerSlideAlbums();
+		customerSlideAlbums = slideAlbums.putIfAbsent(customer, created);
+		if(customerSlideAlbums != null) {
+			return customerSlideAlbums;
+		}
+		if(store != null) {
+			store.appendCustomer(customer);
+		}
+		return created;
+	}
+
+	private void register(Path dir) {
+		if(watchService == null || !watchedPaths.add(dir)) {
+			return;
+		}
+		try {
+			WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+			watchedDirs.put(key, dir);
+		} catch (ClosedWatchServiceException e) {
+			// catalog stopped while scanning
+			watchedPaths.remove(dir);
+		} catch (IOException e) {
+			watchedPaths.remove(dir);
+			logger.warn("Directory " + dir + " cannot be watched. " + e.getMessage());
+		}
+	}
+
+	private void processEvents() {
+		while(started.get()) {
+			WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+			Path dir = watchedDirs.get(key);
+			try {
+				if(dir != null) {
+					for(WatchEvent<?> event : key.pollEvents()) {
+						if(event.kind() == OVERFLOW) {
+							reconcile();
+						} else {
+							handleEvent(dir.resolve((Path) event.context()));
+						}
+					}
+				}
+			} catch (RuntimeException e) {
+				logger.error(e.getMessage(), e);
+			}
+			if(!key.reset()) {
+				watchedDirs.remove(key);
+				if(dir != null) {
+					watchedPaths.remove(dir);
+				}
+			}
+		}
+	}
+
+	private void handleEvent(Path changed) {
+		Path relative = workspacesDir.relativize(changed);
+		for(Path name : relative) {
+			if(isHidden(name.toString())) {
+				return;
+			}
+		}
+		String customer = relative.getName(0).toString();
+		switch(relative.getNameCount()) {
+			case 1: // customer directory created or deleted
+				if(Files.isDirectory(changed)) {
+					scanCustomer(changed);
+				} else {
+					removeCustomer(customer);
+				}
+				break;
+			case 2: // slide album directory created, modified or deleted
+			case 3: // file in a slide album directory created, modified or deleted
+				refresh(relative.getName(1).toString(), customer);
+				break;
+			default:
+				break;
+		}
+	}
+}
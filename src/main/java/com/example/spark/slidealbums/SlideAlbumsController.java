@@ -1,19 +1,34 @@
 package com.example.spark.slidealbums;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
-import org.apache.commons.fileupload.FileItem;
-import org.apache.commons.fileupload.disk.DiskFileItemFactory;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadBase;
+import org.apache.commons.fileupload.InvalidFileNameException;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.fileupload.util.Streams;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.log4j.Logger;
 
 import com.example.spark.app.Application;
+import com.example.spark.app.RequestUtil;
 import com.example.spark.app.ResponseError;
 import com.example.spark.auth.SessionManager;
+import com.example.spark.auth.User;
+import com.example.spark.util.CompressionUtil;
 import com.example.spark.util.ConfigUtil;
+import com.example.spark.util.FileResponseUtil;
 import com.example.spark.util.JsonUtil;
+import com.example.spark.util.LogUtil;
 
 import spark.*;
 
@@ -23,45 +38,164 @@ public class SlideAlbumsController {
 	final static Logger logger = Logger.getLogger(Application.class);
 	
 	public static Route getSlideAlbums = (Request request, Response response) -> {
-		logger.debug(request.pathInfo() + "  Get Slidealbums");
-		logger.debug(request.body());
-		List<SlideAlbum> slideAlbums = slideAlbumsMgr.getSlideAlbums(SessionManager.getUserContext(request).getUser().getCustomers());
-		return JsonUtil.toJson(slideAlbums);
+		LogUtil.debug(logger, "{}  Get Slidealbums", request.pathInfo());
+		LogUtil.debugBody(logger, "getSlideAlbums", request.body());
+		Iterable<SlideAlbum> slideAlbums = slideAlbumsMgr.iterateSlideAlbums(SessionManager.getUserContext(request).getUser().getCustomers());
+		// stream the listing (chunked, compressed while streaming) instead of building the whole JSON string
+		response.type("application/json");
+		CompressionUtil.send(request, response, out -> JsonUtil.toJsonStream(slideAlbums, SlideAlbum.class, out));
+		return "";
 	};
 	
-	public static Route createSlideAlbum = (Request request, Response response) -> {
-		logger.debug(request.pathInfo() + "  Create Slidealbum");
-		logger.debug(request.body());
-		File uploadDir = new File(ConfigUtil.UPLOAD_DIR);
-		
-		// apache commons-fileupload to handle file upload with multi part request
-		DiskFileItemFactory factory = new DiskFileItemFactory();
-		factory.setRepository(uploadDir);
-		ServletFileUpload fileUpload = new ServletFileUpload(factory);
-		List<FileItem> items = fileUpload.parseRequest(request.raw());
-		String title = items.stream().filter(e -> "title".equals(e.getFieldName())).findFirst().get().getString();
-		String customer = items.stream().filter(e -> "customer".equals(e.getFieldName())).findFirst().get().getString();
-		FileItem item = items.stream().filter(e -> "files[]".equals(e.getFieldName())).findFirst().get();
-		String fileName = item.getName();
-		item.write(new File(uploadDir, fileName));
-		if(title == null || customer == null || fileName == null) {
+	/**
+	 * One page of the slide albums, sorted and filtered on the server.
+	 * Query params: sort (title, modificationDate, customer), order (asc, desc), offset, limit, cursor, prefix, filter,
+	 * customers (repeated, narrows the user's customers).
+	 */
+	public static Route getSlideAlbumsPage = (Request request, Response response) -> {
+		LogUtil.debug(logger, "{}  Get Slidealbums Page", request.pathInfo());
+		SlideAlbumsQuery query;
+		try {
+			query = new SlideAlbumsQuery.Builder()
+					.sort(SlideAlbumsQuery.Sort.fromParam(request.queryParams("sort")), !"asc".equalsIgnoreCase(request.queryParams("order")))
+					.offset(intParam(request, "offset", 0))
+					.limit(Math.min(intParam(request, "limit", 20), ConfigUtil.SLIDEALBUMS_PAGE_MAX_LIMIT))
+					.cursor(request.queryParams("cursor"))
+					.titlePrefix(request.queryParams("prefix"))
+					.titleContains(request.queryParams("filter"))
+					.build();
+		} catch (IllegalArgumentException e) {
 			response.status(400);
 			return JsonUtil.toJson(new ResponseError("Invalid request. Please, contact your system administrator.").getMessage());
 		}
-		
-		SlideAlbum slidealbum = slideAlbumsMgr.createSlideAlbum(title, customer, fileName);
-		
-		if(slidealbum == null) {
+		List<String> customers = SessionManager.getUserContext(request).getUser().getCustomers();
+		String[] selectedCustomers = request.queryParamsValues("customers");
+		if(selectedCustomers != null) {
+			customers = new ArrayList<String>(customers);
+			customers.retainAll(Arrays.asList(selectedCustomers));
+		}
+		SlideAlbumsPage page = slideAlbumsMgr.getSlideAlbumsPage(customers, query);
+		response.type("application/json");
+		return JsonUtil.toJson(page);
+	};
+	
+	/**
+	 * Full-text search in the slide albums titles, customers, file names and SVG text, ranked by relevance.
+	 * Query params: q, offset, limit.
+	 */
+	public static Route searchSlideAlbums = (Request request, Response response) -> {
+		LogUtil.debug(logger, "{}  Search Slidealbums", request.pathInfo());
+		String query = request.queryParams("q");
+		int offset;
+		int limit;
+		try {
+			offset = Math.max(0, intParam(request, "offset", 0));
+			limit = Math.max(1, Math.min(intParam(request, "limit", 20), ConfigUtil.SLIDEALBUMS_PAGE_MAX_LIMIT));
+		} catch (IllegalArgumentException e) {
+			query = null;
+			offset = limit = 0;
+		}
+		if(query == null || query.trim().isEmpty()) {
 			response.status(400);
-			return JsonUtil.toJson(new ResponseError("An error occured. Slide album was not created successfully.").getMessage());
+			return JsonUtil.toJson(new ResponseError("Invalid request. Please, contact your system administrator.").getMessage());
+		}
+		SlideAlbumsSearchPage page = slideAlbumsMgr.searchSlideAlbums(SessionManager.getUserContext(request).getUser().getCustomers(), query, offset, limit);
+		response.type("application/json");
+		return JsonUtil.toJson(page);
+	};
+	
+	public static Route createSlideAlbum = (Request request, Response response) -> {
+		LogUtil.debug(logger, "{}  Create Slidealbum", request.pathInfo());
+		SlideAlbumUpload upload = slideAlbumsMgr.newUpload();
+		try {
+			Map<String, String> fields = readUpload(request, upload, false);
+			String title = fields.get("title");
+			String customer = fields.get("customer");
+			if(!SlideAlbumsMgr.isValidName(title) || !SlideAlbumsMgr.isValidName(customer) || upload.isEmpty()) {
+				upload.discard();
+				response.status(400);
+				return JsonUtil.toJson(new ResponseError("Invalid request. Please, contact your system administrator.").getMessage());
+			}
+			SlideAlbum slidealbum = slideAlbumsMgr.createSlideAlbum(title, customer, SessionManager.getUserContext(request).getUser(), upload);
+			if(slidealbum == null) {
+				response.status(400);
+				return JsonUtil.toJson(new ResponseError("An error occured. Slide album was not created successfully.").getMessage());
+			}
+			response.header("Content-Type", "application/json");
+			return JsonUtil.toJson(slidealbum);
+		} catch (FileUploadBase.SizeLimitExceededException | FileUploadBase.FileSizeLimitExceededException | FileUploadBase.FileUploadIOException e) {
+			upload.discard();
+			logger.error(e.getMessage());
+			response.status(413);
+			return JsonUtil.toJson(new ResponseError("The uploaded files are too large.").getMessage());
+		} catch (InvalidFileNameException e) {
+			upload.discard();
+			response.status(400);
+			return JsonUtil.toJson(new ResponseError("File name %s is not allowed.", e.getName()).getMessage());
+		} catch (SlideAlbumAccessDeniedException e) {
+			upload.discard();
+			response.status(403);
+			return JsonUtil.toJson(new ResponseError("You are not allowed to access slide albums of customer %s.", e.getCustomer()).getMessage());
+		} catch (SlideAlbumLockedException e) {
+			upload.discard();
+			response.status(409);
+			return JsonUtil.toJson(new ResponseError("Slide album %s is locked by %s.", e.getTitle(), e.getLockedBy()).getMessage());
+		} catch (Exception e) {
+			upload.discard();
+			throw e;
+		}
+	};
+	
+	/**
+	 * Create a slide album or add files to an existing one from many files[] parts and/or zip archive parts.
+	 * Responds with the resulting slide album including all its files.
+	 */
+	public static Route bulkUploadSlideAlbum = (Request request, Response response) -> {
+		LogUtil.debug(logger, "{}  Bulk Upload Slidealbum", request.pathInfo());
+		SlideAlbumUpload upload = slideAlbumsMgr.newUpload();
+		try {
+			Map<String, String> fields = readUpload(request, upload, true);
+			String title = fields.get("title");
+			String customer = fields.get("customer");
+			if(!SlideAlbumsMgr.isValidName(title) || !SlideAlbumsMgr.isValidName(customer) || upload.isEmpty()) {
+				upload.discard();
+				response.status(400);
+				return JsonUtil.toJson(new ResponseError("Invalid request. Please, contact your system administrator.").getMessage());
+			}
+			SlideAlbum slidealbum = slideAlbumsMgr.bulkCreateSlideAlbum(title, customer, SessionManager.getUserContext(request).getUser(), upload);
+			if(slidealbum == null) {
+				response.status(400);
+				return JsonUtil.toJson(new ResponseError("An error occured. Slide album was not created successfully.").getMessage());
+			}
+			response.header("Content-Type", "application/json");
+			return JsonUtil.toJson(slidealbum);
+		} catch (FileUploadBase.SizeLimitExceededException | FileUploadBase.FileSizeLimitExceededException 
+				| FileUploadBase.FileUploadIOException | SlideAlbumUpload.LimitExceededException e) {
+			upload.discard();
+			logger.error(e.getMessage());
+			response.status(413);
+			return JsonUtil.toJson(new ResponseError("The uploaded files are too large.").getMessage());
+		} catch (InvalidFileNameException e) {
+			upload.discard();
+			response.status(400);
+			return JsonUtil.toJson(new ResponseError("File name %s is not allowed.", e.getName()).getMessage());
+		} catch (SlideAlbumAccessDeniedException e) {
+			upload.discard();
+			response.status(403);
+			return JsonUtil.toJson(new ResponseError("You are not allowed to access slide albums of customer %s.", e.getCustomer()).getMessage());
+		} catch (SlideAlbumLockedException e) {
+			upload.discard();
+			response.status(409);
+			return JsonUtil.toJson(new ResponseError("Slide album %s is locked by %s.", e.getTitle(), e.getLockedBy()).getMessage());
+		} catch (Exception e) {
+			upload.discard();
+			throw e;
 		}
-		response.header("Content-Type", "application/json");
-		return JsonUtil.toJson(slidealbum);
 	};
 
 	public static Route deleteSlideAlbum = (Request request, Response response) -> {
-		logger.debug(request.pathInfo() + "  Delete Slidealbum");
-		logger.debug(request.body());
+		LogUtil.debug(logger, "{}  Delete Slidealbum", request.pathInfo());
+		LogUtil.debugBody(logger, "deleteSlideAlbum", request.body());
 		HashMap<String, Object> data = JsonUtil.fromJson(request.body());
 		if(data == null || data.get("title") == null || data.get("customer") == null) {
 			response.status(400);
@@ -69,7 +203,20 @@ public class SlideAlbumsController {
 		}
 		String title = (String) data.get("title");
 		String customer = (String) data.get("customer");
-		boolean success = slideAlbumsMgr.deleteSlideAlbum(title, customer);
+		if(!SlideAlbumsMgr.isValidName(title) || !SlideAlbumsMgr.isValidName(customer)) {
+			response.status(400);
+			return JsonUtil.toJson(new ResponseError("Invalid request. Please, contact your system administrator.").getMessage());
+		}
+		boolean success;
+		try {
+			success = slideAlbumsMgr.deleteSlideAlbum(title, customer, SessionManager.getUserContext(request).getUser());
+		} catch (SlideAlbumAccessDeniedException e) {
+			response.status(403);
+			return JsonUtil.toJson(new ResponseError("You are not allowed to access slide albums of customer %s.", customer).getMessage());
+		} catch (SlideAlbumLockedException e) {
+			response.status(409);
+			return JsonUtil.toJson(new ResponseError("Slide album %s is locked by %s.", title, e.getLockedBy()).getMessage());
+		}
 		if(!success) {
 			response.status(400);
 			return JsonUtil.toJson(new ResponseError("An error occured. Slide album was not deleted successfully. Please, contact your system administrator.").getMessage());	
@@ -77,10 +224,79 @@ public class SlideAlbumsController {
 		response.status(200);
 		return JsonUtil.toJson("");
 	};
+	
+	/**
+	 * Undo the deletion of a slide album, within the trash retention time.
+	 */
+	public static Route restoreSlideAlbum = (Request request, Response response) -> {
+		LogUtil.debug(logger, "{}  Restore Slidealbum", request.pathInfo());
+		LogUtil.debugBody(logger, "restoreSlideAlbum", request.body());
+		HashMap<String, Object> data = JsonUtil.fromJson(request.body());
+		if(data == null || data.get("title") == null || data.get("customer") == null) {
+			response.status(400);
+			return JsonUtil.toJson(new ResponseError("Invalid request. Please, contact your system administrator.").getMessage());
+		}
+		String title = (String) data.get("title");
+		String customer = (String) data.get("customer");
+		if(!SlideAlbumsMgr.isValidName(title) || !SlideAlbumsMgr.isValidName(customer)) {
+			response.status(400);
+			return JsonUtil.toJson(new ResponseError("Invalid request. Please, contact your system administrator.").getMessage());
+		}
+		SlideAlbum slideAlbum;
+		try {
+			slideAlbum = slideAlbumsMgr.restoreSlideAlbum(title, customer, SessionManager.getUserContext(request).getUser());
+		} catch (SlideAlbumAccessDeniedException e) {
+			response.status(403);
+			return JsonUtil.toJson(new ResponseError("You are not allowed to access slide albums of customer %s.", customer).getMessage());
+		}
+		if(slideAlbum == null) {
+			response.status(404);
+			return JsonUtil.toJson(new ResponseError("Slide album %s cannot be restored.", title).getMessage());
+		}
+		response.header("Content-Type", "application/json");
+		return JsonUtil.toJson(slideAlbum);
+	};
+	
+	/**
+	 * Deleted slide albums that can still be restored and the progress of the background purge.
+	 */
+	public static Route getSlideAlbumsTrash = (Request request, Response response) -> {
+		LogUtil.debug(logger, "{}  Get Slidealbums Trash", request.pathInfo());
+		List<String> customers = SessionManager.getUserContext(request).getUser().getCustomers();
+		Map<String, Object> trash = new LinkedHashMap<String, Object>();
+		trash.put("entries", slideAlbumsMgr.getTrash(customers));
+		trash.put("purge", slideAlbumsMgr.getTrashPurgeStatus());
+		response.type("application/json");
+		return JsonUtil.toJson(trash);
+	};
+
+	/**
+	 * Lock a slide album for editing by the current user or renew the user's lease.
+	 */
+	public static Route lockSlideAlbum = (Request request, Response response) -> {
+		LogUtil.debug(logger, "{}  Lock Slidealbum", request.pathInfo());
+		return handleLock(request, response, slideAlbumsMgr::acquireLock);
+	};
+	
+	/**
+	 * Release the current user's lock of a slide album.
+	 */
+	public static Route unlockSlideAlbum = (Request request, Response response) -> {
+		LogUtil.debug(logger, "{}  Unlock Slidealbum", request.pathInfo());
+		return handleLock(request, response, slideAlbumsMgr::releaseLock);
+	};
+	
+	/**
+	 * Take over the lock of a slide album from another user.
+	 */
+	public static Route stealSlideAlbumLock = (Request request, Response response) -> {
+		LogUtil.debug(logger, "{}  Steal Slidealbum Lock", request.pathInfo());
+		return handleLock(request, response, slideAlbumsMgr::stealLock);
+	};
 
 	public static Route getSlideAlbum = (Request request, Response response) -> {
-		logger.debug(request.pathInfo() + "  Get Slidealbum");
-		logger.debug(request.body());
+		LogUtil.debug(logger, "{}  Get Slidealbum", request.pathInfo());
+		LogUtil.debugBody(logger, "getSlideAlbum", request.body());
 		if(request.splat() == null || request.splat().length < 2) {
 			response.status(400);
 			return JsonUtil.toJson(new ResponseError("Invalid request. Please, contact your administrator.").getMessage());
@@ -94,4 +310,138 @@ public class SlideAlbumsController {
 		}
 		return JsonUtil.toJson(slideAlbum);
 	};
+
+	public static Route getSlideAlbumFile = (Request request, Response response) -> {
+		LogUtil.debug(logger, "{}  Get Slidealbum File", request.pathInfo());
+		String customer = request.params(":customer");
+		String title = request.params(":title");
+		String fileName = request.params(":file");
+		if(customer == null || title == null || fileName == null || FilenameUtils.getExtension(fileName).isEmpty()) {
+			response.status(400);
+			return JsonUtil.toJson(new ResponseError("Invalid request. Please, contact your system administrator.").getMessage());
+		}
+		if(!SessionManager.getUserContext(request).getUser().getCustomers().contains(customer)) {
+			response.status(403);
+			return JsonUtil.toJson(new ResponseError("You are not allowed to access slide albums of customer %s.", customer).getMessage());
+		}
+		String name = FilenameUtils.getBaseName(fileName);
+		String ext = FilenameUtils.getExtension(fileName);
+		File file = slideAlbumsMgr.getSlideAlbumFile(title, customer, name, ext);
+		if(file == null) {
+			response.status(404);
+			return JsonUtil.toJson(new ResponseError("No file %s was found in slide album %s.", fileName, title).getMessage());
+		}
+		return FileResponseUtil.serve(request, response, file, FileResponseUtil.contentType(ext));
+	};
+	
+	/**
+	 * PNG preview of the SVG file of a slide album. Requests versioned by the slide album modification date (v parameter)
+	 * can be cached by the browser for good, a changed slide album is requested with a new version.
+	 */
+	public static Route getSlideAlbumPreview = (Request request, Response response) -> {
+		LogUtil.debug(logger, "{}  Get Slidealbum Preview", request.pathInfo());
+		String customer = request.params(":customer");
+		String title = request.params(":title");
+		if(customer == null || title == null) {
+			response.status(400);
+			return JsonUtil.toJson(new ResponseError("Invalid request. Please, contact your system administrator.").getMessage());
+		}
+		if(!SessionManager.getUserContext(request).getUser().getCustomers().contains(customer)) {
+			response.status(403);
+			return JsonUtil.toJson(new ResponseError("You are not allowed to access slide albums of customer %s.", customer).getMessage());
+		}
+		SlideAlbumPreviews.Preview preview = slideAlbumsMgr.getSlideAlbumPreview(title, customer);
+		if(preview == null) {
+			response.status(404);
+			return JsonUtil.toJson(new ResponseError("No preview of slide album %s is available.", title).getMessage());
+		}
+		String cacheControl = request.queryParams("v") != null ? "private, max-age=31536000, immutable" : "private, no-cache";
+		return FileResponseUtil.serve(request, response, preview.getPng(), preview.getId(), "image/png", cacheControl);
+	};
+	
+	/**
+	 * Lock operation of SlideAlbumsMgr.
+	 */
+	private interface LockOperation {
+		SlideAlbum apply(String title, String customer, String user) throws IOException;
+	}
+	
+	private static String handleLock(Request request, Response response, LockOperation operation) throws IOException {
+		LogUtil.debugBody(logger, request.pathInfo(), request.body());
+		HashMap<String, Object> data = JsonUtil.fromJson(request.body());
+		if(data == null || data.get("title") == null || data.get("customer") == null) {
+			response.status(400);
+			return JsonUtil.toJson(new ResponseError("Invalid request. Please, contact your system administrator.").getMessage());
+		}
+		String title = (String) data.get("title");
+		String customer = (String) data.get("customer");
+		User user = SessionManager.getUserContext(request).getUser();
+		if(!SlideAlbumsMgr.isValidName(title) || !SlideAlbumsMgr.isValidName(customer) || !SlideAlbumsMgr.isValidName(user.getUsername())) {
+			response.status(400);
+			return JsonUtil.toJson(new ResponseError("Invalid request. Please, contact your system administrator.").getMessage());
+		}
+		if(!user.getCustomers().contains(customer)) {
+			response.status(403);
+			return JsonUtil.toJson(new ResponseError("You are not allowed to access slide albums of customer %s.", customer).getMessage());
+		}
+		try {
+			SlideAlbum slideAlbum = operation.apply(title, customer, user.getUsername());
+			if(slideAlbum == null) {
+				response.status(404);
+				return JsonUtil.toJson(new ResponseError("No slide album with the title %s was found.", title).getMessage());
+			}
+			response.header("Content-Type", "application/json");
+			return JsonUtil.toJson(slideAlbum);
+		} catch (SlideAlbumLockedException e) {
+			response.status(409);
+			return JsonUtil.toJson(new ResponseError("Slide album %s is locked by %s.", title, e.getLockedBy()).getMessage());
+		}
+	}
+	
+	private static int intParam(Request request, String name, int defaultValue) {
+		String value = request.queryParams(name);
+		return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value); // NumberFormatException is an IllegalArgumentException
+	}
+	
+	/**
+	 * Read a multipart slide album upload with the apache commons-fileupload streaming API.
+	 * Each file part is written once, next to its destination, as soon as it arrives.
+	 * @param acceptArchives extract "archive" parts and .zip files[] parts
+	 * @return the title and customer form fields
+	 * @throws InvalidFileNameException if a file name cannot be stored in a slide album (see SlideAlbumsMgr.isValidFileName)
+	 */
+	private static Map<String, String> readUpload(Request request, SlideAlbumUpload upload, boolean acceptArchives) throws Exception {
+		ServletFileUpload fileUpload = new ServletFileUpload();
+		fileUpload.setFileSizeMax(ConfigUtil.UPLOAD_MAX_FILE_SIZE);
+		fileUpload.setSizeMax(ConfigUtil.UPLOAD_MAX_TOTAL_SIZE);
+		Map<String, String> fields = new HashMap<String, String>();
+		FileItemIterator items = fileUpload.getItemIterator(RequestUtil.unwrap(request));
+		while(items.hasNext()) {
+			FileItemStream item = items.next();
+			try (InputStream content = item.openStream()) {
+				if(item.isFormField()) {
+					fields.put(item.getFieldName(), Streams.asString(content, "UTF-8"));
+					String title = fields.get("title");
+					String customer = fields.get("customer");
+					// files of customers the user cannot access stay in the staging directory until the request is rejected
+					if(SlideAlbumsMgr.isValidName(title) && SlideAlbumsMgr.isValidName(customer) 
+							&& SessionManager.getUserContext(request).getUser().getCustomers().contains(customer)) {
+						slideAlbumsMgr.setUploadSlideAlbum(upload, title, customer);
+					}
+				} else if(item.getName() != null && !item.getName().isEmpty()) {
+					String fileName = FilenameUtils.getName(item.getName());
+					if(!SlideAlbumsMgr.isValidFileName(fileName)) {
+						throw new InvalidFileNameException(fileName, "File name " + fileName + " is not allowed.");
+					}
+					boolean archive = "archive".equals(item.getFieldName()) || ("files[]".equals(item.getFieldName()) && "zip".equalsIgnoreCase(FilenameUtils.getExtension(fileName)));
+					if(acceptArchives && archive) {
+						slideAlbumsMgr.extractArchive(upload, content);
+					} else if("files[]".equals(item.getFieldName())) {
+						upload.write(fileName, content);
+					}
+				}
+			}
+		}
+		return fields;
+	}
 }
@@ -2,15 +2,28 @@ package com.example.spark.slidealbums;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.log4j.Logger;
 
-import com.example.spark.slidealbums.SlideAlbum.Builder;
+import com.example.spark.auth.User;
 import com.example.spark.util.ConfigUtil;
 
 /**
@@ -22,108 +35,558 @@ public class SlideAlbumsMgr {
 
 	final static Logger logger = Logger.getLogger(SlideAlbumsMgr.class); 
 	final static String workspacesDir = ConfigUtil.WORKSPACES_DIR;
+	final static SlideAlbumsCatalog catalog = new SlideAlbumsCatalog(workspacesDir, ConfigUtil.CATALOG_STATE_DIR);
+	final static String UPLOAD_STAGING_DIR = ".upload";
+	final static ExecutorService uploadExecutor = createUploadExecutor();
+	final static SlideAlbumLocks locks = new SlideAlbumLocks(workspacesDir, ConfigUtil.SLIDEALBUM_LOCK_STRIPES, ConfigUtil.SLIDEALBUM_LOCK_TIMEOUT_MS);
+	final static SlideAlbumsTrash trash = new SlideAlbumsTrash(workspacesDir, locks, 
+			TimeUnit.SECONDS.toMillis(ConfigUtil.TRASH_RETENTION_SECONDS), ConfigUtil.TRASH_PURGE_MAX_FILES_PER_SECOND);
+	final static SlideAlbumsSearchIndex searchIndex = new SlideAlbumsSearchIndex(workspacesDir, ConfigUtil.CATALOG_STATE_DIR, ConfigUtil.SEARCH_INDEXER_THREADS, 
+			ConfigUtil.SEARCH_SVG_MAX_CHARS, ConfigUtil.SEARCH_MAX_PREFIX_TERMS);
+	final static SlideAlbumPreviews previews = new SlideAlbumPreviews(workspacesDir, ConfigUtil.PREVIEW_CACHE_DIR, 
+			ConfigUtil.PREVIEW_DISK_CACHE_BYTES, ConfigUtil.PREVIEW_MEMORY_CACHE_BYTES, ConfigUtil.PREVIEW_WIDTH, ConfigUtil.PREVIEW_HEIGHT, 
+			ConfigUtil.PREVIEW_RENDER_THREADS, ConfigUtil.PREVIEW_RENDER_QUEUE_SIZE, ConfigUtil.PREVIEW_ON_DEMAND_RENDERS, 
+			ConfigUtil.PREVIEW_RENDER_WAIT_MS, ConfigUtil.PREVIEW_MAX_SVG_BYTES);
+	
+	static {
+		// every catalog change, e.g. by createSlideAlbum and deleteSlideAlbum, is indexed for the search
+		catalog.addListener(searchIndex);
+		// and gets its preview rendered
+		catalog.addListener(previews);
+	}
 	
 	public SlideAlbumsMgr() {
 	}
 	
+	/**
+	 * Load or build the in-memory slide albums catalog and start watching the workspaces directory.
+	 * The saved search index is restored first, so only the slide albums changed since are indexed again.
+	 */
+	public static void startCatalog() {
+		searchIndex.load();
+		catalog.start();
+		searchIndex.dropUnconfirmed();
+	}
+	
+	/**
+	 * Start purging expired slide albums from the trash in the background.
+	 */
+	public static void startTrashPurge() {
+		trash.start(ConfigUtil.TRASH_PURGE_INTERVAL_SECONDS);
+	}
+	
+	/**
+	 * Read the slide album previews cached on disk.
+	 */
+	public static void startPreviews() {
+		previews.start();
+	}
+	
+	/**
+	 * Stop the catalog, the upload writer threads, the trash purge, the search indexer and the preview render threads.
+	 */
+	public static void shutdown() {
+		catalog.stop();
+		uploadExecutor.shutdownNow();
+		trash.stop();
+		searchIndex.shutdown();
+		previews.shutdown();
+	}
+	
+	/**
+	 * Number of slide albums in the search index.
+	 */
+	public static int getSearchIndexSize() {
+		return searchIndex.size();
+	}
+	
+	/**
+	 * Number of slide album changes waiting to be indexed for the search.
+	 */
+	public static int getSearchIndexBacklog() {
+		return searchIndex.getBacklog();
+	}
+	
+	public static long getPreviewRenders() {
+		return previews.getRenders();
+	}
+	
+	public static long getPreviewMemoryHits() {
+		return previews.getMemoryHits();
+	}
+	
+	public static long getPreviewDiskHits() {
+		return previews.getDiskHits();
+	}
+	
+	public static long getPreviewDiskCacheBytes() {
+		return previews.getDiskBytes();
+	}
+	
+	/**
+	 * Number of changed slide albums waiting for their preview to be rendered in the background.
+	 */
+	public static int getPreviewBacklog() {
+		return previews.getBacklog();
+	}
+	
 	public List<SlideAlbum> getSlideAlbums(List<String> customers) {	
+		catalog.start();
 		List<SlideAlbum> slideAlbums = new ArrayList<SlideAlbum>();
 		for(String customer : customers) {
-			File customerDir = new File(workspacesDir + "/" + customer);
-			File[] slideAlbumDirs = customerDir.listFiles() != null ? customerDir.listFiles() : new File[0];
-			for(File slideAlbumDir : slideAlbumDirs) {
-				if(slideAlbumDir.isDirectory()) {	
-					SlideAlbum.Builder slideAlbumBuilder = new SlideAlbum.Builder(slideAlbumDir.getName(), customer);
-					slideAlbumBuilder = slideAlbumBuilder.modificationDate(slideAlbumDir.lastModified());
-					File[] slideAlbumFiles = slideAlbumDir.listFiles();
-					List<SlideAlbumFile> files = new ArrayList<SlideAlbumFile>();
-					for(File file : slideAlbumFiles) {
-						String ext = FilenameUtils.getExtension(file.getName());
-						String name = FilenameUtils.getBaseName(file.getName());
-						if(ext.equals("txt")) {
-							String lockedByUsr = name.split("_")[name.split("_").length-1];
-							slideAlbumBuilder = slideAlbumBuilder.lockedBy(lockedByUsr);
-						} else {
-							files.add(new SlideAlbumFile(ext, name));
-							if(ext.equals("svg")) {
-								slideAlbumBuilder = slideAlbumBuilder.svg(name);
-							}
-						}
-					}
-					slideAlbumBuilder = slideAlbumBuilder.files(files);
-					slideAlbums.add(slideAlbumBuilder.build());
+			slideAlbums.addAll(catalog.getSlideAlbums(customer));
+		}
+		return slideAlbums;
+	}
+	
+	/**
+	 * Iterate over the slide albums of the customers lazily, without collecting them into a list.
+	 */
+	public Iterable<SlideAlbum> iterateSlideAlbums(List<String> customers) {
+		catalog.start();
+		return () -> customers.stream().flatMap(customer -> catalog.slideAlbumsView(customer).stream()).iterator();
+	}
+	
+	/**
+	 * Get one page of the slide albums of the customers, sorted and filtered as requested.
+	 * Pages are read from the pre-sorted catalog indexes (merged across customers), 
+	 * so the cost depends on the page position and size, not on the total number of slide albums.
+	 */
+	public SlideAlbumsPage getSlideAlbumsPage(List<String> customers, SlideAlbumsQuery query) {
+		catalog.start();
+		Comparator<SlideAlbum> order = query.order();
+		PriorityQueue<PageSource> sources = new PriorityQueue<PageSource>(Math.max(1, customers.size()), (a, b) -> order.compare(a.head, b.head));
+		int total = 0;
+		int filtered = 0;
+		int[] countBudget = {ConfigUtil.SLIDEALBUMS_FILTERED_COUNT_MAX_SCAN};
+		boolean filteredLowerBound = false;
+		for(String customer : new TreeSet<String>(customers)) {
+			CustomerSlideAlbums index = catalog.customerIndex(customer);
+			if(index != null) {
+				total += index.size();
+				if(query.isFiltered()) {
+					filtered += countMatching(index, query, countBudget);
+					filteredLowerBound |= countBudget[0] < 0;
+				} else {
+					filtered += index.size();
+				}
+				PageSource source = new PageSource(pageSourceIterator(index, customer, query), query);
+				if(source.advance()) {
+					sources.add(source);
 				}
 			}
 		}
-		return slideAlbums;
+		List<SlideAlbum> slideAlbums = new ArrayList<SlideAlbum>();
+		int skipped = 0;
+		boolean hasMore = false;
+		while(!sources.isEmpty()) {
+			PageSource source = sources.poll();
+			SlideAlbum slideAlbum = source.head;
+			if(source.advance()) {
+				sources.add(source);
+			}
+			if(skipped < query.getOffset()) {
+				skipped++;
+			} else if(slideAlbums.size() < query.getLimit()) {
+				slideAlbums.add(slideAlbum);
+			} else {
+				hasMore = true;
+				break;
+			}
+		}
+		String nextCursor = hasMore ? SlideAlbumsQuery.encodeCursor(slideAlbums.get(slideAlbums.size() - 1)) : null;
+		return new SlideAlbumsPage(slideAlbums, total, filtered, filteredLowerBound, nextCursor);
+	}
+	
+	/**
+	 * Count the slide albums matching the title filters. A title prefix bounds the count to its range of the
+	 * title index, a substring filter needs to check every title of that range. At most the budget of slide albums
+	 * is checked, the budget goes below zero when it stops the count.
+	 */
+	private static int countMatching(CustomerSlideAlbums index, SlideAlbumsQuery query, int[] budget) {
+		NavigableSet<SlideAlbum> slideAlbums = index.byTitle();
+		String prefix = query.getTitlePrefix();
+		if(prefix != null) {
+			// the upper case variant sorts first among the titles equal to the prefix ignoring case
+			slideAlbums = slideAlbums.subSet(new SlideAlbum.Builder(prefix.toUpperCase(Locale.ROOT), "").build(), true,
+					new SlideAlbum.Builder(prefix + '\uffff', "").build(), false);
+		}
+		int count = 0;
+		for(SlideAlbum slideAlbum : slideAlbums) {
+			if(--budget[0] < 0) {
+				break;
+			}
+			if(query.matches(slideAlbum)) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Full-text search in the titles, customers, file names and SVG text of the slide albums of the customers.
+	 * Hits are ranked by relevance, changes of the catalog are searchable once indexed in the background.
+	 */
+	public SlideAlbumsSearchPage searchSlideAlbums(List<String> customers, String query, int offset, int limit) {
+		catalog.start();
+		return searchIndex.search(query, customers, offset, limit);
 	}
 	
 	public SlideAlbum getSlideAlbum(String title, String customer) {
-		SlideAlbum slideAlbum = null;
-		String pathToSlideAlbumDir = workspacesDir + "/" + customer + "/" + title;
-		File slideAlbumDir = new File(pathToSlideAlbumDir);
-		if(slideAlbumDir.exists()) {
-			SlideAlbum.Builder builder = new Builder(title, customer);
-			builder = builder.modificationDate(slideAlbumDir.lastModified());
-			File[] files = slideAlbumDir.listFiles();
-			List<SlideAlbumFile> slideAlbumFiles = new ArrayList<SlideAlbumFile>();
-			for(File file : files) {
-				String ext = FilenameUtils.getExtension(file.getName());
-				String name = FilenameUtils.getBaseName(file.getName());
-				if(ext.equals("txt")) {
-					String lockedByUsr = name.split("_")[name.split("_").length-1];
-					builder = builder.lockedBy(lockedByUsr);
-				} else {
-					slideAlbumFiles.add(new SlideAlbumFile(ext, name));
-					if(ext.equals("svg")) {
-						builder = builder.svg(name);
+		catalog.start();
+		return catalog.getSlideAlbum(title, customer);
+	}
+	
+	/**
+	 * Get the PNG preview of the SVG file of a slide album, rendered now if it is not cached.
+	 * @return the preview or null if the slide album has no SVG file or its preview cannot be rendered in time
+	 */
+	SlideAlbumPreviews.Preview getSlideAlbumPreview(String title, String customer) throws IOException {
+		SlideAlbum slideAlbum = getSlideAlbum(title, customer);
+		return slideAlbum != null ? previews.get(slideAlbum) : null;
+	}
+	
+	/**
+	 * Get a file of a slide album. Only files listed in the slide album are returned.
+	 * @return the file or null if the slide album has no such file
+	 */
+	public File getSlideAlbumFile(String title, String customer, String name, String ext) {
+		SlideAlbum slideAlbum = getSlideAlbum(title, customer);
+		if(slideAlbum == null || slideAlbum.getFiles() == null) {
+			return null;
+		}
+		for(SlideAlbumFile slideAlbumFile : slideAlbum.getFiles()) {
+			if(slideAlbumFile.getName().equals(name) && slideAlbumFile.getExt().equals(ext)) {
+				// no lock held: files are replaced by moving the new file in place, so a transfer reads one version
+				File file = new File(workspacesDir + "/" + customer + "/" + title + "/" + name + "." + ext);
+				return file.isFile() ? file : null;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Start uploading the files of a slide album. Until the slide album is known, files are staged in the workspaces directory.
+	 */
+	public SlideAlbumUpload newUpload() {
+		return new SlideAlbumUpload(new File(workspacesDir + "/" + UPLOAD_STAGING_DIR));
+	}
+	
+	/**
+	 * Direct the remaining files of an upload straight into the slide album directory.
+	 */
+	public void setUploadSlideAlbum(SlideAlbumUpload upload, String title, String customer) throws IOException {
+		upload.setSlideAlbumDir(new File(workspacesDir + "/" + customer + "/" + title));
+	}
+	
+	/**
+	 * Create a slide album or add files to an existing one.
+	 * @throws SlideAlbumAccessDeniedException if the user cannot access the slide albums of the customer
+	 * @throws SlideAlbumLockedException if another user holds the lock of the slide album
+	 */
+	public SlideAlbum createSlideAlbum(String title, String customer, User user, SlideAlbumUpload upload) throws IOException {	
+		checkAccess(user, customer);
+		return locks.write(customer, title, () -> {
+			checkNotLockedByOthers(new File(workspacesDir + "/" + customer + "/" + title), title, user.getUsername());
+			setUploadSlideAlbum(upload, title, customer);
+			upload.commit();
+			return catalog.refresh(title, customer);
+		});
+	}
+	
+	/**
+	 * Extract a zip archive into an upload, writing its files in parallel.
+	 */
+	public void extractArchive(SlideAlbumUpload upload, InputStream archive) throws IOException {
+		upload.extractArchive(archive, uploadExecutor, ConfigUtil.UPLOAD_MAX_FILE_SIZE, ConfigUtil.UPLOAD_MAX_TOTAL_SIZE);
+	}
+	
+	/**
+	 * Create a slide album or add files to an existing one. 
+	 * All files are flushed to disk in one parallel batch before they are moved into place.
+	 * @throws SlideAlbumAccessDeniedException if the user cannot access the slide albums of the customer
+	 * @throws SlideAlbumLockedException if another user holds the lock of the slide album
+	 */
+	public SlideAlbum bulkCreateSlideAlbum(String title, String customer, User user, SlideAlbumUpload upload) throws IOException {
+		checkAccess(user, customer);
+		upload.sync(uploadExecutor);
+		return locks.write(customer, title, () -> {
+			checkNotLockedByOthers(new File(workspacesDir + "/" + customer + "/" + title), title, user.getUsername());
+			setUploadSlideAlbum(upload, title, customer);
+			upload.commit();
+			upload.syncSlideAlbumDir();
+			return catalog.refresh(title, customer);
+		});
+	}
+	
+	/**
+	 * Check if a title or customer can be used as a directory name in the workspaces directory.
+	 */
+	public static boolean isValidName(String name) {
+		return name != null && !name.trim().isEmpty() && !name.startsWith(".") 
+				&& !name.contains("/") && !name.contains("\\") && !name.contains("..");
+	}
+	
+	/**
+	 * Check if an uploaded file can be stored in a slide album directory under this name: 
+	 * a valid, not hidden name the catalog does not read as a lock marker.
+	 */
+	public static boolean isValidFileName(String name) {
+		return isValidName(name) && !FilenameUtils.getExtension(name).equalsIgnoreCase(SlideAlbumsCatalog.LOCK_MARKER_EXT);
+	}
+
+	/**
+	 * Move a slide album to the trash of its customer. The files are deleted in the background
+	 * after the retention time, until then the slide album can be restored.
+	 * @throws SlideAlbumAccessDeniedException if the user cannot access the slide albums of the customer
+	 * @throws SlideAlbumLockedException if another user holds the lock of the slide album
+	 */
+	public boolean deleteSlideAlbum(String title, String customer, User user) {
+		checkAccess(user, customer);
+		try {
+			return locks.write(customer, title, () -> {
+				boolean success = true;
+				File slideAlbumDir = new File(workspacesDir + "/" + customer + "/" + title);
+				if(slideAlbumDir.exists()) {
+					checkNotLockedByOthers(slideAlbumDir, title, user.getUsername());
+					try {
+						trash.moveToTrash(slideAlbumDir, customer, title);
+					} catch (IOException e) {
+						success = false;
+						logger.error(e.getMessage(), e);
 					}
+				} else {
+					success = false;
 				}
+				catalog.refresh(title, customer);
+				return success;
+			});
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Restore the latest deleted version of a slide album from the trash.
+	 * @return the restored slide album or null if it exists or there is nothing to restore
+	 * @throws SlideAlbumAccessDeniedException if the user cannot access the slide albums of the customer
+	 */
+	public SlideAlbum restoreSlideAlbum(String title, String customer, User user) throws IOException {
+		checkAccess(user, customer);
+		return locks.write(customer, title, () -> {
+			File slideAlbumDir = new File(workspacesDir + "/" + customer + "/" + title);
+			if(slideAlbumDir.exists() || !trash.restore(slideAlbumDir, customer, title)) {
+				return null;
 			}
-			builder = builder.files(slideAlbumFiles);
-			slideAlbum = builder.build();
-		} 
-		return slideAlbum;
+			return catalog.refresh(title, customer);
+		});
 	}
 	
-	public SlideAlbum createSlideAlbum(String title, String customer, String fileName) {	
-		SlideAlbum slideAlbum = null;
-		File customerDir = new File(workspacesDir + "/" + customer);
-		if(!customerDir.exists()) {
-			customerDir.mkdir();
+	/**
+	 * Deleted slide albums of the customers that can still be restored.
+	 */
+	public List<SlideAlbumsTrash.TrashEntry> getTrash(List<String> customers) throws IOException {
+		List<SlideAlbumsTrash.TrashEntry> entries = new ArrayList<SlideAlbumsTrash.TrashEntry>();
+		for(String customer : customers) {
+			entries.addAll(trash.list(customer));
 		}
-		File slideAlbumDir = new File(workspacesDir + "/" + customer + "/" + title);
-		slideAlbumDir.mkdir();
-		File file = new File(ConfigUtil.UPLOAD_DIR + "/" + fileName);
-		file.renameTo(new File(slideAlbumDir.getPath() + "/" + fileName));
-		SlideAlbum.Builder builder = new Builder(title, customer).modificationDate(slideAlbumDir.lastModified()).svg(FilenameUtils.getBaseName(fileName));
-		List<SlideAlbumFile> files = new ArrayList<SlideAlbumFile>(); 
-		files.add(new SlideAlbumFile("svg", FilenameUtils.getBaseName(fileName)));
-		slideAlbum = builder.files(files).build();
-		return slideAlbum;
+		return entries;
 	}
-
-	public boolean deleteSlideAlbum(String title, String customer) {
-		boolean success = true;
-		File slideAlbumDir = new File(workspacesDir + "/" + customer + "/" + title);
-		if(slideAlbumDir.exists()) {
-			try {
-				FileUtils.deleteDirectory(slideAlbumDir);
-			} catch (IOException e) {
-				success = false;
-				logger.error(e.getMessage(), e);
+	
+	/**
+	 * Progress of the background trash purge.
+	 */
+	public SlideAlbumsTrash.Status getTrashPurgeStatus() {
+		return trash.getStatus();
+	}
+	
+	/**
+	 * Lock a slide album for editing by a user or renew the user's lease.
+	 * A lock of another user whose lease has expired is taken over.
+	 * @return the locked slide album or null if it does not exist
+	 * @throws SlideAlbumLockedException if another user holds the lock
+	 */
+	public SlideAlbum acquireLock(String title, String customer, String user) throws IOException {
+		return locks.write(customer, title, () -> {
+			File slideAlbumDir = new File(workspacesDir + "/" + customer + "/" + title);
+			if(!slideAlbumDir.isDirectory()) {
+				return null;
 			}
-		} else {
-			success = false;
+			checkNotLockedByOthers(slideAlbumDir, title, user);
+			return lock(slideAlbumDir, title, customer, user);
+		});
+	}
+	
+	/**
+	 * Release the lock a user holds on a slide album.
+	 * @return the unlocked slide album or null if it does not exist
+	 * @throws SlideAlbumLockedException if another user holds the lock
+	 */
+	public SlideAlbum releaseLock(String title, String customer, String user) throws IOException {
+		return locks.write(customer, title, () -> {
+			File slideAlbumDir = new File(workspacesDir + "/" + customer + "/" + title);
+			if(!slideAlbumDir.isDirectory()) {
+				return null;
+			}
+			for(File lockMarker : lockMarkers(slideAlbumDir)) {
+				if(!isLockMarkerOf(lockMarker, user)) {
+					throw new SlideAlbumLockedException(title, SlideAlbumsCatalog.lockOwner(FilenameUtils.getBaseName(lockMarker.getName())));
+				}
+				Files.deleteIfExists(lockMarker.toPath());
+			}
+			return catalog.refresh(title, customer);
+		});
+	}
+	
+	/**
+	 * Lock a slide album for a user regardless of who holds its lock.
+	 * @return the locked slide album or null if it does not exist
+	 */
+	public SlideAlbum stealLock(String title, String customer, String user) throws IOException {
+		return locks.write(customer, title, () -> {
+			File slideAlbumDir = new File(workspacesDir + "/" + customer + "/" + title);
+			if(!slideAlbumDir.isDirectory()) {
+				return null;
+			}
+			return lock(slideAlbumDir, title, customer, user);
+		});
+	}
+	
+	/**
+	 * Replace the lock markers of a slide album with a fresh one of the user. Caller holds the slide album write lock.
+	 */
+	private SlideAlbum lock(File slideAlbumDir, String title, String customer, String user) throws IOException {
+		if(!isValidName(user)) {
+			throw new IllegalArgumentException("User name " + user + " cannot be used in a lock marker file name.");
 		}
-		return success;
+		File ownMarker = new File(slideAlbumDir, SlideAlbumsCatalog.lockMarkerName(user));
+		for(File lockMarker : lockMarkers(slideAlbumDir)) {
+			if(!lockMarker.equals(ownMarker)) {
+				Files.deleteIfExists(lockMarker.toPath());
+			}
+		}
+		if(!ownMarker.createNewFile()) {
+			ownMarker.setLastModified(System.currentTimeMillis()); // renew the lease
+		}
+		return catalog.refresh(title, customer);
+	}
+	
+	/**
+	 * @throws SlideAlbumAccessDeniedException if the user cannot access the slide albums of the customer
+	 */
+	private static void checkAccess(User user, String customer) {
+		if(!user.getCustomers().contains(customer)) {
+			throw new SlideAlbumAccessDeniedException(customer);
+		}
+	}
+	
+	/**
+	 * @throws SlideAlbumLockedException if another user holds a lock on the slide album whose lease has not expired
+	 */
+	private static void checkNotLockedByOthers(File slideAlbumDir, String title, String user) {
+		for(File lockMarker : lockMarkers(slideAlbumDir)) {
+			if(!isLockMarkerOf(lockMarker, user) && !isLeaseExpired(lockMarker)) {
+				throw new SlideAlbumLockedException(title, SlideAlbumsCatalog.lockOwner(FilenameUtils.getBaseName(lockMarker.getName())));
+			}
+		}
+	}
+	
+	/**
+	 * Only the exact marker name of the user counts, a marker of another application ending in the user name does not.
+	 */
+	private static boolean isLockMarkerOf(File lockMarker, String user) {
+		return lockMarker.getName().equals(SlideAlbumsCatalog.lockMarkerName(user));
+	}
+	
+	private static List<File> lockMarkers(File slideAlbumDir) {
+		List<File> lockMarkers = new ArrayList<File>();
+		File[] files = slideAlbumDir.listFiles();
+		for(File file : files != null ? files : new File[0]) {
+			if(!SlideAlbumsCatalog.isHidden(file.getName()) && FilenameUtils.getExtension(file.getName()).equals(SlideAlbumsCatalog.LOCK_MARKER_EXT)) {
+				lockMarkers.add(file);
+			}
+		}
+		return lockMarkers;
+	}
+	
+	/**
+	 * A lock lease runs from the last modification of its marker file, so other applications' markers expire the same way.
+	 */
+	private static boolean isLeaseExpired(File lockMarker) {
+		return lockMarker.lastModified() + TimeUnit.SECONDS.toMillis(ConfigUtil.SLIDEALBUM_LOCK_LEASE_SECONDS) < System.currentTimeMillis();
 	}
 
-	// for test purposes
-	public static void main(String[] args) {
-		System.out.println(new SlideAlbumsMgr().getSlideAlbums(Arrays.asList("Bosch", "Harley Davidson")));
-		System.out.println(new SlideAlbumsMgr().getSlideAlbum("AC 2", "Bosch"));
-		System.out.println(new SlideAlbumsMgr().createSlideAlbum("Eli test 1234567", "Bosch", "Central Locking_01.svg"));		
-		System.out.println(new SlideAlbumsMgr().deleteSlideAlbum("Eli test 1234567", "Bosch"));		
+	/**
+	 * Position the pre-sorted index of a customer at the start of the requested page.
+	 */
+	private static Iterator<SlideAlbum> pageSourceIterator(CustomerSlideAlbums index, String customer, SlideAlbumsQuery query) {
+		SlideAlbumsQuery.Sort sort = query.getSort();
+		NavigableSet<SlideAlbum> slideAlbums = sort == SlideAlbumsQuery.Sort.MODIFICATION_DATE ? index.byModificationDate() : index.byTitle();
+		if(query.isDescending()) {
+			slideAlbums = slideAlbums.descendingSet();
+		}
+		SlideAlbum after = query.getAfter();
+		if(after != null && sort == SlideAlbumsQuery.Sort.CUSTOMER && !after.getCustomer().equals(customer)) {
+			// sorted by customer first: all or none of this customer's slide albums come after the cursor
+			int comparison = customer.compareTo(after.getCustomer());
+			if((query.isDescending() ? -comparison : comparison) < 0) {
+				return Collections.emptyIterator();
+			}
+		} else if(after != null) {
+			slideAlbums = slideAlbums.tailSet(after, false);
+		} else if(query.getTitlePrefix() != null && sort != SlideAlbumsQuery.Sort.MODIFICATION_DATE && !query.isDescending()) {
+			// the upper case variant sorts first among the titles equal to the prefix ignoring case
+			slideAlbums = slideAlbums.tailSet(new SlideAlbum.Builder(query.getTitlePrefix().toUpperCase(Locale.ROOT), "").build(), true);
+		}
+		return slideAlbums.iterator();
+	}
+	
+	/**
+	 * Sorted slide albums of one customer matching a query, with the current one kept for merging.
+	 */
+	private static class PageSource {
+		
+		private final Iterator<SlideAlbum> slideAlbums;
+		private final SlideAlbumsQuery query;
+		private final boolean titleOrdered;
+		private SlideAlbum head;
+		
+		PageSource(Iterator<SlideAlbum> slideAlbums, SlideAlbumsQuery query) {
+			this.slideAlbums = slideAlbums;
+			this.query = query;
+			this.titleOrdered = query.getSort() != SlideAlbumsQuery.Sort.MODIFICATION_DATE && !query.isDescending();
+		}
+		
+		/**
+		 * Move to the next matching slide album.
+		 * @return false if there are no more
+		 */
+		boolean advance() {
+			while(slideAlbums.hasNext()) {
+				SlideAlbum slideAlbum = slideAlbums.next();
+				if(query.matches(slideAlbum)) {
+					head = slideAlbum;
+					return true;
+				}
+				if(titleOrdered && query.getTitlePrefix() != null 
+						&& String.CASE_INSENSITIVE_ORDER.compare(slideAlbum.getTitle(), query.getTitlePrefix()) > 0 
+						&& !slideAlbum.getTitle().toLowerCase(Locale.ROOT).startsWith(query.getTitlePrefix())) {
+					break; // past the titles with the prefix
+				}
+			}
+			head = null;
+			return false;
+		}
+	}
+	
+	private static ExecutorService createUploadExecutor() {
+		AtomicInteger count = new AtomicInteger();
+		return new ThreadPoolExecutor(ConfigUtil.UPLOAD_WRITER_THREADS, ConfigUtil.UPLOAD_WRITER_THREADS, 0L, TimeUnit.MILLISECONDS, 
+				new ArrayBlockingQueue<Runnable>(ConfigUtil.UPLOAD_WRITER_QUEUE_SIZE), r -> {
+					Thread thread = new Thread(r, "slidealbums-upload-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
 	}
 }
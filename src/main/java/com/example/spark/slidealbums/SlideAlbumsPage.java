@@ -0,0 +1,58 @@
+package com.example.spark.slidealbums;
+
+import java.util.List;
+
+/**
+ * One page of a slide albums list query.
+ * @author Elitza Haltakova
+ *
+ */
+public class SlideAlbumsPage {
+
+	private final List<SlideAlbum> slideAlbums;
+	private final int total;
+	private final int filtered;
+	private final boolean filteredLowerBound;
+	private final String nextCursor;
+
+	public SlideAlbumsPage(List<SlideAlbum> slideAlbums, int total, int filtered, boolean filteredLowerBound, String nextCursor) {
+		this.slideAlbums = slideAlbums;
+		this.total = total;
+		this.filtered = filtered;
+		this.filteredLowerBound = filteredLowerBound;
+		this.nextCursor = nextCursor;
+	}
+
+	public List<SlideAlbum> getSlideAlbums() {
+		return slideAlbums;
+	}
+
+	/**
+	 * Number of slide albums of the queried customers, before filtering.
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * Number of slide albums of the queried customers matching the title filters.
+	 * Counting stops after a bounded number of checked slide albums, then this is a lower bound.
+	 */
+	public int getFiltered() {
+		return filtered;
+	}
+
+	/**
+	 * Whether counting stopped early and at least {@link #getFiltered()} slide albums match the filters.
+	 */
+	public boolean isFilteredLowerBound() {
+		return filteredLowerBound;
+	}
+
+	/**
+	 * Cursor of the next page or null if this is the last one.
+	 */
+	public String getNextCursor() {
+		return nextCursor;
+	}
+}
@@ -0,0 +1,180 @@
+package com.example.spark.slidealbums;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import com.example.spark.util.JsonUtil;
+
+/**
+ * Slide albums list query: sorting, title filtering and offset or cursor based pagination.
+ * Uses Builder pattern.
+ * @author Elitza Haltakova
+ *
+ */
+public class SlideAlbumsQuery {
+
+	public enum Sort {
+		TITLE(CustomerSlideAlbums.BY_TITLE),
+		MODIFICATION_DATE(CustomerSlideAlbums.BY_MODIFICATION_DATE),
+		CUSTOMER(CustomerSlideAlbums.BY_CUSTOMER);
+
+		private final Comparator<SlideAlbum> comparator;
+
+		private Sort(Comparator<SlideAlbum> comparator) {
+			this.comparator = comparator;
+		}
+
+		Comparator<SlideAlbum> comparator() {
+			return comparator;
+		}
+
+		public static Sort fromParam(String param) {
+			if("title".equalsIgnoreCase(param)) {
+				return TITLE;
+			}
+			if("customer".equalsIgnoreCase(param)) {
+				return CUSTOMER;
+			}
+			return MODIFICATION_DATE;
+		}
+	}
+
+	private final Sort sort;
+	private final boolean descending;
+	private final int offset;
+	private final int limit;
+	private final SlideAlbum after;
+	private final String titlePrefix;
+	private final String titleContains;
+
+	private SlideAlbumsQuery(Builder builder) {
+		this.sort = builder.sort;
+		this.descending = builder.descending;
+		this.offset = builder.offset;
+		this.limit = builder.limit;
+		this.after = builder.after;
+		this.titlePrefix = builder.titlePrefix != null ? builder.titlePrefix.toLowerCase(Locale.ROOT) : null;
+		this.titleContains = builder.titleContains != null ? builder.titleContains.toLowerCase(Locale.ROOT) : null;
+	}
+
+	public static class Builder {
+
+		private Sort sort = Sort.MODIFICATION_DATE;
+		private boolean descending = true;
+		private int offset;
+		private int limit = 20;
+		private SlideAlbum after;
+		private String titlePrefix;
+		private String titleContains;
+
+		public SlideAlbumsQuery build() {
+			return new SlideAlbumsQuery(this);
+		}
+
+		public Builder sort(Sort sort, boolean descending) {
+			this.sort = sort;
+			this.descending = descending;
+			return this;
+		}
+
+		public Builder offset(int offset) {
+			this.offset = Math.max(0, offset);
+			return this;
+		}
+
+		public Builder limit(int limit) {
+			this.limit = Math.max(1, limit);
+			return this;
+		}
+
+		/**
+		 * Continue after the last slide album of a previous page.
+		 * @param cursor the nextCursor of the previous page
+		 */
+		public Builder cursor(String cursor) {
+			this.after = decodeCursor(cursor);
+			return this;
+		}
+
+		public Builder titlePrefix(String titlePrefix) {
+			this.titlePrefix = titlePrefix == null || titlePrefix.isEmpty() ? null : titlePrefix;
+			return this;
+		}
+
+		public Builder titleContains(String titleContains) {
+			this.titleContains = titleContains == null || titleContains.isEmpty() ? null : titleContains;
+			return this;
+		}
+	}
+
+	public Sort getSort() {
+		return sort;
+	}
+
+	public boolean isDescending() {
+		return descending;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Slide album the page starts after (decoded cursor) or null.
+	 */
+	SlideAlbum getAfter() {
+		return after;
+	}
+
+	String getTitlePrefix() {
+		return titlePrefix;
+	}
+
+	/**
+	 * Whether the query skips any slide albums by title.
+	 */
+	boolean isFiltered() {
+		return titlePrefix != null || titleContains != null;
+	}
+
+	Comparator<SlideAlbum> order() {
+		return descending ? sort.comparator().reversed() : sort.comparator();
+	}
+
+	boolean matches(SlideAlbum slideAlbum) {
+		String title = slideAlbum.getTitle().toLowerCase(Locale.ROOT);
+		return (titlePrefix == null || title.startsWith(titlePrefix)) && (titleContains == null || title.contains(titleContains));
+	}
+
+	/**
+	 * Cursor pointing after the given slide album. Holds all the sort keys, so it is valid for any sort order.
+	 */
+	static String encodeCursor(SlideAlbum slideAlbum) {
+		String json = JsonUtil.toJson(new Object[] {slideAlbum.getModificationDate(), slideAlbum.getCustomer(), slideAlbum.getTitle()});
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static SlideAlbum decodeCursor(String cursor) {
+		if(cursor == null || cursor.isEmpty()) {
+			return null;
+		}
+		try {
+			String json = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+			List<Object> keys = JsonUtil.fromJsonToType(json, List.class);
+			if(keys == null || keys.size() != 3 || keys.get(1) == null || keys.get(2) == null) {
+				throw new IllegalArgumentException("Invalid cursor " + cursor);
+			}
+			long modificationDate = ((Number) keys.get(0)).longValue();
+			return new SlideAlbum.Builder((String) keys.get(2), (String) keys.get(1)).modificationDate(modificationDate).build();
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Invalid cursor " + cursor, e);
+		}
+	}
+}
@@ -0,0 +1,776 @@
+package com.example.spark.slidealbums;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * In-process full-text index of the slide albums: an inverted index from the terms of the title, the customer,
+ * the file names and the text of the SVG files ({@link SvgText}) to the slide albums containing them.
+ * <p>
+ * Fed by the catalog changes and updated in the background, as reading the SVG files takes longer than the change itself.
+ * The changes of a slide album are coalesced and applied in order by one of the indexer threads.
+ * Hits contain all the query terms, the last one also as a prefix, and are ranked by BM25 style scores with field boosts.
+ * Removed slide albums are marked as deleted and dropped from the postings when the document table is full.
+ * <p>
+ * A change leaving the modification date and the files of a slide album as indexed (e.g. a lock) does not read the SVG files again.
+ * The index is saved on shutdown and restored on start, so after a restart only the slide albums changed since are read;
+ * restored slide albums no longer in the catalog are dropped once the catalog is loaded.
+ * @author Elitza Haltakova
+ *
+ */
+class SlideAlbumsSearchIndex implements SlideAlbumsCatalog.Listener {
+
+	final static Logger logger = Logger.getLogger(SlideAlbumsSearchIndex.class);
+
+	// term weights of the fields, per occurrence
+	private static final float TITLE_BOOST = 4f;
+	private static final float CUSTOMER_BOOST = 2f;
+	private static final float FILE_NAME_BOOST = 2f;
+	private static final float SVG_LABEL_BOOST = 1.5f;
+	private static final float SVG_TEXT_BOOST = 1f;
+	// BM25 term frequency saturation
+	private static final float K1 = 1.2f;
+	private static final int MAX_TERM_LENGTH = 64;
+	private static final int MAX_QUERY_TERMS = 16;
+	// pending change of a slide album removed from the catalog
+	private static final SlideAlbum REMOVED = new SlideAlbum.Builder("", "").build();
+	private static final int INDEX_MAGIC = 0x53415349; // "SASI"
+	// to be increased on any change of the term weights, e.g. of the tokenizer or the boosts
+	private static final int FORMAT_VERSION = 1;
+	private static final String INDEX_FILE = "search.index";
+
+	private final Path workspacesDir;
+	private final Path indexFile;
+	private final int svgMaxChars;
+	private final int maxPrefixTerms;
+	private final ExecutorService[] indexers;
+	// latest not yet indexed change by slide album key
+	private final Map<String, SlideAlbum> pending = new ConcurrentHashMap<String, SlideAlbum>();
+	private volatile boolean shutdown;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	// guarded by lock
+	private final TreeMap<String, Postings> terms = new TreeMap<String, Postings>();
+	private final Map<String, Integer> docIds = new HashMap<String, Integer>();
+	private final Map<String, Integer> customerIds = new HashMap<String, Integer>();
+	// by doc id, customer ids and modification dates kept in arrays for ranking without following the references
+	private Doc[] docs = new Doc[1024];
+	private int[] docCustomers = new int[1024];
+	private long[] docModificationDates = new long[1024];
+	private int nextDocId;
+	private int liveDocs;
+	// restored slide albums not yet confirmed by the catalog
+	private final Set<String> restored = new HashSet<String>();
+
+	/**
+	 * @param stateDir directory the index is saved in on shutdown, null to index all slide albums on every start
+	 * @param indexerThreads threads reading slide albums for the index, the changes of one slide album always go to the same one
+	 * @param svgMaxChars characters of SVG text indexed per slide album at most
+	 * @param maxPrefixTerms terms matched by the last query term as a prefix at most
+	 */
+	SlideAlbumsSearchIndex(String workspacesDir, String stateDir, int indexerThreads, int svgMaxChars, int maxPrefixTerms) {
+		this.workspacesDir = Paths.get(workspacesDir);
+		this.indexFile = stateDir != null ? Paths.get(stateDir).toAbsolutePath().resolve(INDEX_FILE) : null;
+		this.svgMaxChars = svgMaxChars;
+		this.maxPrefixTerms = maxPrefixTerms;
+		this.indexers = new ExecutorService[indexerThreads];
+		for(int i = 0; i < indexerThreads; i++) {
+			String name = "slidealbums-search-indexer-" + (i + 1);
+			indexers[i] = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				thread.setPriority(Thread.NORM_PRIORITY - 1);
+				return thread;
+			});
+		}
+	}
+
+	@Override
+	public void put(SlideAlbum slideAlbum) {
+		enqueue(key(slideAlbum.getTitle(), slideAlbum.getCustomer()), slideAlbum);
+	}
+
+	@Override
+	public void remove(String title, String customer) {
+		enqueue(key(title, customer), REMOVED);
+	}
+
+	/**
+	 * Search the slide albums of the customers.
+	 * @param query terms separated by anything but letters and digits, the last one also matching as a prefix
+	 * @return the requested page of the hits, best first
+	 */
+	SlideAlbumsSearchPage search(String query, Collection<String> customers, int offset, int limit) {
+		List<String> queryTerms = new ArrayList<String>(new LinkedHashSet<String>(tokenize(query)));
+		boolean lastIsPrefix = !query.isEmpty() && Character.isLetterOrDigit(query.charAt(query.length() - 1));
+		if(queryTerms.isEmpty()) {
+			return new SlideAlbumsSearchPage(Collections.emptyList(), 0);
+		}
+		if(queryTerms.size() > MAX_QUERY_TERMS) {
+			queryTerms = queryTerms.subList(0, MAX_QUERY_TERMS);
+			lastIsPrefix = false;
+		}
+		lock.readLock().lock();
+		try {
+			BitSet allowed = new BitSet();
+			for(String customer : customers) {
+				Integer customerId = customerIds.get(customer);
+				if(customerId != null) {
+					allowed.set(customerId);
+				}
+			}
+			// postings of every query term, the rarest term first
+			List<List<Postings>> matches = new ArrayList<List<Postings>>();
+			for(int i = 0; i < queryTerms.size(); i++) {
+				List<Postings> termPostings = postings(queryTerms.get(i), lastIsPrefix && i == queryTerms.size() - 1);
+				if(termPostings.isEmpty()) {
+					return new SlideAlbumsSearchPage(Collections.emptyList(), 0);
+				}
+				matches.add(termPostings);
+			}
+			matches.sort(Comparator.comparingLong(SlideAlbumsSearchIndex::size));
+
+			// candidates are the slide albums of the rarest term, dropped when missing a further term
+			float[] scores = new float[nextDocId];
+			int[] candidates = new int[16];
+			int count = 0;
+			for(Postings postings : matches.get(0)) {
+				float idf = idf(postings);
+				for(int i = 0; i < postings.size; i++) {
+					int docId = postings.docIds[i];
+					if(docs[docId] == null || !allowed.get(docCustomers[docId])) {
+						continue;
+					}
+					float score = idf * postings.weights[i];
+					if(scores[docId] == 0) {
+						if(count == candidates.length) {
+							candidates = Arrays.copyOf(candidates, count * 2);
+						}
+						candidates[count++] = docId;
+						scores[docId] = score;
+					} else {
+						scores[docId] = Math.max(scores[docId], score);
+					}
+				}
+			}
+			for(List<Postings> termPostings : matches.subList(1, matches.size())) {
+				int kept = 0;
+				for(int c = 0; c < count; c++) {
+					int docId = candidates[c];
+					float best = 0;
+					for(Postings postings : termPostings) {
+						int i = Arrays.binarySearch(postings.docIds, 0, postings.size, docId);
+						if(i >= 0) {
+							best = Math.max(best, idf(postings) * postings.weights[i]);
+						}
+					}
+					if(best > 0) {
+						scores[docId] += best;
+						candidates[kept++] = docId;
+					}
+				}
+				count = kept;
+			}
+
+			// best offset + limit hits, the worst of them on top of the heap; equally relevant ones most recent first
+			Comparator<Integer> ranking = (a, b) -> {
+				int comparison = Float.compare(scores[b], scores[a]);
+				if(comparison != 0) {
+					return comparison;
+				}
+				comparison = Long.compare(docModificationDates[b], docModificationDates[a]);
+				return comparison != 0 ? comparison : CustomerSlideAlbums.BY_TITLE.compare(docs[a].slideAlbum, docs[b].slideAlbum);
+			};
+			int size = (int) Math.min((long) offset + limit, count);
+			if(size <= offset) {
+				return new SlideAlbumsSearchPage(Collections.emptyList(), count);
+			}
+			PriorityQueue<Integer> best = new PriorityQueue<Integer>(size, ranking.reversed());
+			for(int c = 0; c < count; c++) {
+				if(best.size() < size) {
+					best.add(candidates[c]);
+				} else if(ranking.compare(candidates[c], best.peek()) < 0) {
+					best.poll();
+					best.add(candidates[c]);
+				}
+			}
+			List<SlideAlbumsSearchPage.Hit> hits = new ArrayList<SlideAlbumsSearchPage.Hit>(best.size());
+			while(!best.isEmpty()) {
+				int docId = best.poll();
+				hits.add(new SlideAlbumsSearchPage.Hit(docs[docId].slideAlbum, scores[docId]));
+			}
+			Collections.reverse(hits);
+			return new SlideAlbumsSearchPage(hits.subList(offset, hits.size()), count);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Number of indexed slide albums.
+	 */
+	int size() {
+		lock.readLock().lock();
+		try {
+			return liveDocs;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Number of slide album changes not indexed yet.
+	 */
+	int getBacklog() {
+		return pending.size();
+	}
+
+	/**
+	 * Stop the indexer threads and save the index. Changes not indexed yet are found on the next start,
+	 * as they left the saved slide albums with an older modification date.
+	 */
+	void shutdown() {
+		shutdown = true;
+		for(ExecutorService indexer : indexers) {
+			indexer.shutdownNow();
+		}
+		save();
+	}
+
+	/**
+	 * Restore the saved index, to be called before the catalog is started.
+	 */
+	void load() {
+		if(indexFile == null) {
+			return;
+		}
+		long start = System.nanoTime();
+		byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(indexFile);
+		} catch (NoSuchFileException e) {
+			return;
+		} catch (IOException e) {
+			logger.error("Slide albums search index " + indexFile + " cannot be read. " + e.getMessage(), e);
+			return;
+		}
+		ByteBuffer in = ByteBuffer.wrap(bytes);
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, Math.max(0, bytes.length - 8));
+		if(bytes.length < 24 || in.getInt(0) != INDEX_MAGIC || in.getInt(4) != FORMAT_VERSION || in.getLong(bytes.length - 8) != crc.getValue()) {
+			logger.warn("Slide albums search index " + indexFile + " is not valid and is ignored.");
+			return;
+		}
+		in.position(8);
+		in.limit(bytes.length - 8);
+		lock.writeLock().lock();
+		try {
+			if(nextDocId > 0) {
+				return;
+			}
+			int count = in.getInt();
+			SlideAlbum[] slideAlbums = new SlideAlbum[count];
+			List<List<Postings>> docPostings = new ArrayList<List<Postings>>(count);
+			for(int docId = 0; docId < count; docId++) {
+				slideAlbums[docId] = readSlideAlbum(in);
+				docPostings.add(new ArrayList<Postings>());
+			}
+			int termCount = in.getInt();
+			for(int i = 0; i < termCount; i++) {
+				String term = CatalogStore.readString(in);
+				Postings postings = new Postings();
+				int size = in.getInt();
+				for(int j = 0; j < size; j++) {
+					int docId = in.getInt();
+					postings.add(docId, in.getFloat());
+					docPostings.get(docId).add(postings);
+				}
+				terms.put(term, postings);
+			}
+			for(int docId = 0; docId < count; docId++) {
+				if(nextDocId == docs.length) {
+					grow();
+				}
+				addDoc(key(slideAlbums[docId].getTitle(), slideAlbums[docId].getCustomer()), slideAlbums[docId], 
+						docPostings.get(docId).toArray(new Postings[0]));
+			}
+			restored.addAll(docIds.keySet());
+			logger.info("Slide albums search index restored with " + count + " slide albums in " 
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+		} catch (RuntimeException e) {
+			logger.warn("Slide albums search index " + indexFile + " cannot be read and is ignored. " + e.getMessage());
+			clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Drop the restored slide albums the catalog has not confirmed, once the changes queued so far are indexed.
+	 * To be called after the catalog is started.
+	 */
+	void dropUnconfirmed() {
+		AtomicInteger remaining = new AtomicInteger(indexers.length);
+		Runnable drop = () -> {
+			if(remaining.decrementAndGet() > 0) {
+				return;
+			}
+			lock.writeLock().lock();
+			try {
+				if(!restored.isEmpty()) {
+					logger.info("Dropping " + restored.size() + " slide albums no longer in the catalog from the search index.");
+				}
+				restored.forEach(this::removeDoc);
+				restored.clear();
+			} finally {
+				lock.writeLock().unlock();
+			}
+		};
+		try {
+			for(ExecutorService indexer : indexers) {
+				indexer.execute(drop);
+			}
+		} catch (RejectedExecutionException e) {
+			// shut down
+		}
+	}
+
+	/**
+	 * Split a text into lower case terms of letters and digits, without accents.
+	 */
+	static List<String> tokenize(String text) {
+		List<String> tokens = new ArrayList<String>();
+		tokenize(text, tokens::add);
+		return tokens;
+	}
+
+	private static void tokenize(String text, Consumer<String> tokens) {
+		String normalized = Normalizer.normalize(text, Normalizer.Form.NFD);
+		StringBuilder token = new StringBuilder();
+		for(int i = 0; i < normalized.length(); i++) {
+			char c = normalized.charAt(i);
+			if(Character.isLetterOrDigit(c)) {
+				token.append(Character.toLowerCase(c));
+			} else if(Character.getType(c) != Character.NON_SPACING_MARK) {
+				emit(token, tokens);
+			}
+		}
+		emit(token, tokens);
+	}
+
+	private static void emit(StringBuilder token, Consumer<String> tokens) {
+		if(token.length() > 0 && token.length() <= MAX_TERM_LENGTH) {
+			tokens.accept(token.toString());
+		}
+		token.setLength(0);
+	}
+
+	private void enqueue(String key, SlideAlbum change) {
+		if(shutdown || pending.put(key, change) != null) {
+			return; // stopped or already queued, the indexer takes the latest change
+		}
+		try {
+			indexers[(key.hashCode() & Integer.MAX_VALUE) % indexers.length].execute(() -> index(key));
+		} catch (RejectedExecutionException e) {
+			pending.remove(key); // shut down
+		}
+	}
+
+	/**
+	 * Apply the latest change of a slide album. Runs on its indexer thread.
+	 */
+	private void index(String key) {
+		SlideAlbum slideAlbum = pending.remove(key);
+		if(slideAlbum == null) {
+			return;
+		}
+		try {
+			if(slideAlbum != REMOVED && replaceIfUnchanged(key, slideAlbum)) {
+				return;
+			}
+			Map<String, Float> weights = slideAlbum != REMOVED ? termWeights(slideAlbum) : null;
+			lock.writeLock().lock();
+			try {
+				restored.remove(key);
+				removeDoc(key);
+				if(weights != null) {
+					addDoc(key, slideAlbum, weights);
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		} catch (RuntimeException e) {
+			logger.error("Slide album " + key + " cannot be indexed. " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Keep the terms of a slide album indexed with the same modification date and files, taking its other changes.
+	 * @return false if the slide album has to be indexed
+	 */
+	private boolean replaceIfUnchanged(String key, SlideAlbum slideAlbum) {
+		lock.writeLock().lock();
+		try {
+			Integer docId = docIds.get(key);
+			if(docId == null || docs[docId].slideAlbum.getModificationDate() != slideAlbum.getModificationDate() 
+					|| !sameFiles(docs[docId].slideAlbum.getFiles(), slideAlbum.getFiles())) {
+				return false;
+			}
+			docs[docId] = new Doc(slideAlbum, docs[docId].postings);
+			restored.remove(key);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private static boolean sameFiles(List<SlideAlbumFile> files, List<SlideAlbumFile> otherFiles) {
+		if(files == null || otherFiles == null || files.size() != otherFiles.size()) {
+			return files == otherFiles;
+		}
+		for(int i = 0; i < files.size(); i++) {
+			if(!files.get(i).getName().equals(otherFiles.get(i).getName()) || !files.get(i).getExt().equals(otherFiles.get(i).getExt())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Terms of a slide album with their saturated, boosted frequencies.
+	 */
+	private Map<String, Float> termWeights(SlideAlbum slideAlbum) {
+		Map<String, Float> frequencies = new HashMap<String, Float>();
+		addTerms(frequencies, slideAlbum.getTitle(), TITLE_BOOST);
+		addTerms(frequencies, slideAlbum.getCustomer(), CUSTOMER_BOOST);
+		int svgChars = svgMaxChars;
+		for(SlideAlbumFile file : slideAlbum.getFiles() != null ? slideAlbum.getFiles() : Collections.<SlideAlbumFile>emptyList()) {
+			addTerms(frequencies, file.getName(), FILE_NAME_BOOST);
+			addTerms(frequencies, file.getExt(), FILE_NAME_BOOST);
+			if("svg".equalsIgnoreCase(file.getExt()) && svgChars > 0) {
+				Path svgFile = workspacesDir.resolve(slideAlbum.getCustomer()).resolve(slideAlbum.getTitle()).resolve(file.getName() + "." + file.getExt());
+				try {
+					SvgText svgText = SvgText.read(svgFile, svgChars);
+					addTerms(frequencies, svgText.getLabels(), SVG_LABEL_BOOST);
+					addTerms(frequencies, svgText.getText(), SVG_TEXT_BOOST);
+					svgChars -= svgText.getLabels().length() + svgText.getText().length();
+				} catch (IOException e) {
+					// deleted or being replaced, indexed again on its catalog change
+				}
+			}
+		}
+		frequencies.replaceAll((term, frequency) -> frequency * (K1 + 1) / (frequency + K1));
+		return frequencies;
+	}
+
+	private static void addTerms(Map<String, Float> frequencies, String text, float boost) {
+		if(text != null) {
+			tokenize(text, term -> frequencies.merge(term, boost, Float::sum));
+		}
+	}
+
+	/**
+	 * Postings of a term, or of all terms starting with it (at most maxPrefixTerms).
+	 */
+	private List<Postings> postings(String term, boolean prefix) {
+		if(!prefix) {
+			Postings postings = terms.get(term);
+			return postings != null ? Collections.singletonList(postings) : Collections.emptyList();
+		}
+		List<Postings> matching = new ArrayList<Postings>();
+		for(Postings postings : terms.subMap(term, true, term + Character.MAX_VALUE, false).values()) {
+			if(matching.size() == maxPrefixTerms) {
+				break;
+			}
+			matching.add(postings);
+		}
+		return matching;
+	}
+
+	private static long size(List<Postings> termPostings) {
+		long size = 0;
+		for(Postings postings : termPostings) {
+			size += postings.size;
+		}
+		return size;
+	}
+
+	/**
+	 * BM25 inverse document frequency, always positive.
+	 */
+	private float idf(Postings postings) {
+		int documentFrequency = postings.size - postings.deleted;
+		return (float) Math.log(1 + (liveDocs - documentFrequency + 0.5) / (documentFrequency + 0.5));
+	}
+
+	private void addDoc(String key, SlideAlbum slideAlbum, Map<String, Float> weights) {
+		if(nextDocId == docs.length) {
+			if(nextDocId - liveDocs >= docs.length / 2) {
+				compact();
+			} else {
+				grow();
+			}
+		}
+		int docId = nextDocId;
+		Postings[] docPostings = new Postings[weights.size()];
+		int i = 0;
+		for(Map.Entry<String, Float> weight : weights.entrySet()) {
+			Postings postings = terms.computeIfAbsent(weight.getKey(), term -> new Postings());
+			postings.add(docId, weight.getValue());
+			docPostings[i++] = postings;
+		}
+		addDoc(key, slideAlbum, docPostings);
+	}
+
+	/**
+	 * Add a slide album as the next doc id, already added to the postings of its terms.
+	 */
+	private void addDoc(String key, SlideAlbum slideAlbum, Postings[] docPostings) {
+		int docId = nextDocId++;
+		docs[docId] = new Doc(slideAlbum, docPostings);
+		docCustomers[docId] = customerIds.computeIfAbsent(slideAlbum.getCustomer(), customer -> customerIds.size());
+		docModificationDates[docId] = slideAlbum.getModificationDate();
+		docIds.put(key, docId);
+		liveDocs++;
+	}
+
+	private void removeDoc(String key) {
+		Integer docId = docIds.remove(key);
+		if(docId == null) {
+			return;
+		}
+		for(Postings postings : docs[docId].postings) {
+			postings.deleted++;
+		}
+		docs[docId] = null;
+		liveDocs--;
+	}
+
+	private void grow() {
+		docs = Arrays.copyOf(docs, docs.length * 2);
+		docCustomers = Arrays.copyOf(docCustomers, docs.length);
+		docModificationDates = Arrays.copyOf(docModificationDates, docs.length);
+	}
+
+	private void clear() {
+		terms.clear();
+		docIds.clear();
+		customerIds.clear();
+		restored.clear();
+		Arrays.fill(docs, 0, nextDocId, null);
+		nextDocId = 0;
+		liveDocs = 0;
+	}
+
+	/**
+	 * Write the live slide albums and the postings of their terms, renumbered in doc id order,
+	 * to a temporary file replacing the saved index. Ends with a CRC32 of the content.
+	 */
+	private void save() {
+		if(indexFile == null) {
+			return;
+		}
+		Path temp = indexFile.resolveSibling(INDEX_FILE + ".tmp");
+		lock.readLock().lock();
+		try {
+			Files.createDirectories(indexFile.getParent());
+			int[] newDocIds = new int[nextDocId];
+			int live = 0;
+			for(int docId = 0; docId < nextDocId; docId++) {
+				newDocIds[docId] = docs[docId] != null ? live++ : -1;
+			}
+			CRC32 crc = new CRC32();
+			try(OutputStream file = Files.newOutputStream(temp)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc), 65536));
+				out.writeInt(INDEX_MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(live);
+				for(int docId = 0; docId < nextDocId; docId++) {
+					if(docs[docId] != null) {
+						writeSlideAlbum(out, docs[docId].slideAlbum);
+					}
+				}
+				out.writeInt((int) terms.values().stream().filter(postings -> postings.size > postings.deleted).count());
+				for(Map.Entry<String, Postings> term : terms.entrySet()) {
+					Postings postings = term.getValue();
+					if(postings.size == postings.deleted) {
+						continue;
+					}
+					CatalogStore.writeString(out, term.getKey());
+					out.writeInt(postings.size - postings.deleted);
+					for(int i = 0; i < postings.size; i++) {
+						if(newDocIds[postings.docIds[i]] >= 0) {
+							out.writeInt(newDocIds[postings.docIds[i]]);
+							out.writeFloat(postings.weights[i]);
+						}
+					}
+				}
+				out.flush();
+				// the checksum itself is not part of the checked content
+				new DataOutputStream(file).writeLong(crc.getValue());
+			}
+			Files.move(temp, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			logger.error("Slide albums search index cannot be saved to " + indexFile + ". " + e.getMessage(), e);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static void writeSlideAlbum(DataOutputStream out, SlideAlbum slideAlbum) throws IOException {
+		CatalogStore.writeString(out, slideAlbum.getCustomer());
+		CatalogStore.writeString(out, slideAlbum.getTitle());
+		out.writeLong(slideAlbum.getModificationDate());
+		CatalogStore.writeString(out, slideAlbum.lockedBy());
+		CatalogStore.writeString(out, slideAlbum.getSvg());
+		List<SlideAlbumFile> files = slideAlbum.getFiles();
+		out.writeInt(files != null ? files.size() : -1);
+		if(files != null) {
+			for(SlideAlbumFile file : files) {
+				CatalogStore.writeString(out, file.getExt());
+				CatalogStore.writeString(out, file.getName());
+			}
+		}
+	}
+
+	private static SlideAlbum readSlideAlbum(ByteBuffer in) {
+		String customer = CatalogStore.readString(in);
+		SlideAlbum.Builder builder = new SlideAlbum.Builder(CatalogStore.readString(in), customer)
+				.modificationDate(in.getLong())
+				.lockedBy(CatalogStore.readString(in))
+				.svg(CatalogStore.readString(in));
+		int count = in.getInt();
+		if(count >= 0) {
+			List<SlideAlbumFile> files = new ArrayList<SlideAlbumFile>(count);
+			for(int i = 0; i < count; i++) {
+				files.add(new SlideAlbumFile(CatalogStore.readString(in), CatalogStore.readString(in)));
+			}
+			builder = builder.files(files);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Renumber the live documents and drop the deleted ones from the postings, keeping the doc ids in order.
+	 */
+	private void compact() {
+		int[] newDocIds = new int[nextDocId];
+		int live = 0;
+		for(int docId = 0; docId < nextDocId; docId++) {
+			Doc doc = docs[docId];
+			newDocIds[docId] = doc != null ? live : -1;
+			if(doc != null) {
+				docs[live] = doc;
+				docCustomers[live] = docCustomers[docId];
+				docModificationDates[live] = docModificationDates[docId];
+				docIds.put(key(doc.slideAlbum.getTitle(), doc.slideAlbum.getCustomer()), live);
+				live++;
+			}
+		}
+		Arrays.fill(docs, live, nextDocId, null);
+		nextDocId = live;
+		for(Iterator<Postings> postings = terms.values().iterator(); postings.hasNext();) {
+			if(!postings.next().compact(newDocIds)) {
+				postings.remove();
+			}
+		}
+	}
+
+	private static String key(String title, String customer) {
+		return customer + "/" + title;
+	}
+
+	/**
+	 * Indexed slide album with the postings of its terms, marked as deleted on removal.
+	 */
+	private static class Doc {
+
+		private final SlideAlbum slideAlbum;
+		private final Postings[] postings;
+
+		Doc(SlideAlbum slideAlbum, Postings[] postings) {
+			this.slideAlbum = slideAlbum;
+			this.postings = postings;
+		}
+	}
+
+	/**
+	 * Slide albums containing a term, by ascending doc id, with the weight of the term in each.
+	 */
+	private static class Postings {
+
+		private int[] docIds = new int[2];
+		private float[] weights = new float[2];
+		private int size;
+		private int deleted;
+
+		void add(int docId, float weight) {
+			if(size == docIds.length) {
+				docIds = Arrays.copyOf(docIds, size * 2);
+				weights = Arrays.copyOf(weights, size * 2);
+			}
+			docIds[size] = docId;
+			weights[size] = weight;
+			size++;
+		}
+
+		/**
+		 * @return false if no live slide album contains the term
+		 */
+		boolean compact(int[] newDocIds) {
+			int live = 0;
+			for(int i = 0; i < size; i++) {
+				int docId = newDocIds[docIds[i]];
+				if(docId >= 0) {
+					docIds[live] = docId;
+					weights[live] = weights[i];
+					live++;
+				}
+			}
+			size = live;
+			deleted = 0;
+			if(live < docIds.length / 4) {
+				docIds = Arrays.copyOf(docIds, Math.max(2, live));
+				weights = Arrays.copyOf(weights, Math.max(2, live));
+			}
+			return live > 0;
+		}
+	}
+}
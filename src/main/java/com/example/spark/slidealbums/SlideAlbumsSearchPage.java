@@ -0,0 +1,52 @@
+package com.example.spark.slidealbums;
+
+import java.util.List;
+
+/**
+ * One page of the slide albums matching a full-text search, ranked by relevance.
+ * @author Elitza Haltakova
+ *
+ */
+public class SlideAlbumsSearchPage {
+
+	private final List<Hit> hits;
+	private final int total;
+
+	public SlideAlbumsSearchPage(List<Hit> hits, int total) {
+		this.hits = hits;
+		this.total = total;
+	}
+
+	public List<Hit> getHits() {
+		return hits;
+	}
+
+	/**
+	 * Number of slide albums matching the search.
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * Slide album matching a search with its relevance score.
+	 */
+	public static class Hit {
+
+		private final SlideAlbum slideAlbum;
+		private final float score;
+
+		public Hit(SlideAlbum slideAlbum, float score) {
+			this.slideAlbum = slideAlbum;
+			this.score = score;
+		}
+
+		public SlideAlbum getSlideAlbum() {
+			return slideAlbum;
+		}
+
+		public float getScore() {
+			return score;
+		}
+	}
+}
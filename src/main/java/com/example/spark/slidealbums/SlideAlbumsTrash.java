@@ -0,0 +1,288 @@
+package com.example.spark.slidealbums;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Trash of deleted slide albums. A deleted slide album directory is renamed into the hidden trash directory
+ * of its customer (<customer>/.trash/<deletion time>_<title>), where it can be restored during the retention time.
+ * Expired entries are purged in the background by a low priority thread, at a limited number of files per second.
+ * @author Elitza Haltakova
+ *
+ */
+public class SlideAlbumsTrash {
+
+	final static Logger logger = Logger.getLogger(SlideAlbumsTrash.class);
+
+	static final String TRASH_DIR = ".trash";
+	private static final String PURGE_PREFIX = ".purge-";
+
+	private final File workspacesDir;
+	private final SlideAlbumLocks locks;
+	private final long retentionMillis;
+	private final int maxFilesPerSecond;
+
+	private final AtomicLong purgedEntries = new AtomicLong();
+	private final AtomicLong purgedFiles = new AtomicLong();
+	private final AtomicLong purgedBytes = new AtomicLong();
+	private final AtomicBoolean purging = new AtomicBoolean();
+
+	private ScheduledExecutorService purgeExecutor;
+
+	SlideAlbumsTrash(String workspacesDir, SlideAlbumLocks locks, long retentionMillis, int maxFilesPerSecond) {
+		this.workspacesDir = new File(workspacesDir);
+		this.locks = locks;
+		this.retentionMillis = retentionMillis;
+		this.maxFilesPerSecond = maxFilesPerSecond;
+	}
+
+	/**
+	 * Start purging expired entries periodically. Subsequent calls have no effect.
+	 */
+	synchronized void start(long intervalSeconds) {
+		if(purgeExecutor != null) {
+			return;
+		}
+		purgeExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "slidealbums-trash-purge");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		purgeExecutor.scheduleWithFixedDelay(this::purge, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	synchronized void stop() {
+		if(purgeExecutor != null) {
+			purgeExecutor.shutdownNow();
+			purgeExecutor = null;
+		}
+	}
+
+	/**
+	 * Move a slide album directory to the trash of its customer. Caller holds the slide album write lock.
+	 */
+	void moveToTrash(File slideAlbumDir, String customer, String title) throws IOException {
+		Path trashDir = trashDir(customer);
+		Files.createDirectories(trashDir);
+		Files.move(slideAlbumDir.toPath(), trashDir.resolve(System.currentTimeMillis() + "_" + title), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Move the latest trash entry of a slide album back, if it is still in the retention time.
+	 * Caller holds the slide album write lock.
+	 * @return false if there is nothing to restore
+	 */
+	boolean restore(File slideAlbumDir, String customer, String title) throws IOException {
+		TrashEntry latest = null;
+		for(TrashEntry entry : list(customer)) {
+			if(entry.title.equals(title) && (latest == null || entry.deletionDate > latest.deletionDate)) {
+				latest = entry;
+			}
+		}
+		if(latest == null) {
+			return false;
+		}
+		Files.move(trashDir(customer).resolve(latest.deletionDate + "_" + title), slideAlbumDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		return true;
+	}
+
+	/**
+	 * Slide albums of a customer that can still be restored.
+	 */
+	List<TrashEntry> list(String customer) throws IOException {
+		List<TrashEntry> entries = new ArrayList<TrashEntry>();
+		Path trashDir = trashDir(customer);
+		if(!Files.isDirectory(trashDir)) {
+			return entries;
+		}
+		long now = System.currentTimeMillis();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(trashDir)) {
+			for(Path file : files) {
+				TrashEntry entry = TrashEntry.parse(customer, file.getFileName().toString(), retentionMillis);
+				if(entry != null && entry.purgeDate > now) {
+					entries.add(entry);
+				}
+			}
+		}
+		return entries;
+	}
+
+	Status getStatus() {
+		return new Status(purging.get(), purgedEntries.get(), purgedFiles.get(), purgedBytes.get());
+	}
+
+	/**
+	 * Purge all expired trash entries. Each entry is first renamed under the slide album lock,
+	 * so it cannot be restored any more, and then deleted without holding the lock.
+	 */
+	void purge() {
+		File[] customerDirs = workspacesDir.listFiles(File::isDirectory);
+		if(customerDirs == null) {
+			return;
+		}
+		for(File customerDir : customerDirs) {
+			String customer = customerDir.getName();
+			Path trashDir = trashDir(customer);
+			if(!Files.isDirectory(trashDir)) {
+				continue;
+			}
+			try {
+				long now = System.currentTimeMillis();
+				List<Path> expired = new ArrayList<Path>();
+				try (DirectoryStream<Path> files = Files.newDirectoryStream(trashDir)) {
+					for(Path file : files) {
+						String name = file.getFileName().toString();
+						TrashEntry entry = TrashEntry.parse(customer, name, retentionMillis);
+						if(name.startsWith(PURGE_PREFIX)) {
+							expired.add(file); // left over by an interrupted purge
+						} else if(entry != null && entry.purgeDate <= now) {
+							expired.add(locks.write(customer, entry.title, () -> {
+								Path purged = trashDir.resolve(PURGE_PREFIX + name);
+								Files.move(file, purged, StandardCopyOption.ATOMIC_MOVE);
+								return purged;
+							}));
+						}
+					}
+				}
+				for(Path entry : expired) {
+					purging.set(true);
+					delete(entry);
+					purgedEntries.incrementAndGet();
+				}
+			} catch (IOException e) {
+				logger.error("Trash of customer " + customer + " cannot be purged. " + e.getMessage(), e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				purging.set(false);
+			}
+		}
+	}
+
+	private Path trashDir(String customer) {
+		return new File(workspacesDir, customer + "/" + TRASH_DIR).toPath();
+	}
+
+	/**
+	 * Delete a directory tree, pacing the deletes to the configured number of files per second.
+	 */
+	private void delete(Path dir) throws IOException, InterruptedException {
+		long start = System.currentTimeMillis();
+		long[] deleted = {0};
+		try {
+			Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+					Files.deleteIfExists(file);
+					purgedFiles.incrementAndGet();
+					purgedBytes.addAndGet(attributes.size());
+					deleted[0]++;
+					long due = start + deleted[0] * 1000 / maxFilesPerSecond;
+					long wait = due - System.currentTimeMillis();
+					if(wait > 0) {
+						try {
+							Thread.sleep(wait);
+						} catch (InterruptedException e) {
+							throw new InterruptedIOException(e);
+						}
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path visited, IOException e) throws IOException {
+					if(e != null) {
+						throw e;
+					}
+					Files.deleteIfExists(visited);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (NoSuchFileException e) {
+			// already gone
+		} catch (InterruptedIOException e) {
+			throw (InterruptedException) e.getCause();
+		}
+	}
+
+	private static class InterruptedIOException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		InterruptedIOException(InterruptedException cause) {
+			super(cause);
+		}
+	}
+
+	/**
+	 * A deleted slide album in the trash.
+	 */
+	public static class TrashEntry {
+
+		final String title;
+		final String customer;
+		final long deletionDate;
+		final long purgeDate;
+
+		TrashEntry(String title, String customer, long deletionDate, long purgeDate) {
+			this.title = title;
+			this.customer = customer;
+			this.deletionDate = deletionDate;
+			this.purgeDate = purgeDate;
+		}
+
+		/**
+		 * @return the entry or null if the name is not a trash entry name
+		 */
+		static TrashEntry parse(String customer, String name, long retentionMillis) {
+			int separator = name.indexOf('_');
+			if(name.startsWith(".") || separator <= 0) {
+				return null;
+			}
+			try {
+				long deletionDate = Long.parseLong(name.substring(0, separator));
+				return new TrashEntry(name.substring(separator + 1), customer, deletionDate, deletionDate + retentionMillis);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Progress of the background purge.
+	 */
+	public static class Status {
+
+		// whether entries are being deleted; which ones is not reported, the status is shown to users of any customer
+		final boolean purging;
+		final long purgedEntries;
+		final long purgedFiles;
+		final long purgedBytes;
+
+		Status(boolean purging, long purgedEntries, long purgedFiles, long purgedBytes) {
+			this.purging = purging;
+			this.purgedEntries = purgedEntries;
+			this.purgedFiles = purgedFiles;
+			this.purgedBytes = purgedBytes;
+		}
+	}
+}
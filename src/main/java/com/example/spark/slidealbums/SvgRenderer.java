@@ -0,0 +1,186 @@
+package com.example.spark.slidealbums;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.batik.bridge.ExternalResourceSecurity;
+import org.apache.batik.bridge.NoLoadExternalResourceSecurity;
+import org.apache.batik.bridge.UserAgent;
+import org.apache.batik.transcoder.ErrorHandler;
+import org.apache.batik.transcoder.SVGAbstractTranscoder;
+import org.apache.batik.transcoder.TranscoderException;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.image.ImageTranscoder;
+import org.apache.batik.util.ParsedURL;
+import org.apache.batik.util.SVGConstants;
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * SVG rasterizer for previews, based on the Batik transcoder.
+ * Scripts are not run and no external resources are loaded but embedded (data URI) raster images, whose size
+ * is read from their header before they are decoded. Other images are left out, other external references
+ * fail the rendering. The Batik parser loads no external DTDs and entities.
+ * @author Elitza Haltakova
+ *
+ */
+class SvgRenderer {
+
+	final static Logger logger = Logger.getLogger(SvgRenderer.class);
+
+	// pixels of an embedded image at most, decoded with 4 bytes per pixel
+	private static final long MAX_IMAGE_PIXELS = 4096 * 4096;
+
+	private SvgRenderer() {
+	}
+
+	/**
+	 * Render an SVG file into an image fitting the given size, keeping its aspect ratio.
+	 * @param maxFileSize larger files are not rendered, bounding the time and memory spent on huge files
+	 */
+	static BufferedImage render(Path file, int maxWidth, int maxHeight, long maxFileSize) throws IOException {
+		long size = Files.size(file);
+		if(size > maxFileSize) {
+			throw new IOException("SVG file " + file + " of " + size + " bytes is too large to be rendered.");
+		}
+		PreviewTranscoder transcoder = new PreviewTranscoder();
+		transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_WIDTH, (float) maxWidth);
+		transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_MAX_WIDTH, (float) maxWidth);
+		transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_MAX_HEIGHT, (float) maxHeight);
+		transcoder.addTranscodingHint(ImageTranscoder.KEY_BACKGROUND_COLOR, Color.WHITE);
+		transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_ALLOWED_SCRIPT_TYPES, "");
+		transcoder.addTranscodingHint(SVGAbstractTranscoder.KEY_EXECUTE_ONLOAD, Boolean.FALSE);
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 65536)) {
+			TranscoderInput input = new TranscoderInput(in);
+			input.setURI(file.toUri().toString());
+			transcoder.transcode(input, null);
+		} catch (TranscoderException e) {
+			Exception cause = e.getException() != null ? e.getException() : e;
+			throw new IOException("SVG file " + file + " cannot be rendered. " + cause.getMessage(), e);
+		} catch (RuntimeException e) {
+			throw new IOException("SVG file " + file + " cannot be rendered. " + e.getMessage(), e);
+		}
+		return transcoder.image;
+	}
+
+	/**
+	 * Check the size of an embedded image from its header.
+	 * @throws SecurityException if the image is too large or not a raster image
+	 */
+	private static void checkEmbeddedImage(ParsedURL url) {
+		try (InputStream in = url.openStream(); ImageInputStream header = ImageIO.createImageInputStream(in)) {
+			Iterator<ImageReader> readers = header != null ? ImageIO.getImageReaders(header) : null;
+			if(readers == null || !readers.hasNext()) {
+				throw new SecurityException("Embedded image of an unknown format is not loaded.");
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(header, true, true);
+				long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+				if(pixels > MAX_IMAGE_PIXELS) {
+					throw new SecurityException("Embedded image of " + pixels + " pixels is too large to be loaded.");
+				}
+			} finally {
+				reader.dispose();
+			}
+		} catch (IOException e) {
+			throw new SecurityException("Embedded image cannot be read. " + e.getMessage());
+		}
+	}
+
+	private static boolean isEmbeddedImage(String href) {
+		if(!href.startsWith("data:")) {
+			return false;
+		}
+		try {
+			checkEmbeddedImage(new ParsedURL(href));
+			return true;
+		} catch (SecurityException e) {
+			logger.debug(e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Transcoder keeping the rendered image, with a user agent loading embedded images only.
+	 */
+	private static class PreviewTranscoder extends ImageTranscoder {
+
+		private BufferedImage image;
+
+		PreviewTranscoder() {
+			setErrorHandler(new ErrorHandler() {
+				@Override
+				public void error(TranscoderException e) throws TranscoderException {
+					logger.debug("SVG error, rendering goes on. " + e.getMessage());
+				}
+
+				@Override
+				public void fatalError(TranscoderException e) throws TranscoderException {
+					throw e;
+				}
+
+				@Override
+				public void warning(TranscoderException e) throws TranscoderException {
+					logger.debug("SVG warning. " + e.getMessage());
+				}
+			});
+		}
+
+		@Override
+		protected UserAgent createUserAgent() {
+			return new SVGAbstractTranscoderUserAgent() {
+				@Override
+				public ExternalResourceSecurity getExternalResourceSecurity(ParsedURL resourceURL, ParsedURL docURL) {
+					if(resourceURL != null && "data".equals(resourceURL.getProtocol())) {
+						return () -> checkEmbeddedImage(resourceURL);
+					}
+					return new NoLoadExternalResourceSecurity();
+				}
+
+				@Override
+				public void displayError(Exception e) {
+					displayError(e.getMessage());
+				}
+			};
+		}
+
+		/**
+		 * Leave out the images that may not be loaded, instead of failing on them.
+		 */
+		@Override
+		protected void transcode(Document document, String uri, TranscoderOutput output) throws TranscoderException {
+			NodeList images = document.getElementsByTagNameNS(SVGConstants.SVG_NAMESPACE_URI, SVGConstants.SVG_IMAGE_TAG);
+			for(int i = images.getLength() - 1; i >= 0; i--) {
+				Element image = (Element) images.item(i);
+				if(!isEmbeddedImage(image.getAttributeNS(SVGConstants.XLINK_NAMESPACE_URI, SVGConstants.XLINK_HREF_ATTRIBUTE))) {
+					image.getParentNode().removeChild(image);
+				}
+			}
+			super.transcode(document, uri, output);
+		}
+
+		@Override
+		public BufferedImage createImage(int width, int height) {
+			return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		}
+
+		@Override
+		public void writeImage(BufferedImage image, TranscoderOutput output) {
+			this.image = image;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package com.example.spark.slidealbums;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Searchable text of an SVG file: the content of the text elements, and the title elements and id attributes
+ * labelling the shapes. Read with a streaming StAX parser, without building a DOM or resolving DTDs and external entities.
+ * @author Elitza Haltakova
+ *
+ */
+class SvgText {
+
+	final static Logger logger = Logger.getLogger(SvgText.class);
+	private static final XMLInputFactory factory = createFactory();
+
+	private final String text;
+	private final String labels;
+
+	private SvgText(String text, String labels) {
+		this.text = text;
+		this.labels = labels;
+	}
+
+	/**
+	 * Read the text of an SVG file. The text read before a well-formedness error is kept.
+	 * @param maxChars characters read at most, the rest of the file is skipped
+	 */
+	static SvgText read(Path file, int maxChars) throws IOException {
+		StringBuilder text = new StringBuilder();
+		StringBuilder labels = new StringBuilder();
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 65536)) {
+			XMLStreamReader reader = factory.createXMLStreamReader(in);
+			try {
+				int textDepth = 0;
+				int titleDepth = 0;
+				while(reader.hasNext() && text.length() + labels.length() < maxChars) {
+					switch(reader.next()) {
+						case XMLStreamConstants.START_ELEMENT:
+							if("text".equals(reader.getLocalName())) {
+								textDepth++;
+							} else if("title".equals(reader.getLocalName())) {
+								titleDepth++;
+							}
+							String id = reader.getAttributeValue(null, "id");
+							if(id != null) {
+								labels.append(id).append(' ');
+							}
+							break;
+						case XMLStreamConstants.END_ELEMENT:
+							if("text".equals(reader.getLocalName())) {
+								textDepth--;
+							} else if("title".equals(reader.getLocalName())) {
+								titleDepth--;
+							}
+							break;
+						case XMLStreamConstants.CHARACTERS:
+						case XMLStreamConstants.CDATA:
+							if(titleDepth > 0) {
+								labels.append(reader.getText()).append(' ');
+							} else if(textDepth > 0) {
+								text.append(reader.getText()).append(' ');
+							}
+							break;
+						default:
+							break;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			logger.debug("SVG file " + file + " is not well-formed, only its text before the error is searchable. " + e.getMessage());
+		}
+		return new SvgText(truncate(text, maxChars), truncate(labels, Math.max(0, maxChars - text.length())));
+	}
+
+	/**
+	 * Content of the text elements (text, tspan, textPath).
+	 */
+	String getText() {
+		return text;
+	}
+
+	/**
+	 * Title elements and id attributes.
+	 */
+	String getLabels() {
+		return labels;
+	}
+
+	private static String truncate(StringBuilder value, int maxChars) {
+		return value.length() > maxChars ? value.substring(0, maxChars) : value.toString();
+	}
+
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		// text split by the parser buffer is reported in one event
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory;
+	}
+}
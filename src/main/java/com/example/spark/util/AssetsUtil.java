@@ -0,0 +1,181 @@
+package com.example.spark.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.log4j.Logger;
+
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+/**
+ * Static asset pipeline. On startup every file of the static files location is fingerprinted
+ * (content hash in the file name) and precompressed with gzip, then served from memory with
+ * one year immutable caching. Templates reference the assets through {@link #url(String)}.
+ * Files referenced relatively from the assets (fonts, images in CSS) are still served by the static files handler.
+ * @author Elitza Haltakova
+ *
+ */
+public class AssetsUtil {
+
+	final static Logger logger = Logger.getLogger(AssetsUtil.class);
+
+	private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+	private static final int HASH_LENGTH = 12;
+
+	private static final Map<String, Asset> assetsByPath = new ConcurrentHashMap<String, Asset>();
+	private static final Map<String, Asset> assetsByUrl = new ConcurrentHashMap<String, Asset>();
+
+	/**
+	 * Fingerprint and precompress the files of a static files location on the classpath.
+	 * @param location the static files location, e.g. "/public"
+	 * @return the URL paths the fingerprinted assets are served at
+	 */
+	public static List<String> load(String location) {
+		URL root = AssetsUtil.class.getResource(location);
+		if(root == null) {
+			logger.warn("Static files location " + location + " not found, assets are not fingerprinted.");
+			return Collections.emptyList();
+		}
+		try {
+			URI uri = root.toURI();
+			if("jar".equals(uri.getScheme())) {
+				try (FileSystem jar = FileSystems.newFileSystem(uri, Collections.<String, Object>emptyMap())) {
+					return load(jar.getPath(location));
+				} catch (FileSystemAlreadyExistsException e) {
+					return load(Paths.get(uri));
+				}
+			}
+			return load(Paths.get(uri));
+		} catch (IOException | URISyntaxException e) {
+			logger.error("Static files cannot be fingerprinted. " + e.getMessage(), e);
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Fingerprinted URL of an asset.
+	 * @param path path of the asset relative to the static files location, as used in the templates
+	 * @return the fingerprinted path or the given path if the asset is not fingerprinted
+	 */
+	public static String url(String path) {
+		boolean absolute = path.startsWith("/");
+		Asset asset = assetsByPath.get(absolute ? path.substring(1) : path);
+		if(asset == null) {
+			return path;
+		}
+		return absolute ? asset.url : asset.url.substring(1);
+	}
+
+	/**
+	 * Serve a fingerprinted asset, gzip encoded if the client accepts it.
+	 */
+	public static Route serveAsset = (Request request, Response response) -> {
+		Asset asset = assetsByUrl.get(request.pathInfo());
+		if(asset == null) {
+			response.status(404);
+			return "";
+		}
+		response.type(asset.contentType);
+		response.header("Cache-Control", CACHE_CONTROL);
+		response.header("ETag", asset.etag);
+		response.header("Vary", "Accept-Encoding");
+		String ifNoneMatch = request.headers("If-None-Match");
+		if(ifNoneMatch != null && ifNoneMatch.contains(asset.etag)) {
+			response.status(304);
+			return "";
+		}
+		byte[] content = asset.content;
+		if(asset.gzipped != null && CompressionUtil.quality(request.headers("Accept-Encoding"), CompressionUtil.GZIP) > 0) {
+			response.header("Content-Encoding", "gzip");
+			content = asset.gzipped;
+		}
+		response.raw().setContentLength(content.length);
+		response.raw().getOutputStream().write(content);
+		return "";
+	};
+
+	private static List<String> load(Path root) throws IOException {
+		List<String> urls = new ArrayList<String>();
+		try (Stream<Path> files = Files.walk(root)) {
+			for(Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+				String path = root.relativize(file).toString().replace('\\', '/');
+				Asset asset = new Asset(path, Files.readAllBytes(file));
+				assetsByPath.put(path, asset);
+				assetsByUrl.put(asset.url, asset);
+				urls.add(asset.url);
+			}
+		}
+		logger.info("Fingerprinted " + urls.size() + " static assets.");
+		return urls;
+	}
+
+	private static String hash(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+			StringBuilder hex = new StringBuilder();
+			for(int i = 0; hex.length() < HASH_LENGTH; i++) {
+				hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Gzip the content with the best compression.
+	 * @return the compressed content or null if compressing does not pay off (e.g. images, woff fonts)
+	 */
+	private static byte[] gzip(byte[] content) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 2 + 64);
+		try (GZIPOutputStream out = new GZIPOutputStream(compressed) {
+			{
+				def.setLevel(Deflater.BEST_COMPRESSION);
+			}
+		}) {
+			out.write(content);
+		}
+		return compressed.size() < content.length * 0.9 ? compressed.toByteArray() : null;
+	}
+
+	private static class Asset {
+
+		final String url;
+		final String contentType;
+		final String etag;
+		final byte[] content;
+		final byte[] gzipped;
+
+		Asset(String path, byte[] content) throws IOException {
+			String hash = hash(content);
+			String ext = FilenameUtils.getExtension(path);
+			this.url = "/" + (ext.isEmpty() ? path + "." + hash : path.substring(0, path.length() - ext.length()) + hash + "." + ext);
+			this.contentType = FileResponseUtil.contentType(ext);
+			this.etag = "\"" + hash + "\"";
+			this.content = content;
+			this.gzipped = gzip(content);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.example.spark.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker protecting calls to a remote service.
+ * Opens after a number of consecutive failures, rejects calls while open and
+ * lets a single trial call through once the open period is over.
+ * @author Elitza Haltakova
+ *
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED,
+		OPEN,
+		HALF_OPEN;
+	}
+
+	private final int failureThreshold;
+	private final long openDurationMillis;
+	private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+	private final AtomicInteger consecutiveFailures = new AtomicInteger();
+	private final AtomicLong openedAt = new AtomicLong();
+
+	public CircuitBreaker(int failureThreshold, long openDuration, TimeUnit unit) {
+		this.failureThreshold = failureThreshold;
+		this.openDurationMillis = unit.toMillis(openDuration);
+	}
+
+	/**
+	 * Check if a call may be made now. In half open state only the first caller gets through.
+	 */
+	public boolean allowRequest() {
+		State current = state.get();
+		if(current == State.CLOSED) {
+			return true;
+		}
+		if(current == State.OPEN && System.currentTimeMillis() - openedAt.get() >= openDurationMillis) {
+			return state.compareAndSet(State.OPEN, State.HALF_OPEN);
+		}
+		return false;
+	}
+
+	public void recordSuccess() {
+		consecutiveFailures.set(0);
+		state.set(State.CLOSED);
+	}
+
+	public void recordFailure() {
+		if(state.get() == State.HALF_OPEN || consecutiveFailures.incrementAndGet() >= failureThreshold) {
+			openedAt.set(System.currentTimeMillis());
+			state.set(State.OPEN);
+		}
+	}
+
+	public State getState() {
+		return state.get();
+	}
+}
@@ -0,0 +1,304 @@
+package com.example.spark.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.servlet.http.HttpServletResponse;
+
+import spark.Request;
+import spark.Response;
+
+/**
+ * Utility class compressing responses with gzip or deflate, as negotiated with the client.
+ * Deflaters are pooled, as each one holds native memory that is only released when it is ended.
+ * @author Elitza Haltakova
+ *
+ */
+public class CompressionUtil {
+
+	public static final String GZIP = "gzip";
+	public static final String DEFLATE = "deflate";
+
+	private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+	private static final BlockingQueue<Deflater> gzipDeflaters = new ArrayBlockingQueue<Deflater>(ConfigUtil.COMPRESSION_DEFLATER_POOL_SIZE);
+	private static final BlockingQueue<Deflater> zlibDeflaters = new ArrayBlockingQueue<Deflater>(ConfigUtil.COMPRESSION_DEFLATER_POOL_SIZE);
+
+	private static final LongAdder compressedResponses = new LongAdder();
+	private static final LongAdder bytesIn = new LongAdder();
+	private static final LongAdder bytesOut = new LongAdder();
+
+	/**
+	 * Response output stream compressing the content if the client accepts it and it is at least
+	 * {@link ConfigUtil#COMPRESSION_MIN_SIZE} bytes. Smaller content is sent as is.
+	 * Must be closed to complete the response.
+	 */
+	public static OutputStream outputStream(Request request, Response response) throws IOException {
+		response.header("Vary", "Accept-Encoding");
+		String encoding = negotiate(request.headers("Accept-Encoding"));
+		if(encoding == null) {
+			return response.raw().getOutputStream();
+		}
+		return new CompressingOutputStream(response.raw(), encoding, ConfigUtil.COMPRESSION_MIN_SIZE);
+	}
+
+	/**
+	 * Write a response body through {@link #outputStream} and complete the response.
+	 * If writing fails once the response is committed, the response is aborted instead of completed,
+	 * so the client does not take the truncated content for a whole response.
+	 */
+	public static void send(Request request, Response response, Body body) throws IOException {
+		OutputStream out = outputStream(request, response);
+		try {
+			body.writeTo(out);
+		} catch (IOException | RuntimeException e) {
+			if(out instanceof CompressingOutputStream) {
+				((CompressingOutputStream) out).abort();
+			}
+			org.eclipse.jetty.server.Request baseRequest = org.eclipse.jetty.server.Request.getBaseRequest(request.raw());
+			if(response.raw().isCommitted() && baseRequest != null) {
+				baseRequest.getHttpChannel().abort(e);
+			}
+			throw e;
+		}
+		out.close();
+	}
+
+	/**
+	 * Pick the content coding for an Accept-Encoding header value.
+	 * @return gzip, deflate or null if neither is accepted
+	 */
+	public static String negotiate(String acceptEncoding) {
+		double gzip = quality(acceptEncoding, GZIP);
+		double deflate = quality(acceptEncoding, DEFLATE);
+		if(gzip <= 0 && deflate <= 0) {
+			return null;
+		}
+		return gzip >= deflate ? GZIP : DEFLATE;
+	}
+
+	/**
+	 * Quality value of a content coding in an Accept-Encoding header value, listed explicitly or by "*".
+	 * @return the quality, 0 if the coding is not accepted
+	 */
+	public static double quality(String acceptEncoding, String coding) {
+		if(acceptEncoding == null) {
+			return 0;
+		}
+		double wildcard = 0;
+		for(String element : acceptEncoding.split(",")) {
+			String[] parts = element.split(";");
+			String name = parts[0].trim().toLowerCase();
+			if(!name.equals(coding) && !name.equals("*")) {
+				continue;
+			}
+			double quality = 1;
+			for(int i = 1; i < parts.length; i++) {
+				String param = parts[i].trim();
+				if(param.startsWith("q=")) {
+					try {
+						quality = Double.parseDouble(param.substring(2).trim());
+					} catch (NumberFormatException e) {
+						quality = 0;
+					}
+				}
+			}
+			if(name.equals(coding)) {
+				return quality;
+			}
+			wildcard = quality;
+		}
+		return wildcard;
+	}
+
+	/**
+	 * Number of responses sent compressed.
+	 */
+	public static long getCompressedResponses() {
+		return compressedResponses.sum();
+	}
+
+	/**
+	 * Bytes of content compressed, before compression.
+	 */
+	public static long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	/**
+	 * Bytes of compressed content sent.
+	 */
+	public static long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	/**
+	 * Response body streamed by {@link CompressionUtil#send}.
+	 */
+	@FunctionalInterface
+	public interface Body {
+		void writeTo(OutputStream out) throws IOException;
+	}
+
+	private static Deflater borrowDeflater(boolean gzip) {
+		Deflater deflater = (gzip ? gzipDeflaters : zlibDeflaters).poll();
+		return deflater != null ? deflater : new Deflater(ConfigUtil.COMPRESSION_LEVEL, gzip);
+	}
+
+	private static void releaseDeflater(Deflater deflater, boolean gzip) {
+		deflater.reset();
+		if(!(gzip ? gzipDeflaters : zlibDeflaters).offer(deflater)) {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Holds the content back until it reaches the minimum size, then sets the Content-Encoding header
+	 * and compresses everything written from there on straight to the response.
+	 */
+	private static class CompressingOutputStream extends OutputStream {
+
+		private final HttpServletResponse response;
+		private final String encoding;
+		private final boolean gzip;
+		private final byte[] pending;
+		private final byte[] buffer = new byte[8192];
+		private final CRC32 crc = new CRC32();
+		private int pendingSize;
+		private OutputStream out;
+		private Deflater deflater;
+		private long written;
+		private boolean closed;
+
+		CompressingOutputStream(HttpServletResponse response, String encoding, int minSize) {
+			this.response = response;
+			this.encoding = encoding;
+			this.gzip = encoding.equals(GZIP);
+			this.pending = new byte[minSize];
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if(closed) {
+				throw new IOException("Stream closed.");
+			}
+			if(deflater == null) {
+				if(pendingSize + len <= pending.length) {
+					System.arraycopy(b, off, pending, pendingSize, len);
+					pendingSize += len;
+					return;
+				}
+				start();
+			}
+			deflate(b, off, len);
+		}
+
+		/**
+		 * Compressed content written so far is flushed to the client. Content below the minimum size is held back.
+		 */
+		@Override
+		public void flush() throws IOException {
+			if(deflater != null && !closed) {
+				int count;
+				do {
+					count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					writeOut(count);
+				} while(count == buffer.length);
+				out.flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			if(deflater == null) {
+				response.setContentLength(pendingSize);
+				OutputStream raw = response.getOutputStream();
+				raw.write(pending, 0, pendingSize);
+				raw.close();
+				return;
+			}
+			try {
+				deflater.finish();
+				while(!deflater.finished()) {
+					writeOut(deflater.deflate(buffer, 0, buffer.length));
+				}
+				if(gzip) {
+					writeIntLE((int) crc.getValue());
+					writeIntLE((int) deflater.getBytesRead());
+				}
+				bytesIn.add(deflater.getBytesRead());
+				bytesOut.add(written);
+				compressedResponses.increment();
+				out.close();
+			} finally {
+				releaseDeflater(deflater, gzip);
+				deflater = null;
+			}
+		}
+
+		/**
+		 * Give up the response without completing the compressed stream.
+		 */
+		void abort() {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			if(deflater != null) {
+				releaseDeflater(deflater, gzip);
+				deflater = null;
+			}
+		}
+
+		private void start() throws IOException {
+			response.setHeader("Content-Encoding", encoding);
+			response.setHeader("Content-Length", null);
+			out = response.getOutputStream();
+			deflater = borrowDeflater(gzip);
+			if(gzip) {
+				out.write(GZIP_HEADER);
+				written += GZIP_HEADER.length;
+			}
+			deflate(pending, 0, pendingSize);
+		}
+
+		private void deflate(byte[] b, int off, int len) throws IOException {
+			if(gzip) {
+				crc.update(b, off, len);
+			}
+			deflater.setInput(b, off, len);
+			while(!deflater.needsInput()) {
+				writeOut(deflater.deflate(buffer, 0, buffer.length));
+			}
+		}
+
+		private void writeOut(int count) throws IOException {
+			if(count > 0) {
+				out.write(buffer, 0, count);
+				written += count;
+			}
+		}
+
+		private void writeIntLE(int value) throws IOException {
+			out.write(value & 0xff);
+			out.write((value >> 8) & 0xff);
+			out.write((value >> 16) & 0xff);
+			out.write((value >> 24) & 0xff);
+			written += 4;
+		}
+	}
+}
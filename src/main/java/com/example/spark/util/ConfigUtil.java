@@ -1,5 +1,8 @@
 package com.example.spark.util;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Application Configuration.
  * @author Elitza Haltakova
@@ -10,14 +13,125 @@ public class ConfigUtil {
 	public static final String HOST = "http://localhost";
 	public static final int PORT = 6789; //4567;
 	
-	public static final String WORKSPACES_DIR = "D:/xampp-7/htdocs/workspaces";
+	// can be pointed to another directory with -Dworkspaces.dir, e.g. a temporary one by the benchmarks
+	public static final String WORKSPACES_DIR = System.getProperty("workspaces.dir", "D:/xampp-7/htdocs/workspaces");
 	
 	public static final ApplicationMode appMode = ApplicationMode.DEV;
 	
 	public static final String UPLOAD_DIR = "upload";
+	public static final long UPLOAD_MAX_FILE_SIZE = 50 * 1024 * 1024;
+	public static final long UPLOAD_MAX_TOTAL_SIZE = 500 * 1024 * 1024;
+	public static final int UPLOAD_WRITER_THREADS = 8;
+	public static final int UPLOAD_WRITER_QUEUE_SIZE = 256;
+	
+	// page templates are read from the sources in DEV mode and re-parsed when modified
+	public static final String TEMPLATES_DEV_DIR = "src/main/resources";
+	public static final int TEMPLATES_MODIFICATION_CHECK_SECONDS = 2;
+	
+	// slide album locks
+	public static final int SLIDEALBUM_LOCK_STRIPES = 64;
+	public static final long SLIDEALBUM_LOCK_TIMEOUT_MS = 10000;
+	public static final long SLIDEALBUM_LOCK_LEASE_SECONDS = 30 * 60;
+	
+	// deleted slide albums trash (undo window and background purge)
+	public static final long TRASH_RETENTION_SECONDS = 10 * 60;
+	public static final long TRASH_PURGE_INTERVAL_SECONDS = 60;
+	public static final int TRASH_PURGE_MAX_FILES_PER_SECOND = 200;
+	
+	// full rescan of the workspaces directory backing up the slide albums catalog watcher
+	public static final long CATALOG_RECONCILE_INTERVAL_SECONDS = 300;
+	// threads reading customer and slide album directories in parallel (I/O bound, e.g. on network shares)
+	public static final int CATALOG_SCAN_PARALLELISM = Math.min(32, Runtime.getRuntime().availableProcessors() * 4);
+	// slide albums catalog snapshot and journal, loaded on start instead of scanning the whole workspaces directory
+	public static final String CATALOG_STATE_DIR = System.getProperty("catalog.state.dir", "catalog");
+	// slide album directories modified within this time before being read are read again by the reconcile (file system timestamp resolution)
+	public static final long CATALOG_MTIME_RESOLUTION_MS = 2000;
+	
+	// slide albums list pages
+	public static final int SLIDEALBUMS_PAGE_MAX_LIMIT = 500;
+	// slide albums checked at most when counting the ones matching the title filters of a page request
+	public static final int SLIDEALBUMS_FILTERED_COUNT_MAX_SCAN = 10000;
+	
+	// full-text search index of the slide albums, updated in the background from the catalog changes
+	public static final int SEARCH_INDEXER_THREADS = Math.min(8, Runtime.getRuntime().availableProcessors());
+	public static final int SEARCH_SVG_MAX_CHARS = 64 * 1024;
+	public static final int SEARCH_MAX_PREFIX_TERMS = 256;
+	
+	// PNG previews of the slide albums SVGs, rendered in the background on change and on request when missing
+	public static final String PREVIEW_CACHE_DIR = System.getProperty("preview.cache.dir", "previews");
+	public static final long PREVIEW_DISK_CACHE_BYTES = 256 * 1024 * 1024;
+	public static final long PREVIEW_MEMORY_CACHE_BYTES = 16 * 1024 * 1024;
+	public static final int PREVIEW_WIDTH = 320;
+	public static final int PREVIEW_HEIGHT = 180;
+	public static final int PREVIEW_RENDER_THREADS = 2;
+	public static final int PREVIEW_RENDER_QUEUE_SIZE = 1000;
+	public static final int PREVIEW_ON_DEMAND_RENDERS = 4;
+	public static final long PREVIEW_RENDER_WAIT_MS = 5000;
+	// larger SVG files are not rendered, bounding the render time and memory of huge SVGs
+	public static final long PREVIEW_MAX_SVG_BYTES = 8 * 1024 * 1024;
+	
+	// API response compression
+	public static final int COMPRESSION_MIN_SIZE = 1024;
+	public static final int COMPRESSION_LEVEL = 6;
+	public static final int COMPRESSION_DEFLATER_POOL_SIZE = 64;
+	
+	// session token validation cache
+	public static final int SESSION_TOKEN_CACHE_MAX_SIZE = 10000;
+	public static final long SESSION_TOKEN_CACHE_VALID_TTL_SECONDS = 60;
+	public static final long SESSION_TOKEN_CACHE_INVALID_TTL_SECONDS = 10;
+	
+	// pooled HTTP client used for the external Authentication API calls
+	public static final int HTTP_POOL_MAX_TOTAL = 100;
+	public static final int HTTP_POOL_MAX_PER_ROUTE = 50;
+	public static final int HTTP_POOL_VALIDATE_AFTER_INACTIVITY_MS = 2000;
+	public static final int HTTP_CONNECT_TIMEOUT_MS = 2000;
+	public static final int HTTP_SOCKET_TIMEOUT_MS = 5000;
+	public static final int HTTP_CONNECTION_REQUEST_TIMEOUT_MS = 1000;
+	public static final long HTTP_KEEP_ALIVE_SECONDS = 30;
+	
+	// user sessions surviving restarts: MAPPED_FILE for a single instance, SHARED_DIRECTORY for instances sharing the directory (-Dsession.store, -Dsession.store.dir)
+	public static final SessionStoreType SESSION_STORE = SessionStoreType.valueOf(System.getProperty("session.store", SessionStoreType.MAPPED_FILE.name()));
+	public static final String SESSION_STORE_DIR = System.getProperty("session.store.dir", "sessions");
+	public static final int SESSION_STORE_MAPPED_FILE_SIZE = 4 * 1024 * 1024;
+	public static final long SESSION_STORE_TTL_SECONDS = 12 * 60 * 60;
+	public static final long SESSION_STORE_SWEEP_INTERVAL_SECONDS = 10 * 60;
+	
+	// external Authentication API calls (base URL can be pointed to a stand-in server with -Dauth.api.url)
+	public static final String AUTH_API_URL = System.getProperty("auth.api.url", "http://localhost:1818/SALSSA2-API/api/auth");
+	public static final long AUTH_API_TIMEOUT_MS = 3000;
+	public static final int AUTH_EXECUTOR_THREADS = 16;
+	public static final int AUTH_EXECUTOR_QUEUE_SIZE = 200;
+	public static final int AUTH_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+	public static final long AUTH_CIRCUIT_BREAKER_OPEN_SECONDS = 10;
+	
+	// LOCAL verification of signed session tokens (-Dauth.token.verification) with the key set and revocation list pulled from the Authentication API,
+	// tokens are validated by the Authentication API again once the revocation list is older than AUTH_TOKEN_REVOCATIONS_MAX_AGE_SECONDS
+	public static final TokenVerification AUTH_TOKEN_VERIFICATION = TokenVerification.valueOf(System.getProperty("auth.token.verification", TokenVerification.REMOTE.name()));
+	public static final long AUTH_TOKEN_KEYS_REFRESH_SECONDS = 5 * 60;
+	public static final long AUTH_TOKEN_REVOCATIONS_REFRESH_SECONDS = 10;
+	public static final long AUTH_TOKEN_REVOCATIONS_MAX_AGE_SECONDS = 2 * 60;
+	public static final long AUTH_TOKEN_CLOCK_SKEW_SECONDS = 30;
+	
+	// logging (asynchronous in PROD mode), request and response bodies are logged at debug level for one in LOG_BODY_SAMPLE_EVERY calls of a route
+	public static final int LOG_ASYNC_BUFFER_SIZE = 8192;
+	public static final int LOG_BODY_SAMPLE_EVERY = appMode == ApplicationMode.DEV ? 1 : 100;
+	public static final int LOG_BODY_MAX_LENGTH = 2048;
+	
+	// hosts allowed to scrape the metrics endpoint
+	public static final List<String> METRICS_ALLOWED_HOSTS = Arrays.asList("127.0.0.1", "0:0:0:0:0:0:0:1", "::1");
 			
 	public enum ApplicationMode {
 		PROD,
 		DEV;
 	}
+	
+	public enum TokenVerification {
+		REMOTE,
+		LOCAL;
+	}
+	
+	public enum SessionStoreType {
+		MAPPED_FILE,
+		SHARED_DIRECTORY;
+	}
 }
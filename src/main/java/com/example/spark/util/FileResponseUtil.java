@@ -0,0 +1,198 @@
+package com.example.spark.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jetty.server.HttpOutput;
+
+import spark.Request;
+import spark.Response;
+
+/**
+ * Utility class streaming files to the client without loading them onto the heap.
+ * Supports conditional GET (ETag, Last-Modified) and single byte ranges.
+ * @author Elitza Haltakova
+ *
+ */
+public class FileResponseUtil {
+
+	private static final Map<String, String> contentTypes = new HashMap<String, String>();
+	static {
+		contentTypes.put("svg", "image/svg+xml");
+		contentTypes.put("xml", "application/xml");
+		contentTypes.put("json", "application/json");
+		contentTypes.put("js", "application/javascript");
+		contentTypes.put("txt", "text/plain");
+		contentTypes.put("html", "text/html");
+		contentTypes.put("css", "text/css");
+		contentTypes.put("map", "application/json");
+		contentTypes.put("png", "image/png");
+		contentTypes.put("jpg", "image/jpeg");
+		contentTypes.put("jpeg", "image/jpeg");
+		contentTypes.put("gif", "image/gif");
+		contentTypes.put("ico", "image/x-icon");
+		contentTypes.put("woff", "font/woff");
+		contentTypes.put("woff2", "font/woff2");
+		contentTypes.put("ttf", "font/ttf");
+		contentTypes.put("eot", "application/vnd.ms-fontobject");
+	}
+
+	public static String contentType(String ext) {
+		String contentType = contentTypes.get(ext.toLowerCase());
+		return contentType != null ? contentType : "application/octet-stream";
+	}
+
+	/**
+	 * Write a file (or the requested part of it) to the response.
+	 * Return value is meant to be returned by the calling route, the body is written directly to the raw response.
+	 */
+	public static String serve(Request request, Response response, File file, String contentType) throws IOException {
+		long length = file.length();
+		long lastModified = file.lastModified() / 1000 * 1000; // HTTP dates have second precision
+		String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+
+		response.header("ETag", etag);
+		response.raw().setDateHeader("Last-Modified", lastModified);
+		response.header("Accept-Ranges", "bytes");
+		response.header("Cache-Control", "private, no-cache");
+		if(isNotModified(request, etag, lastModified)) {
+			response.status(304);
+			return "";
+		}
+
+		long start = 0;
+		long end = length - 1;
+		String range = request.headers("Range");
+		if(range != null && isRangeApplicable(request, etag, lastModified)) {
+			long[] bounds = parseRange(range, length);
+			if(bounds == null) {
+				response.status(416);
+				response.header("Content-Range", "bytes */" + length);
+				return "";
+			}
+			if(bounds.length == 2) {
+				start = bounds[0];
+				end = bounds[1];
+				response.status(206);
+				response.header("Content-Range", "bytes " + start + "-" + end + "/" + length);
+			}
+		}
+		long count = end - start + 1;
+		response.type(contentType);
+		response.raw().setContentLengthLong(count);
+		if(count <= 0) {
+			return "";
+		}
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			OutputStream out = response.raw().getOutputStream();
+			if(out instanceof HttpOutput) {
+				// Jetty writes the mapped file region straight to the socket
+				((HttpOutput) out).sendContent(channel.map(FileChannel.MapMode.READ_ONLY, start, count));
+			} else {
+				WritableByteChannel target = Channels.newChannel(out);
+				long position = start;
+				while(position <= end) {
+					position += channel.transferTo(position, end - position + 1, target);
+				}
+				out.flush();
+			}
+		}
+		return "";
+	}
+
+	/**
+	 * Write generated content, e.g. a rendered image, to the response unless the client has it (If-None-Match).
+	 * @param etag strong validator of the content, without quotes
+	 */
+	public static String serve(Request request, Response response, byte[] content, String etag, String contentType, String cacheControl) throws IOException {
+		String quotedEtag = "\"" + etag + "\"";
+		response.header("ETag", quotedEtag);
+		response.header("Cache-Control", cacheControl);
+		String ifNoneMatch = request.headers("If-None-Match");
+		if(ifNoneMatch != null && (ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(quotedEtag))) {
+			response.status(304);
+			return "";
+		}
+		response.type(contentType);
+		response.raw().setContentLength(content.length);
+		OutputStream out = response.raw().getOutputStream();
+		out.write(content);
+		out.flush();
+		return "";
+	}
+
+	private static boolean isNotModified(Request request, String etag, long lastModified) {
+		String ifNoneMatch = request.headers("If-None-Match");
+		if(ifNoneMatch != null) {
+			return ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag);
+		}
+		long ifModifiedSince = dateHeader(request, "If-Modified-Since");
+		return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+	}
+
+	private static boolean isRangeApplicable(Request request, String etag, long lastModified) {
+		String ifRange = request.headers("If-Range");
+		if(ifRange == null) {
+			return true;
+		}
+		if(ifRange.trim().startsWith("\"")) {
+			return ifRange.trim().equals(etag);
+		}
+		return dateHeader(request, "If-Range") == lastModified;
+	}
+
+	/**
+	 * Parse a "bytes=" Range header value.
+	 * @return the inclusive [start, end] bounds, an empty array if the whole file should be sent
+	 * (malformed or multiple ranges) or null if the range cannot be satisfied
+	 */
+	private static long[] parseRange(String range, long length) {
+		if(!range.startsWith("bytes=") || range.contains(",")) {
+			return new long[0];
+		}
+		String spec = range.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if(dash < 0) {
+			return new long[0];
+		}
+		try {
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+			long start;
+			long end;
+			if(first.isEmpty()) { // suffix range: last n bytes
+				long suffix = Long.parseLong(last);
+				if(suffix <= 0) {
+					return null;
+				}
+				start = Math.max(0, length - suffix);
+				end = length - 1;
+			} else {
+				start = Long.parseLong(first);
+				end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+			}
+			if(start >= length || start > end) {
+				return null;
+			}
+			return new long[] {start, end};
+		} catch (NumberFormatException e) {
+			return new long[0];
+		}
+	}
+
+	private static long dateHeader(Request request, String name) {
+		try {
+			return request.raw().getDateHeader(name);
+		} catch (IllegalArgumentException e) {
+			return -1;
+		}
+	}
+}
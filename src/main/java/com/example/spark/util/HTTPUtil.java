@@ -2,90 +2,81 @@ package com.example.spark.util;
 
 import static org.junit.Assert.*;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
 
 /**
  * Utility class providing features for executing POST and GET requests.
+ * All requests share one pooled, keep-alive HTTP client.
  * @author Elitza Haltakova
  *
  */
 public class HTTPUtil {
 
-	public static HTTPResponse postRequest(String baseUrl, String path, String jsonStrBody) {
-		try {
-			String url = baseUrl + path;
-			HttpClient client =  HttpClientBuilder.create().build();
-			HttpPost post = new HttpPost(url);
-			post.setHeader("Content-Type", "application/x-www-form-urlencoded: charset=utf-8"); 
-			post.setHeader("charset", "utf-8");
-			StringEntity body = new StringEntity(jsonStrBody, Charset.forName("UTF-8"));
-			post.setEntity(body);
+	private static final PoolingHttpClientConnectionManager connectionManager = createConnectionManager();
+	private static final RequestConfig requestConfig = RequestConfig.custom()
+			.setConnectTimeout(ConfigUtil.HTTP_CONNECT_TIMEOUT_MS)
+			.setSocketTimeout(ConfigUtil.HTTP_SOCKET_TIMEOUT_MS)
+			.setConnectionRequestTimeout(ConfigUtil.HTTP_CONNECTION_REQUEST_TIMEOUT_MS)
+			.build();
+	private static final CloseableHttpClient client = createClient();
 
-			HttpResponse response = client.execute(post);
-			
-			BufferedReader rd = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-			StringBuffer result = new StringBuffer();
-			String line = "";
-			while ((line = rd.readLine()) != null) {
-				result.append(line);
-			}
-			String responseText = result.toString();
-			return new HTTPResponse(response.getStatusLine().getStatusCode(), responseText);
-		} catch (IOException e) {
-			e.printStackTrace();
-			fail("Sending request failed: " + e.getMessage());
-			return null;
-		}
+	public static HTTPResponse postRequest(String baseUrl, String path, String jsonStrBody) {
+		return execute(createPost(baseUrl, path, jsonStrBody));
+	}
+	
+	/**
+	 * Execute a POST request which has to complete within the given time.
+	 * Unlike the other request methods, failures are propagated to the caller.
+	 */
+	public static HTTPResponse postRequest(String baseUrl, String path, String jsonStrBody, long timeoutMillis) throws IOException {
+		int timeout = (int) Math.max(1, Math.min(Integer.MAX_VALUE, timeoutMillis));
+		HttpPost post = createPost(baseUrl, path, jsonStrBody);
+		post.setConfig(RequestConfig.copy(requestConfig)
+				.setConnectTimeout(Math.min(timeout, requestConfig.getConnectTimeout()))
+				.setSocketTimeout(Math.min(timeout, requestConfig.getSocketTimeout()))
+				.setConnectionRequestTimeout(Math.min(timeout, requestConfig.getConnectionRequestTimeout()))
+				.build());
+		return executeOrThrow(post);
 	}
 	
 	public static HTTPResponse getRequest(String url) {
-		try {
-			HttpClient client =  HttpClientBuilder.create().build();
-			HttpGet get = new HttpGet(url);
-			get.setHeader("Content-Type", "application/x-www-form-urlencoded"); 
-			get.setHeader("charset", "utf-8");
-
-			HttpResponse response = client.execute(get);
-			
-			BufferedReader rd = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-			StringBuffer result = new StringBuffer();
-			String line = "";
-			while ((line = rd.readLine()) != null) {
-				result.append(line);
-			}
-			String responseText = result.toString();
-			return new HTTPResponse(response.getStatusLine().getStatusCode(), responseText);
-		} catch (IOException e) {
-			e.printStackTrace();
-			fail("Sending request failed: " + e.getMessage());
-			return null;
-		}
+		HttpGet get = new HttpGet(url);
+		get.setHeader("Content-Type", "application/x-www-form-urlencoded"); 
+		get.setHeader("charset", "utf-8");
+		return execute(get);
 	}
 	
 	public static HTTPResponse postMultiPartRequest(String url, HashMap<String, Object> multipartData) {
 		try {
-			HttpClient httpclient = HttpClientBuilder.create().build();
 			HttpPost httpPost = new HttpPost(url);
 			
 			MultipartEntity reqEntity = new MultipartEntity();
@@ -98,26 +89,86 @@ public class HTTPUtil {
 				}
 			}
 			httpPost.setEntity(reqEntity);
-			
-			HttpResponse resp = httpclient.execute(httpPost);
-				
-			BufferedReader rd = new BufferedReader(new InputStreamReader(resp.getEntity().getContent()));
-			StringBuffer result = new StringBuffer();
-			String line = "";
-			while ((line = rd.readLine()) != null) {
-				result.append(line);
-			}
-			String responseText = result.toString();
-			return new HTTPResponse(resp.getStatusLine().getStatusCode(), responseText);
-		} catch (ClientProtocolException e) {
+			return execute(httpPost);
+		} catch (UnsupportedEncodingException e) {
 			fail("Sending request failed: " + e.getMessage());
 			return null;
+		}
+	}
+	
+	private static HttpPost createPost(String baseUrl, String path, String jsonStrBody) {
+		String url = baseUrl + path;
+		HttpPost post = new HttpPost(url);
+		post.setHeader("Content-Type", "application/x-www-form-urlencoded: charset=utf-8"); 
+		post.setHeader("charset", "utf-8");
+		StringEntity body = new StringEntity(jsonStrBody, Charset.forName("UTF-8"));
+		post.setEntity(body);
+		return post;
+	}
+	
+	private static HTTPResponse execute(HttpUriRequest request) {
+		try {
+			return executeOrThrow(request);
 		} catch (IOException e) {
+			e.printStackTrace();
 			fail("Sending request failed: " + e.getMessage());
 			return null;
 		}
 	}
 	
+	/**
+	 * Execute a request with the shared client and fully consume the response entity,
+	 * so the connection is released back to the pool.
+	 */
+	private static HTTPResponse executeOrThrow(HttpUriRequest request) throws IOException {
+		try (CloseableHttpResponse response = client.execute(request)) {
+			HttpEntity entity = response.getEntity();
+			String responseText = entity != null ? EntityUtils.toString(entity, StandardCharsets.UTF_8) : "";
+			return new HTTPResponse(response.getStatusLine().getStatusCode(), responseText);
+		}
+	}
+	
+	/**
+	 * Leased, pending and available connections of the shared client pool.
+	 */
+	public static PoolStats getPoolStats() {
+		return connectionManager.getTotalStats();
+	}
+	
+	/**
+	 * Close the shared client, its idle connections evictor and all pooled connections.
+	 */
+	public static void shutdown() {
+		try {
+			client.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private static PoolingHttpClientConnectionManager createConnectionManager() {
+		PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+		manager.setMaxTotal(ConfigUtil.HTTP_POOL_MAX_TOTAL);
+		manager.setDefaultMaxPerRoute(ConfigUtil.HTTP_POOL_MAX_PER_ROUTE);
+		manager.setValidateAfterInactivity(ConfigUtil.HTTP_POOL_VALIDATE_AFTER_INACTIVITY_MS);
+		return manager;
+	}
+	
+	private static CloseableHttpClient createClient() {
+		long maxKeepAlive = TimeUnit.SECONDS.toMillis(ConfigUtil.HTTP_KEEP_ALIVE_SECONDS);
+		ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+			long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+			return keepAlive > 0 ? Math.min(keepAlive, maxKeepAlive) : maxKeepAlive;
+		};
+		return HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy(keepAliveStrategy)
+				.evictExpiredConnections()
+				.evictIdleConnections(ConfigUtil.HTTP_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS)
+				.build();
+	}
+	
 	public static class HTTPResponse {
 		
 		public final String body;
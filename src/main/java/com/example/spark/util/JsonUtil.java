@@ -1,48 +1,91 @@
 package com.example.spark.util;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.List;
 
+import com.example.spark.auth.User;
+import com.example.spark.auth.UserContext;
+import com.example.spark.slidealbums.SlideAlbum;
+import com.example.spark.slidealbums.SlideAlbumFile;
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * JSON util class using GSON library to manipulate JSOO data.
+ * Uses a single shared Gson instance (thread-safe) with reflection free adapters for the model classes.
  * @author Elitza Haltakova
  *
  */
 public class JsonUtil {
-		
+
+	public static final Type MAP_TYPE = new TypeToken<HashMap<String, Object>>(){}.getType();
+	public static final Type STRING_LIST_TYPE = new TypeToken<List<String>>(){}.getType();
+
+	private static final Gson gson = new GsonBuilder()
+			.registerTypeAdapter(SlideAlbum.class, new SlideAlbum.GsonAdapter())
+			.registerTypeAdapter(SlideAlbumFile.class, new SlideAlbumFile.GsonAdapter())
+			.registerTypeAdapter(User.class, new User.GsonAdapter())
+			.registerTypeAdapter(UserContext.class, new UserContext.GsonAdapter())
+			.create();
+
+	public static Gson getGson() {
+		return gson;
+	}
+
 	public static HashMap<String, Object> fromJson(String json) {
-		Type collectionType = new TypeToken<HashMap<String, Object>>(){}.getType();
-		HashMap<String, Object> data = new Gson().fromJson(json, collectionType);
+		HashMap<String, Object> data = gson.fromJson(json, MAP_TYPE);
 		if(data == null)
 			data = new HashMap<String, Object>();
 		return data;
 	}
-	
+
 	public static <T> T fromJsonToClass(String json, Class<T> objClass) {
-		T data = new Gson().fromJson(json, objClass);
+		T data = gson.fromJson(json, objClass);
 		return data;
 	}
-	
+
 	public static <T> T fromJsonElementToClass(JsonElement json, Class<T> objClass) {
-		T data = new Gson().fromJson(json, objClass);
+		T data = gson.fromJson(json, objClass);
 		return data;
 	}
-	
+
 	public static <T> T fromJsonToType(String json, Type objType) {
-		T data = new Gson().fromJson(json, objType);
+		T data = gson.fromJson(json, objType);
 		return data;
 	}
-	
+
 	public static <T> T fromJsonElementToType(JsonElement json, Type objType) {
-		T data = new Gson().fromJson(json, objType);
+		T data = gson.fromJson(json, objType);
 		return data;
 	}
-	
+
 	public static String toJson(Object data) {
-		return new Gson().toJson(data);
+		return gson.toJson(data);
+	}
+
+	/**
+	 * Write the elements to the stream as a JSON array, one element at a time, 
+	 * so memory use does not depend on the number of elements. The stream is flushed, not closed.
+	 */
+	public static <T> void toJsonStream(Iterable<T> elements, Class<T> elementClass, OutputStream out) throws IOException {
+		TypeAdapter<T> adapter = gson.getAdapter(elementClass);
+		JsonWriter writer = gson.newJsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+		writer.setHtmlSafe(true); // same escaping as toJson
+		writer.beginArray();
+		for(T element : elements) {
+			adapter.write(writer, element);
+		}
+		writer.endArray();
+		writer.flush();
 	}
 }
@@ -0,0 +1,148 @@
+package com.example.spark.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.AsyncAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+
+/**
+ * Logging utility class.
+ * In PROD mode the appenders configured in log4j.properties are moved behind a bounded asynchronous appender,
+ * which drops events instead of blocking request threads when it is full, and the root level is raised to INFO.
+ * Debug messages are formatted only if debug is enabled, request and response bodies are sampled per route and truncated.
+ * @author Elitza Haltakova
+ *
+ */
+public class LogUtil {
+
+	private static final String ASYNC_APPENDER = "async";
+	private static final String OTHER_ROUTES = "";
+	private static final int MAX_SAMPLED_ROUTES = 1000;
+	private static final Map<String, AtomicLong> bodiesByRoute = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * Set up logging for the application mode. Call once on startup, before the first requests.
+	 */
+	public static synchronized void configure() {
+		if(ConfigUtil.appMode != ConfigUtil.ApplicationMode.PROD) {
+			return;
+		}
+		Logger root = Logger.getRootLogger();
+		if(root.getAppender(ASYNC_APPENDER) != null) {
+			return;
+		}
+		root.setLevel(Level.INFO);
+		AsyncAppender async = new AsyncAppender();
+		async.setName(ASYNC_APPENDER);
+		async.setBufferSize(ConfigUtil.LOG_ASYNC_BUFFER_SIZE);
+		async.setBlocking(false); // discarded events are summarized in one message
+		async.setLocationInfo(false);
+		for(Appender appender : appenders(root)) {
+			// line numbers are taken from a stack trace on every event and are not available asynchronously
+			if(appender.getLayout() instanceof PatternLayout) {
+				PatternLayout layout = (PatternLayout) appender.getLayout();
+				layout.setConversionPattern(layout.getConversionPattern().replace(":%L", ""));
+			}
+			root.removeAppender(appender);
+			async.addAppender(appender);
+		}
+		root.addAppender(async);
+	}
+
+	/**
+	 * Flush the asynchronous appender and close the log files.
+	 */
+	public static void shutdown() {
+		LogManager.shutdown();
+	}
+
+	/**
+	 * Log a debug message, replacing the {} placeholder with the argument only if debug is enabled.
+	 */
+	public static void debug(Logger logger, String message, Object arg) {
+		if(logger.isDebugEnabled()) {
+			logger.debug(format(message, arg, null));
+		}
+	}
+
+	/**
+	 * Log a debug message, replacing the two {} placeholders with the arguments only if debug is enabled.
+	 */
+	public static void debug(Logger logger, String message, Object arg1, Object arg2) {
+		if(logger.isDebugEnabled()) {
+			logger.debug(format(message, arg1, arg2));
+		}
+	}
+
+	/**
+	 * Check if the body of a request or response of a route is to be logged: debug is enabled and
+	 * the route is sampled, one in {@link ConfigUtil#LOG_BODY_SAMPLE_EVERY} calls of each route.
+	 */
+	public static boolean isBodySampled(Logger logger, String route) {
+		if(!logger.isDebugEnabled()) {
+			return false;
+		}
+		if(ConfigUtil.LOG_BODY_SAMPLE_EVERY <= 1) {
+			return true;
+		}
+		AtomicLong calls = bodiesByRoute.get(route);
+		if(calls == null) {
+			// paths with parameters are counted together once there are too many of them
+			calls = bodiesByRoute.computeIfAbsent(bodiesByRoute.size() < MAX_SAMPLED_ROUTES ? route : OTHER_ROUTES, r -> new AtomicLong());
+		}
+		return calls.getAndIncrement() % ConfigUtil.LOG_BODY_SAMPLE_EVERY == 0;
+	}
+
+	/**
+	 * Log a request or response body of a route at debug level, if it is sampled, truncated to {@link ConfigUtil#LOG_BODY_MAX_LENGTH}.
+	 */
+	public static void debugBody(Logger logger, String route, String body) {
+		if(isBodySampled(logger, route)) {
+			logger.debug(truncate(body));
+		}
+	}
+
+	/**
+	 * Truncate a body to {@link ConfigUtil#LOG_BODY_MAX_LENGTH} characters for logging.
+	 */
+	public static String truncate(String body) {
+		if(body == null || body.length() <= ConfigUtil.LOG_BODY_MAX_LENGTH) {
+			return body;
+		}
+		return body.substring(0, ConfigUtil.LOG_BODY_MAX_LENGTH) + "... (" + body.length() + " characters)";
+	}
+
+	private static String format(String message, Object arg1, Object arg2) {
+		StringBuilder formatted = new StringBuilder(message.length() + 32);
+		int from = 0;
+		int placeholder = message.indexOf("{}");
+		if(placeholder >= 0) {
+			formatted.append(message, from, placeholder).append(arg1);
+			from = placeholder + 2;
+			placeholder = message.indexOf("{}", from);
+			if(placeholder >= 0) {
+				formatted.append(message, from, placeholder).append(arg2);
+				from = placeholder + 2;
+			}
+		}
+		return formatted.append(message, from, message.length()).toString();
+	}
+
+	private static List<Appender> appenders(Logger logger) {
+		List<Appender> appenders = new ArrayList<Appender>();
+		for(Object appender : Collections.list((Enumeration<?>) logger.getAllAppenders())) {
+			appenders.add((Appender) appender);
+		}
+		return appenders;
+	}
+}
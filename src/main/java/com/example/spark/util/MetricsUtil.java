@@ -0,0 +1,256 @@
+package com.example.spark.util;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+import spark.Filter;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+/**
+ * Utility class collecting timings and counters of the hot paths and exposing them in the Prometheus text format.
+ * Histograms have fixed buckets of LongAdders and their label children are resolved once, so recording a timing
+ * only increments two adders and does not allocate.
+ * @author Elitza Haltakova
+ *
+ */
+public class MetricsUtil {
+
+	private static final double[] BUCKETS_SECONDS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+	private static final long[] BUCKETS_NANOS = new long[BUCKETS_SECONDS.length];
+	private static final String[] BUCKET_LABELS = new String[BUCKETS_SECONDS.length + 1];
+	static {
+		for(int i = 0; i < BUCKETS_SECONDS.length; i++) {
+			BUCKETS_NANOS[i] = (long) (BUCKETS_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+			BUCKET_LABELS[i] = BigDecimal.valueOf(BUCKETS_SECONDS[i]).toPlainString();
+		}
+		BUCKET_LABELS[BUCKETS_SECONDS.length] = "+Inf";
+	}
+
+	private static final List<Metric> metrics = new CopyOnWriteArrayList<Metric>();
+
+	// shared timings of the hot paths, other timings are registered where they are recorded
+	public static final Histogram routes = histogram("slidealbums_route_duration_seconds", "Time spent in the route handlers.", "route");
+	public static final Histogram filters = histogram("slidealbums_filter_duration_seconds", "Time spent in the request filters.", "filter");
+
+	/**
+	 * Register a histogram of durations.
+	 * @param labelNames names of the labels, the children for their values are created with {@link Histogram#labels(String...)}
+	 */
+	public static Histogram histogram(String name, String help, String... labelNames) {
+		Histogram histogram = new Histogram(name, help, labelNames);
+		metrics.add(histogram);
+		return histogram;
+	}
+
+	/**
+	 * Register a counter read from an existing statistic when the metrics are scraped.
+	 */
+	public static void counter(String name, String help, DoubleSupplier value) {
+		metrics.add(new Sampled(name, help, "counter", value));
+	}
+
+	/**
+	 * Register a gauge read when the metrics are scraped.
+	 */
+	public static void gauge(String name, String help, DoubleSupplier value) {
+		metrics.add(new Sampled(name, help, "gauge", value));
+	}
+
+	/**
+	 * Route recording its duration, including the time of writing streamed responses.
+	 */
+	public static Route timed(Histogram.Child timer, Route route) {
+		return (Request request, Response response) -> {
+			long start = System.nanoTime();
+			try {
+				return route.handle(request, response);
+			} finally {
+				timer.record(System.nanoTime() - start);
+			}
+		};
+	}
+
+	/**
+	 * Filter recording its duration, also when it halts the request.
+	 */
+	public static Filter timedFilter(Histogram.Child timer, Filter filter) {
+		return (Request request, Response response) -> {
+			long start = System.nanoTime();
+			try {
+				filter.handle(request, response);
+			} finally {
+				timer.record(System.nanoTime() - start);
+			}
+		};
+	}
+
+	/**
+	 * All metrics in the Prometheus text exposition format (version 0.0.4).
+	 */
+	public static String scrape() {
+		StringBuilder out = new StringBuilder(8192);
+		for(Metric metric : metrics) {
+			out.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+			out.append("# TYPE ").append(metric.name).append(' ').append(metric.type).append('\n');
+			metric.write(out);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Serve the metrics to the hosts allowed by {@link ConfigUtil#METRICS_ALLOWED_HOSTS}.
+	 */
+	public static Route serveMetrics = (Request request, Response response) -> {
+		if(!ConfigUtil.METRICS_ALLOWED_HOSTS.contains(request.ip())) {
+			response.status(403);
+			return "";
+		}
+		response.type("text/plain; version=0.0.4; charset=utf-8");
+		return scrape();
+	};
+
+	private static abstract class Metric {
+
+		final String name;
+		final String help;
+		final String type;
+
+		Metric(String name, String help, String type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+
+		abstract void write(StringBuilder out);
+	}
+
+	private static class Sampled extends Metric {
+
+		private final DoubleSupplier value;
+
+		Sampled(String name, String help, String type, DoubleSupplier value) {
+			super(name, help, type);
+			this.value = value;
+		}
+
+		@Override
+		void write(StringBuilder out) {
+			out.append(name).append(' ').append(value.getAsDouble()).append('\n');
+		}
+	}
+
+	/**
+	 * Histogram of durations with one child per combination of label values.
+	 */
+	public static class Histogram extends Metric {
+
+		private final String[] labelNames;
+		private final Map<String, Child> children = new ConcurrentHashMap<String, Child>();
+		private final List<Child> ordered = new CopyOnWriteArrayList<Child>();
+
+		Histogram(String name, String help, String[] labelNames) {
+			super(name, help, "histogram");
+			this.labelNames = labelNames;
+		}
+
+		/**
+		 * Child of a single label value. Looking up an existing child does not allocate, 
+		 * for labels only known at recording time (e.g. template paths).
+		 */
+		public Child labels(String labelValue) {
+			Child child = children.get(labelValue);
+			return child != null ? child : labels(new String[] {labelValue});
+		}
+
+		/**
+		 * Child of the label values, created on first use. Resolve children once and keep them where possible.
+		 */
+		public Child labels(String... labelValues) {
+			if(labelValues.length != labelNames.length) {
+				throw new IllegalArgumentException(name + " has " + labelNames.length + " labels, got " + labelValues.length + " values.");
+			}
+			String key = labelValues.length == 1 ? labelValues[0] : String.join("\u0000", labelValues);
+			Child child = children.get(key);
+			if(child == null) {
+				synchronized(this) {
+					child = children.get(key);
+					if(child == null) {
+						child = new Child(labelString(labelValues));
+						children.put(key, child);
+						ordered.add(child);
+					}
+				}
+			}
+			return child;
+		}
+
+		@Override
+		void write(StringBuilder out) {
+			for(Child child : ordered) {
+				child.write(name, out);
+			}
+		}
+
+		private String labelString(String[] labelValues) {
+			StringBuilder labels = new StringBuilder();
+			for(int i = 0; i < labelNames.length; i++) {
+				labels.append(labelNames[i]).append("=\"")
+					.append(labelValues[i].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append("\",");
+			}
+			return labels.toString();
+		}
+
+		/**
+		 * Recorder of one combination of label values.
+		 */
+		public static class Child {
+
+			private final String labels;
+			private final LongAdder[] buckets = new LongAdder[BUCKETS_NANOS.length + 1];
+			private final LongAdder sumNanos = new LongAdder();
+
+			Child(String labels) {
+				this.labels = labels;
+				for(int i = 0; i < buckets.length; i++) {
+					buckets[i] = new LongAdder();
+				}
+			}
+
+			public void record(long nanos) {
+				int bucket = 0;
+				while(bucket < BUCKETS_NANOS.length && nanos > BUCKETS_NANOS[bucket]) {
+					bucket++;
+				}
+				buckets[bucket].increment();
+				sumNanos.add(nanos);
+			}
+
+			/**
+			 * Record the time elapsed since a System.nanoTime() value.
+			 */
+			public void recordSince(long startNanos) {
+				record(System.nanoTime() - startNanos);
+			}
+
+			void write(String name, StringBuilder out) {
+				long cumulative = 0;
+				for(int i = 0; i < buckets.length; i++) {
+					cumulative += buckets[i].sum();
+					out.append(name).append("_bucket{").append(labels).append("le=\"")
+						.append(BUCKET_LABELS[i]).append("\"} ").append(cumulative).append('\n');
+				}
+				String labelSet = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+				out.append(name).append("_sum").append(labelSet).append(' ').append(sumNanos.sum() / 1e9).append('\n');
+				out.append(name).append("_count").append(labelSet).append(' ').append(cumulative).append('\n');
+			}
+		}
+	}
+}
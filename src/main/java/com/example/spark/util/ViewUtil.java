@@ -14,11 +14,26 @@ import spark.template.velocity.VelocityTemplateEngine;
 
 /**
  * Velocity Template Engine Util class.
+ * Uses a single, initialized Velocity engine. Templates are parsed once and cached. 
+ * In DEV mode they are read from the sources and parsed again when modified, so changes show up without a restart.
  * @author Elitza Haltakova
  *
  */
 public class ViewUtil {
 	
+	private static final VelocityEngine velocityEngine = createVelocityEngine();
+	private static final VelocityTemplateEngine velocityTemplateEngine = new VelocityTemplateEngine(velocityEngine);
+	private static final MetricsUtil.Histogram renderDurations = MetricsUtil.histogram("slidealbums_render_duration_seconds", 
+			"Duration of rendering the page templates.", "template");
+	
+	/**
+	 * Parse the page templates up front, so the first requests do not pay for it.
+	 */
+	public static void preloadTemplates() {
+		velocityEngine.getTemplate(Path.Template.INDEX);
+		velocityEngine.getTemplate(Path.Template.LOGIN);
+	}
+	
 	public static String render(Request request, Map<String, Object> model, String templatePath) {
 		if(model.get("msg") == null) { // user notification message
 			model.put("msg", "");
@@ -32,14 +47,30 @@ public class ViewUtil {
 		}
         model.put("contextPath", request.contextPath() != null ? request.contextPath() : "");
         model.put("WebPath", Path.class); // application URLs
-        return getVelocityTemplateEngine().render(new ModelAndView(model, templatePath));
+        model.put("assets", AssetsUtil.class); // fingerprinted static files URLs
+        long start = System.nanoTime();
+        try {
+        	return velocityTemplateEngine.render(new ModelAndView(model, templatePath));
+        } finally {
+        	renderDurations.labels(templatePath).recordSince(start);
+        }
     }
 	
-	private static VelocityTemplateEngine getVelocityTemplateEngine() {
+	private static VelocityEngine createVelocityEngine() {
         VelocityEngine configuredEngine = new VelocityEngine();
         configuredEngine.setProperty("runtime.references.strict", true);
-        configuredEngine.setProperty("resource.loader", "class");
+        boolean devMode = ConfigUtil.appMode == ConfigUtil.ApplicationMode.DEV;
+        // the classpath loader cannot detect modified templates, DEV mode reads them from the sources first
+        configuredEngine.setProperty("resource.loader", devMode ? "file, class" : "class");
+        configuredEngine.setProperty("file.resource.loader.class", "org.apache.velocity.runtime.resource.loader.FileResourceLoader");
+        configuredEngine.setProperty("file.resource.loader.path", ConfigUtil.TEMPLATES_DEV_DIR);
+        configuredEngine.setProperty("file.resource.loader.cache", "true");
+        configuredEngine.setProperty("file.resource.loader.modificationCheckInterval", String.valueOf(ConfigUtil.TEMPLATES_MODIFICATION_CHECK_SECONDS));
         configuredEngine.setProperty("class.resource.loader.class", "org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader");
-        return new VelocityTemplateEngine(configuredEngine);
+        configuredEngine.setProperty("class.resource.loader.cache", "true");
+        configuredEngine.setProperty("class.resource.loader.modificationCheckInterval", "0");
+        configuredEngine.setProperty("velocimacro.library.autoreload", String.valueOf(devMode));
+        configuredEngine.init();
+        return configuredEngine;
     }
 }
@@ -62,6 +62,54 @@ SlideAlbumsManager.prototype.getSlideAlbumsPromise = function() {
 };
 
 
+/**
+ * Call Get Slide Albums Page WS - one page of the slide albums, sorted and
+ * filtered on the server.
+ */
+SlideAlbumsManager.prototype.getSlideAlbumsPage = function(params, callback) {
+	var url = "http://localhost:6789/spark/api/slidealbums/page"; //"http://localhost:4567/salssa/spark/api/slidealbums/page";
+	var restApiUtil = this.restApiUtil;
+	$.ajax({
+		type : 'GET',
+		url : url,
+		async : true,
+		traditional : true, // repeated customers params
+		data : params,
+		success : function(resp) {
+			callback(restApiUtil.handleResponse(resp));
+		},
+		error : function(resp) {
+			restApiUtil.handleError(resp);
+		},
+		dataType : "json"
+	});
+};
+
+/**
+ * Check if the customer has a slide album with the title (case insensitive).
+ * The table holds one page only, so the server is asked synchronously.
+ */
+SlideAlbumsManager.prototype.hasSlideAlbum = function(title, customer) {
+	var url = "http://localhost:6789/spark/api/slidealbums/page"; //"http://localhost:4567/salssa/spark/api/slidealbums/page";
+	var found = false;
+	$.ajax({
+		type : 'GET',
+		url : url,
+		async : false,
+		traditional : true,
+		data : {'sort' : 'title', 'order' : 'asc', 'limit' : 500, 'prefix' : title, 'customers' : [ customer ]},
+		success : function(resp) {
+			for (var i = 0; i < resp['slideAlbums'].length; i++) {
+				if (resp['slideAlbums'][i]['title'].toLowerCase() == title.toLowerCase()) {
+					found = true;
+				}
+			}
+		},
+		dataType : "json"
+	});
+	return found;
+};
+
 /**
  * Call Create Slide Album WS.
  * 
@@ -153,10 +201,10 @@ SlideAlbumsList = function(slideAlbumsMgr) {
 };
 
 /**
- * Get Slide Album WS callback - display the slide albums being retrieved by the
- * REST API.
+ * Display the slide albums table. The table pages, sorts and filters on the
+ * server: each draw calls the Get Slide Albums Page WS.
  */
-SlideAlbumsList.prototype.displaySlideAlbums = function(resp) {
+SlideAlbumsList.prototype.displaySlideAlbums = function() {
 
 	this.slideAlbumsFilter.initialize(); // filter should be initialized before the table because of custom filter state saving for the table!
 
@@ -165,22 +213,53 @@ SlideAlbumsList.prototype.displaySlideAlbums = function(resp) {
 	// 2. table is initialized, state is retrieved: if there are customers saved
 	// in the state the filter is pre-selected with them;
 	// otherwise the user's customers are used
-	// 3. table is redrawn so the filter to be applied
+	// 3. table is redrawn so the filter is sent with the next page request
 
 	var self = this;
 
-	// populate slide albums table
-	var slideAlbums = resp;
-	var slideAlbumsObjects = [];
-	for (var i = 0; i < slideAlbums.length; i++) {
-		if (slideAlbums[i]['svg'] != null) {
-			var slideAlbumObj = buildRowData(slideAlbums[i]);
-			slideAlbumsObjects.push(slideAlbumObj);
-		}
-	}
+	// sort params of the sortable columns
+	var sortParams = {
+		0 : "title",
+		2 : "customer",
+		3 : "modificationDate"
+	};
 	var table = $('#slideAlbumsTable').DataTable({
-		aaSorting : [],
-		data : slideAlbumsObjects,
+		'serverSide' : true,
+		'processing' : true,
+		'ajax' : function(data, callback, settings) {
+			var selectedCustomers = $("#selectCustomer").val();
+			if (selectedCustomers == null || selectedCustomers.length == 0) { // no customer selected, nothing to show
+				callback({'draw' : data['draw'], 'recordsTotal' : 0, 'recordsFiltered' : 0, 'data' : []});
+				return;
+			}
+			var order = data['order'].length > 0 ? data['order'][0] : {'column' : 3, 'dir' : 'desc'};
+			var params = {
+				'sort' : sortParams[order['column']] || "modificationDate",
+				'order' : order['dir'],
+				'offset' : data['start'],
+				'limit' : data['length'] > 0 ? data['length'] : 500, // "All" is capped by the server
+				'filter' : data['search']['value'],
+				'customers' : selectedCustomers
+			};
+			self.slideAlbumsMgr.getSlideAlbumsPage(params, function(page) {
+				var slideAlbumsObjects = [];
+				for (var i = 0; i < page['slideAlbums'].length; i++) {
+					slideAlbumsObjects.push(buildRowData(page['slideAlbums'][i]));
+				}
+				$('#slideAlbumsCount').html("You have " + page['total'] + " slide albums in your workspace");
+				var filtered = page['filtered'];
+				if (page['filteredLowerBound']) {
+					// only "at least" known: keep the shown rows and the next page reachable
+					filtered = Math.max(filtered, data['start'] + slideAlbumsObjects.length + (page['nextCursor'] ? 1 : 0));
+				}
+				callback({
+					'draw' : data['draw'],
+					'recordsTotal' : page['total'],
+					'recordsFiltered' : filtered,
+					'data' : slideAlbumsObjects
+				});
+			});
+		},
 			'stateSave' : true,
 			'stateDuration' : config['preserve_home_page_filters_state'],
 			'aLengthMenu' : [ 5, 10, 20, 50 ],
@@ -188,7 +267,7 @@ SlideAlbumsList.prototype.displaySlideAlbums = function(resp) {
 				{"mData" : "title"}, 
 				{"mData" : "files"}, 
 				{"mData" : "customer"},
-				{"mData" : "modificationDate", "iDataSort" : 7},
+				{"mData" : "modificationDate"},
 				{"mData" : "content"}, 
 				{"mData" : "edit" }, 
 				{"mData" : "delete"}, 
@@ -216,7 +295,8 @@ SlideAlbumsList.prototype.displaySlideAlbums = function(resp) {
 				}, 
 				{
 					"width" : "20%",
-					"targets" : 1
+					"targets" : 1,
+					"sortable" : false
 				}, 
 				{
 					"targets" : 7,
@@ -235,9 +315,7 @@ SlideAlbumsList.prototype.displaySlideAlbums = function(resp) {
 			"stateLoadParams" : function(oSettings, oData) { // load selected customers from the jquery datatables state and pre-select the filter drop-down																			
 				$("#selectCustomer").val(oData['customers']);
 				$("#selectCustomer").multiselect("refresh");
-					var table = $('#slideAlbumsTable').DataTable();
-					table.draw();
-					return true;
+					return true; // the state is loaded before the first page request, which sends the pre-selected customers
 				},
 				"language" : {
 					"decimal" : "",
@@ -265,19 +343,6 @@ SlideAlbumsList.prototype.displaySlideAlbums = function(resp) {
 				}
 			});
 
-	var table = $('#slideAlbumsTable').DataTable();
-
-	// customers filter applied to table rows
-	$.fn['dataTable'].ext.search.push(function(settings, data, dataIndex) {
-		var selectedCustomesList = $("#selectCustomer").val();
-		var customer = data[2];
-		if ($.inArray(customer, selectedCustomesList) > -1) {
-			return true;
-		} else {
-			return false;
-		}
-	});
-
 	// delete button click handler
 	$('#slideAlbumsTable tbody').on('click', '.delete-slide-album', (function(e) {
 		var rowToDelete = e.target; // NOTE target might be the the link element <a> or the inner <span> element hodling the button icon (depending on the exact mouse position)
@@ -307,35 +372,19 @@ SlideAlbumsList.prototype.displaySlideAlbums = function(resp) {
 		self.editSlideAlbumDialog.show(this);
 	});
 
-	$('#slideAlbumsCount').html("You have " + slideAlbumsObjects.length + " slide albums in your workspace");
-
 	// Note: initialize create/edit dialogs and the filter component here,
 	// when the slide albums list is already initialized and attached to the DOM
 	this.createSlideAlbumDialog.initialize();
 	this.editSlideAlbumDialog.initialize();
-
-	// at the end re-draw the table when the customes pre-selected are loaded
-	var table = $('#slideAlbumsTable').DataTable();
-	table.draw(false);
 };
 
 /**
  * Create Slide Album WS callback - add the created slide album row to the table.
  */
 SlideAlbumsList.prototype.addSlideAlbum = function(response) {
-	// add row to the table and update the slide albums counter
-	var slideAlbum = response;
+	// show the newest slide albums first, the page and the counter are reloaded from the server
 	var table = $('#slideAlbumsTable').DataTable();
-	var newSlideAlbumRowData = buildRowData(slideAlbum);
-	table.row.add(newSlideAlbumRowData);
-	$("#slideAlbumsTable").dataTable().fnSort([ [ 3, "desc" ] ]);
-	var countNr = table.data().length;
-	$('#slideAlbumsCount').html("You have " + countNr + " slide albums in your workspace");
-
-	// apply table filter
-	if ($.inArray(slideAlbum['customer'], $("#selectCustomer").val()) == -1) {
-		// this.slideAlbumsFilter.filterList(slideAlbum.customer, false);
-	}
+	table.order([ 3, "desc" ]).draw();
 };
 
 /**
@@ -343,20 +392,9 @@ SlideAlbumsList.prototype.addSlideAlbum = function(response) {
  */
 SlideAlbumsList.prototype.updateSlideAlbum = function(response) {
 
-	// find current row being edited
-	var targetElement = null;
-	$('.edit-slide-album').each(function() {
-		if ($(this).data("name") == response['slideAlbum']['oldTitle'] && $(this).data("customer") == response['slideAlbum']['customer']) {
-				targetElement = this;
-		}
-	});
-
-	// update the corresponding row
+	// reload the page from the server, the updated slide album comes first
 	var table = $('#slideAlbumsTable').DataTable();
-	var rowToUpdate = targetElement.parentNode.parentNode;
-	var updatedRowData = buildRowData(response['slideAlbum']);
-	table.row(rowToUpdate).data(updatedRowData);
-	$("#slideAlbumsTable").dataTable().fnSort([ [ 3, "desc" ] ]);
+	table.order([ 3, "desc" ]).draw();
 
 	// notify user for the successful completion of the operation
 	displayUserNotification('success', [ localize('Slide Album was successfully updated.') ]);
@@ -368,19 +406,9 @@ SlideAlbumsList.prototype.updateSlideAlbum = function(response) {
  */
 SlideAlbumsList.prototype.removeSlideAlbum = function(title, customer) {
 
-	var targetElement = null; // find current row to be deleted
-	$('.delete-slide-album').each(function() {
-		if ($(this).data("name") == title && $(this).data("customer") == customer) {
-			targetElement = this;
-		}
-	});
-
-	// remove the row, update table and counter
-	var rowToDelete = targetElement.parentNode.parentNode;
+	// reload the current page and the counter from the server
 	var table = $('#slideAlbumsTable').DataTable();
-	table.row(rowToDelete).remove().draw();
-	var countNumber = table.data().length;
-	$('#slideAlbumsCount').html("You have " + countNumber + " slide albums in your workspace");
+	table.draw(false);
 };
 
 /**
@@ -490,15 +518,7 @@ CreateSlideAlbumDialog.prototype.validateForm = function() {
 	}
 	// check for duplicate titles for the same customer
 	if (title != null && title != "") {
-		var table = $("#slideAlbumsTable").DataTable();
-		var hasDuplicates = false;
-		table.rows().nodes().each(function(idx, tr) {
-			var rowData = table.row(idx).data();
-			if (rowData['titleStr'].toLowerCase() == title.toLowerCase() && rowData['customer'] == customer) { // check case insensitive!
-				hasDuplicates = true;
-			}
-		});
-		if (hasDuplicates) {
+		if (this.slideAlbumsMgr.hasSlideAlbum(title, customer)) { // check case insensitive!
 			errorMessages.push(localize("Duplicate slide album title. Please, select different title."));
 		}
 	}
@@ -670,15 +690,7 @@ EditSlideAlbumDialog.prototype.validateForm = function() {
 	// check for duplicate titles for the same customer if the title was changed
 	if (title != oldTitle) {
 		if (title != null && title != "") {
-			var table = $("#slideAlbumsTable").DataTable();
-			var hasDuplicates = false;
-			table.rows().nodes().each(function(idx, tr) {
-				var rowData = table.row(idx).data();
-				if (rowData['titleStr'].toLowerCase() == title.toLowerCase() && rowData['customer'] == customer && oldTitle.toLowerCase() != title.toLowerCase()) { // check case insensitive!
-					hasDuplicates = true;
-				}
-			});
-			if (hasDuplicates) {
+			if (oldTitle.toLowerCase() != title.toLowerCase() && this.slideAlbumsMgr.hasSlideAlbum(title, customer)) { // check case insensitive!
 				errorMessages['messages'].push(localize("Duplicate slide album title. Please, select different title."));
 			}
 		}
@@ -875,7 +887,7 @@ SlideAlbumsFilter.prototype.filterList = function(customerName, checked) {
 
 /** **************************** Helper Methods***************************** */
 
-function buildFilesColumn(files, filePath) {
+function buildFilesColumn(files, filePath, previewUrl) {
 	var filesCol = '<div>';
 	var svg = null;
 	var svgIndex = -1;
@@ -898,11 +910,12 @@ function buildFilesColumn(files, filePath) {
 		return null;
 	}
 
-	// add the svg first
+	// add the svg first, shown by its preview (the file type icon if there is none)
 	filesCol += '<a href="' + filePath + svg['name'] + "." + svg['ext']
 			+ '"> <img title="' + svg['name'] + "." + svg['ext']
-			+ '" class="file-type-icon" data-filename="' + svg['name']
-			+ '" src="images/' + svg['ext'] + '.png" /> </a>';
+			+ '" class="file-type-icon slidealbum-preview" data-filename="' + svg['name']
+			+ '" loading="lazy" src="' + previewUrl
+			+ '" onerror="this.onerror=null;this.src=\'images/' + svg['ext'] + '.png\'" /> </a>';
 	// add the animationfiles
 	for (var j = 0; j < animationFiles.length; j++) {
 		var pathToFile = filePath + animationFiles[j]['name'] + "."
@@ -968,7 +981,12 @@ function buildRowData(slideAlbum) {
 	var customerCol = slideAlbum['customer'];
 	var filePath = config['workspace_folder_path'] + "/"
 			+ slideAlbum['customer'] + "/" + slideAlbum['title'] + "/";
-	var filesCol = buildFilesColumn(slideAlbum['files'], filePath);
+	// versioned by the modification date, so the browser keeps the preview until the slide album changes
+	var previewUrl = "http://localhost:6789/spark/api/slidealbums/"
+			+ encodeURIComponent(slideAlbum['customer']) + "/"
+			+ encodeURIComponent(slideAlbum['title']) + "/preview?v="
+			+ slideAlbum['modificationDate'];
+	var filesCol = buildFilesColumn(slideAlbum['files'], filePath, previewUrl);
 	var rowData = {
 		'title' : titleCol,
 		'files' : filesCol,
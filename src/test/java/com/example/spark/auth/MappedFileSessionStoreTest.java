@@ -0,0 +1,128 @@
+package com.example.spark.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Sessions in a memory-mapped file: reopening, compaction and growth of the file.
+ * @author Elitza Haltakova
+ *
+ */
+public class MappedFileSessionStoreTest {
+
+	// the smallest mapping of a new file
+	private static final int SIZE = 16 + 4096;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path file;
+	private MappedFileSessionStore store;
+
+	@Before
+	public void setUp() throws IOException {
+		file = folder.getRoot().toPath().resolve("sessions.dat");
+		store = new MappedFileSessionStore(file, 0);
+	}
+
+	@After
+	public void tearDown() {
+		store.close();
+	}
+
+	@Test
+	public void sessionsSurviveReopening() {
+		store.put("s1", userContext(1), expiresIn(60000));
+		store.put("s2", userContext(2), expiresIn(60000));
+		store.put("s3", userContext(3), expiresIn(60000));
+		store.remove("s2");
+		store.put("s3", userContext(33), expiresIn(60000));
+		reopen();
+
+		assertEquals("user1", store.get("s1").getUser().getUsername());
+		assertNull(store.get("s2"));
+		assertEquals("user33", store.get("s3").getUser().getUsername());
+	}
+
+	@Test
+	public void expiredSessionsAreDropped() {
+		store.put("s1", userContext(1), expiresIn(-1));
+		store.put("s2", userContext(2), expiresIn(60000));
+
+		assertNull(store.get("s1"));
+		reopen();
+		assertNull(store.get("s1"));
+		assertNotNull(store.get("s2"));
+	}
+
+	@Test
+	public void fullFileIsCompactedInPlace() throws IOException {
+		// many times the size of the file, with only the last sessions live
+		for(int i = 0; i < 1000; i++) {
+			store.put("s" + i, userContext(i), expiresIn(60000));
+			if(i >= 5) {
+				store.remove("s" + (i - 5));
+			}
+		}
+		store.put("expired", userContext(0), expiresIn(-1));
+		for(int i = 1000; i < 1100; i++) {
+			store.put("s" + i, userContext(i), expiresIn(60000));
+			store.remove("s" + i);
+		}
+
+		assertEquals(SIZE, Files.size(file));
+		assertLive(995, 1000);
+		reopen();
+		assertLive(995, 1000);
+		assertNull(store.get("s994"));
+		assertNull(store.get("expired"));
+	}
+
+	@Test
+	public void fileGrowsWhenCompactionIsNotEnough() throws IOException {
+		for(int i = 0; i < 200; i++) {
+			store.put("s" + i, userContext(i), expiresIn(60000));
+		}
+
+		assertTrue(Files.size(file) > SIZE);
+		assertLive(0, 200);
+		reopen();
+		assertLive(0, 200);
+	}
+
+	private void assertLive(int from, int to) {
+		for(int i = from; i < to; i++) {
+			UserContext userContext = store.get("s" + i);
+			assertNotNull("s" + i, userContext);
+			assertEquals("user" + i, userContext.getUser().getUsername());
+			assertEquals(Arrays.asList("ACME", "customer" + i), userContext.getUser().getCustomers());
+		}
+	}
+
+	private void reopen() {
+		store.close();
+		store = new MappedFileSessionStore(file, 0);
+	}
+
+	private static UserContext userContext(int id) {
+		User user = new User(id, "user" + id, "First", "Last", false, false, Arrays.asList("ACME", "customer" + id));
+		return new UserContext("token-" + id, user);
+	}
+
+	private static long expiresIn(long millis) {
+		return System.currentTimeMillis() + millis;
+	}
+}
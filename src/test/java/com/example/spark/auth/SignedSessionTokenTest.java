@@ -0,0 +1,187 @@
+package com.example.spark.auth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * ES256 session tokens: the conversion between JWS and DER signatures and the local verification.
+ * @author Elitza Haltakova
+ *
+ */
+public class SignedSessionTokenTest {
+
+	private static final List<String> CUSTOMERS = Arrays.asList("ACME", "Globex");
+
+	private KeyPair keyPair;
+	private SessionTokenVerifier verifier;
+
+	@Before
+	public void setUp() throws GeneralSecurityException {
+		keyPair = generateKeyPair();
+		verifier = new SessionTokenVerifier(100, 30, 60, TimeUnit.SECONDS);
+		verifier.setKeys(Collections.singletonMap("k1", keyPair.getPublic()));
+		verifier.setRevocations(Collections.<String>emptyList());
+	}
+
+	@Test
+	public void derSignaturesRoundTrip() throws GeneralSecurityException {
+		// half of the integers have the high bit set and take 33 DER bytes, about one signature in 128 has one shorter than 32 bytes
+		Signature signer = SignedSessionToken.signature();
+		signer.initSign(keyPair.getPrivate());
+		for(int i = 0; i < 1000; i++) {
+			signer.update(("content " + i).getBytes(StandardCharsets.US_ASCII));
+			byte[] der = signer.sign();
+			byte[] concatenated = SignedSessionToken.derToConcatenated(der);
+			assertEquals(64, concatenated.length);
+			assertArrayEquals(der, SignedSessionToken.concatenatedToDer(concatenated));
+		}
+	}
+
+	@Test
+	public void derOfShortAndHighBitIntegers() {
+		byte[] concatenated = new byte[64];
+		concatenated[31] = 0x01; // r = 1
+		concatenated[32] = (byte) 0x80; // s with the high bit set
+		byte[] der = SignedSessionToken.concatenatedToDer(concatenated);
+
+		byte[] expected = new byte[6 + 1 + 33];
+		expected[0] = 0x30;
+		expected[1] = (byte) (expected.length - 2);
+		expected[2] = 0x02;
+		expected[3] = 1;
+		expected[4] = 0x01;
+		expected[5] = 0x02;
+		expected[6] = 33;
+		expected[7] = 0x00;
+		expected[8] = (byte) 0x80;
+		assertArrayEquals(expected, der);
+		assertArrayEquals(concatenated, SignedSessionToken.derToConcatenated(der));
+	}
+
+	@Test
+	public void parse() {
+		String token = SignedSessionToken.sign("k1", keyPair.getPrivate(), "t1", "jdoe", 1234567890L, CUSTOMERS);
+		SignedSessionToken parsed = SignedSessionToken.parse(token);
+
+		assertEquals("k1", parsed.getKeyId());
+		assertEquals("t1", parsed.getTokenId());
+		assertEquals("jdoe", parsed.getSubject());
+		assertEquals(1234567890L, parsed.getExpiresAt());
+		assertEquals(CUSTOMERS, parsed.getCustomers());
+		assertNull(SignedSessionToken.parse("opaque-token"));
+		assertNull(SignedSessionToken.parse("a.b.c"));
+	}
+
+	@Test
+	public void publicKeyFromCoordinates() throws GeneralSecurityException {
+		ECPublicKey key = (ECPublicKey) keyPair.getPublic();
+		byte[] x = SignedSessionToken.coordinate(key.getW().getAffineX());
+		byte[] y = SignedSessionToken.coordinate(key.getW().getAffineY());
+		verifier.setKeys(Collections.singletonMap("k1", SignedSessionToken.publicKey(x, y)));
+
+		assertEquals(Boolean.TRUE, verifier.verify(token("t1", 60), CUSTOMERS));
+	}
+
+	@Test
+	public void verify() {
+		for(int i = 0; i < 200; i++) {
+			assertEquals(Boolean.TRUE, verifier.verify(token("t" + i, 60), CUSTOMERS));
+		}
+		assertEquals(Boolean.TRUE, verifier.verify(token("t1", 60), Arrays.asList("ACME")));
+		assertEquals(Boolean.TRUE, verifier.verify(token("t1", 60), null));
+	}
+
+	@Test
+	public void tamperedSignature() {
+		String token = token("t1", 60);
+		int signatureStart = token.lastIndexOf('.') + 1;
+		char c = token.charAt(signatureStart + 10);
+		String tampered = token.substring(0, signatureStart + 10) + (c == 'A' ? 'B' : 'A') + token.substring(signatureStart + 11);
+
+		assertEquals(Boolean.FALSE, verifier.verify(tampered, CUSTOMERS));
+		assertEquals(Boolean.FALSE, verifier.verify(token.substring(0, token.length() - 4), CUSTOMERS));
+		assertEquals(Boolean.TRUE, verifier.verify(token, CUSTOMERS));
+		assertEquals(2, verifier.getInvalid());
+	}
+
+	@Test
+	public void tamperedClaims() {
+		String token = token("t1", 60);
+		String other = SignedSessionToken.sign("k1", keyPair.getPrivate(), "t1", "jdoe", System.currentTimeMillis() / 1000 + 60,
+				Arrays.asList("ACME", "Globex", "Initech"));
+		String[] parts = token.split("\\.");
+		String[] otherParts = other.split("\\.");
+
+		assertEquals(Boolean.FALSE, verifier.verify(parts[0] + "." + otherParts[1] + "." + parts[2], Arrays.asList("Initech")));
+	}
+
+	@Test
+	public void signedByAnotherKey() throws GeneralSecurityException {
+		String token = SignedSessionToken.sign("k1", generateKeyPair().getPrivate(), "t1", "jdoe", System.currentTimeMillis() / 1000 + 60, CUSTOMERS);
+
+		assertEquals(Boolean.FALSE, verifier.verify(token, CUSTOMERS));
+	}
+
+	@Test
+	public void rejectedClaims() {
+		assertEquals(Boolean.FALSE, verifier.verify(token("t1", -60), CUSTOMERS));
+		assertEquals(Boolean.FALSE, verifier.verify(token("t2", 60), Arrays.asList("Initech")));
+		verifier.setRevocations(Arrays.asList("t3"));
+		assertEquals(Boolean.FALSE, verifier.verify(token("t3", 60), CUSTOMERS));
+		String token = token("t4", 60);
+		assertEquals(Boolean.TRUE, verifier.verify(token, CUSTOMERS));
+		verifier.revoke(token);
+		assertEquals(Boolean.FALSE, verifier.verify(token, CUSTOMERS));
+	}
+
+	@Test
+	public void notVerifiableLocally() throws GeneralSecurityException {
+		assertNull(verifier.verify("opaque-token", CUSTOMERS));
+		assertNull(verifier.verify(SignedSessionToken.sign("k2", keyPair.getPrivate(), "t1", "jdoe", System.currentTimeMillis() / 1000 + 60, CUSTOMERS), CUSTOMERS));
+
+		SessionTokenVerifier withoutRevocations = new SessionTokenVerifier(100, 30, 60, TimeUnit.SECONDS);
+		withoutRevocations.setKeys(Collections.singletonMap("k1", keyPair.getPublic()));
+		assertNull(withoutRevocations.verify(token("t1", 60), CUSTOMERS));
+	}
+
+	@Test
+	public void replacedKey() throws GeneralSecurityException {
+		String token = token("t1", 60);
+		assertEquals(Boolean.TRUE, verifier.verify(token, CUSTOMERS));
+		Map<String, PublicKey> keys = new HashMap<String, PublicKey>();
+		keys.put("k1", generateKeyPair().getPublic());
+		verifier.setKeys(keys);
+
+		// verified again, not taken from the tokens verified with the replaced key
+		assertEquals(Boolean.FALSE, verifier.verify(token, CUSTOMERS));
+	}
+
+	private String token(String tokenId, long expiresInSeconds) {
+		return SignedSessionToken.sign("k1", keyPair.getPrivate(), tokenId, "jdoe", System.currentTimeMillis() / 1000 + expiresInSeconds, CUSTOMERS);
+	}
+
+	private static KeyPair generateKeyPair() throws GeneralSecurityException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(new ECGenParameterSpec("secp256r1"));
+		return generator.generateKeyPair();
+	}
+}
@@ -0,0 +1,79 @@
+package com.example.spark.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Binary encoding of the user contexts kept by the session stores.
+ * @author Elitza Haltakova
+ *
+ */
+public class UserContextCodecTest {
+
+	@Test
+	public void roundTrip() {
+		User user = new User(300, "jdoe", "J\u00f6rg", "Doe", true, false, Arrays.asList("ACME", "Globex \u00dcnited"));
+		UserContext decoded = roundTrip(new UserContext("token-1", user));
+
+		assertEquals("token-1", decoded.getSessionToken());
+		assertEquals(300, decoded.getUser().getId());
+		assertEquals("jdoe", decoded.getUser().getUsername());
+		assertEquals("J\u00f6rg", decoded.getUser().getFirstName());
+		assertEquals("Doe", decoded.getUser().getLastName());
+		assertTrue(decoded.getUser().isAdmin());
+		assertFalse(decoded.getUser().shouldChangePassword());
+		assertEquals(Arrays.asList("ACME", "Globex \u00dcnited"), decoded.getUser().getCustomers());
+	}
+
+	@Test
+	public void roundTripOfNullsAndLargeIds() {
+		User user = new User(Integer.MAX_VALUE, "jdoe", null, "", false, true, null);
+		UserContext decoded = roundTrip(new UserContext(null, user));
+
+		assertNull(decoded.getSessionToken());
+		assertEquals(Integer.MAX_VALUE, decoded.getUser().getId());
+		assertNull(decoded.getUser().getFirstName());
+		assertEquals("", decoded.getUser().getLastName());
+		assertTrue(decoded.getUser().shouldChangePassword());
+		assertNull(decoded.getUser().getCustomers());
+	}
+
+	@Test
+	public void decodeAdvancesPastTheUserContext() {
+		byte[] first = UserContextCodec.encode(new UserContext("a", new User(1, "one", null, null, false, false, null)));
+		byte[] second = UserContextCodec.encode(new UserContext("b", new User(2, "two", null, null, false, false, null)));
+		ByteBuffer in = ByteBuffer.allocate(first.length + second.length).put(first).put(second);
+		in.flip();
+
+		assertEquals("one", UserContextCodec.decode(in).getUser().getUsername());
+		assertEquals("two", UserContextCodec.decode(in).getUser().getUsername());
+		assertFalse(in.hasRemaining());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownVersion() {
+		byte[] bytes = UserContextCodec.encode(new UserContext("a", new User(1, "one", null, null, false, false, null)));
+		bytes[0] = UserContextCodec.VERSION + 1;
+		UserContextCodec.decode(ByteBuffer.wrap(bytes));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void stringLongerThanTheData() {
+		byte[] bytes = UserContextCodec.encode(new UserContext("token", new User(1, "one", null, null, false, false, null)));
+		UserContextCodec.decode(ByteBuffer.wrap(bytes, 0, 4));
+	}
+
+	private static UserContext roundTrip(UserContext userContext) {
+		ByteBuffer in = ByteBuffer.wrap(UserContextCodec.encode(userContext));
+		UserContext decoded = UserContextCodec.decode(in);
+		assertFalse(in.hasRemaining());
+		return decoded;
+	}
+}
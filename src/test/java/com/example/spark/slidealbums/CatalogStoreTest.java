@@ -0,0 +1,244 @@
+package com.example.spark.slidealbums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Loading the slide albums catalog state from a snapshot and journals left by crashes.
+ * @author Elitza Haltakova
+ *
+ */
+public class CatalogStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = folder.newFolder("catalog").toPath();
+	}
+
+	@Test
+	public void loadWithoutSnapshot() {
+		assertFalse(new CatalogStore(dir).load(new RecordingLoader()));
+	}
+
+	@Test
+	public void loadSnapshotAndJournal() {
+		CatalogStore store = checkpointed(slideAlbum("a", "ACME", 1), slideAlbum("b", "ACME", 2));
+		store.appendPut(slideAlbum("c", "ACME", 3), true);
+		store.appendRemove("a", "ACME");
+		store.close();
+
+		RecordingLoader loaded = load();
+		assertEquals(Arrays.asList("b", "c"), loaded.titles("ACME"));
+		assertTrue(loaded.racy.contains("ACME/c"));
+		assertEquals(3, loaded.slideAlbums.get("ACME").get("c").getModificationDate());
+		assertEquals("c", loaded.slideAlbums.get("ACME").get("c").getFiles().get(0).getName());
+	}
+
+	@Test
+	public void tornRecordIsTruncated() throws IOException {
+		CatalogStore store = checkpointed();
+		store.appendPut(slideAlbum("a", "ACME", 1), false);
+		store.close();
+		long complete = Files.size(journal());
+		store = new CatalogStore(dir);
+		store.load(new RecordingLoader());
+		store.appendPut(slideAlbum("b", "ACME", 2), false);
+		store.close();
+		truncate(journal(), Files.size(journal()) - 5);
+
+		RecordingLoader loaded = new RecordingLoader();
+		store = new CatalogStore(dir);
+		assertTrue(store.load(loaded));
+		assertEquals(Arrays.asList("a"), loaded.titles("ACME"));
+		assertEquals(complete, Files.size(journal()));
+
+		// records appended after the dropped one are replayed
+		store.appendPut(slideAlbum("c", "ACME", 3), false);
+		store.close();
+		assertEquals(Arrays.asList("a", "c"), load().titles("ACME"));
+	}
+
+	@Test
+	public void checksumMismatchEndsReplay() throws IOException {
+		CatalogStore store = checkpointed();
+		store.appendPut(slideAlbum("a", "ACME", 1), false);
+		store.close();
+		long first = Files.size(journal());
+		store = new CatalogStore(dir);
+		store.load(new RecordingLoader());
+		store.appendPut(slideAlbum("b", "ACME", 2), false);
+		store.appendPut(slideAlbum("c", "ACME", 3), false);
+		store.close();
+		// a byte of the title of the second record
+		byte[] bytes = Files.readAllBytes(journal());
+		bytes[(int) first + 12 + 1 + 2 + "ACME".length() + 2] ^= 0x20;
+		Files.write(journal(), bytes);
+
+		RecordingLoader loaded = load();
+		assertEquals(Arrays.asList("a"), loaded.titles("ACME"));
+		assertEquals(first, Files.size(journal()));
+	}
+
+	@Test
+	public void invalidSnapshotIsIgnored() throws IOException {
+		checkpointed(slideAlbum("a", "ACME", 1)).close();
+		Path snapshot = dir.resolve("catalog.snapshot");
+		byte[] bytes = Files.readAllBytes(snapshot);
+		bytes[bytes.length / 2] ^= 0x01;
+		Files.write(snapshot, bytes);
+
+		assertFalse(new CatalogStore(dir).load(new RecordingLoader()));
+	}
+
+	@Test
+	public void rotatedJournalIsReplayedFirst() throws IOException {
+		CatalogStore store = checkpointed(slideAlbum("a", "ACME", 1));
+		store.appendPut(slideAlbum("a", "ACME", 2), false);
+		store.appendPut(slideAlbum("b", "ACME", 2), false);
+		store.close();
+		// checkpoint interrupted after the rotation, before the snapshot was written
+		Files.move(journal(), dir.resolve("catalog.journal.1"));
+		store = new CatalogStore(dir);
+		store.load(new RecordingLoader());
+		store.appendPut(slideAlbum("a", "ACME", 3), false);
+		store.appendRemove("b", "ACME");
+		store.close();
+
+		RecordingLoader loaded = load();
+		assertEquals(Arrays.asList("a"), loaded.titles("ACME"));
+		assertEquals(3, loaded.slideAlbums.get("ACME").get("a").getModificationDate());
+
+		// the next checkpoint replaces both journals
+		store = new CatalogStore(dir);
+		store.load(new RecordingLoader());
+		store.checkpoint(() -> state(slideAlbum("a", "ACME", 3)), slideAlbum -> false, customer -> -1);
+		store.close();
+		assertFalse(Files.exists(dir.resolve("catalog.journal.1")));
+		assertEquals(0, Files.size(journal()));
+		assertEquals(Arrays.asList("a"), load().titles("ACME"));
+	}
+
+	@Test
+	public void customerDirModifiedIsDroppedByJournaledChanges() {
+		CatalogStore store = new CatalogStore(dir);
+		store.load(new RecordingLoader());
+		Map<String, Long> modified = new HashMap<String, Long>();
+		modified.put("ACME", 1000L);
+		modified.put("Globex", 2000L);
+		store.checkpoint(() -> state(slideAlbum("a", "ACME", 1), slideAlbum("a", "Globex", 1), slideAlbum("a", "Initech", 1)),
+				slideAlbum -> false, customer -> modified.getOrDefault(customer, -1L));
+		store.appendRemove("a", "Globex");
+		store.close();
+
+		RecordingLoader loaded = load();
+		assertEquals(Collections.singletonMap("ACME", 1000L), loaded.customerDirsModified);
+		assertNull(loaded.slideAlbums.get("Globex").get("a"));
+	}
+
+	private CatalogStore checkpointed(SlideAlbum... slideAlbums) {
+		CatalogStore store = new CatalogStore(dir);
+		assertFalse(store.load(new RecordingLoader()));
+		store.checkpoint(() -> state(slideAlbums), slideAlbum -> false, customer -> -1);
+		return store;
+	}
+
+	private RecordingLoader load() {
+		RecordingLoader loader = new RecordingLoader();
+		CatalogStore store = new CatalogStore(dir);
+		assertTrue(store.load(loader));
+		store.close();
+		return loader;
+	}
+
+	private Path journal() {
+		return dir.resolve("catalog.journal");
+	}
+
+	private static void truncate(Path file, long size) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(size);
+		}
+	}
+
+	private static SlideAlbum slideAlbum(String title, String customer, long modificationDate) {
+		return new SlideAlbum.Builder(title, customer).modificationDate(modificationDate).svg(title)
+				.files(Arrays.asList(new SlideAlbumFile("svg", title))).build();
+	}
+
+	private static Map<String, Collection<SlideAlbum>> state(SlideAlbum... slideAlbums) {
+		Map<String, Collection<SlideAlbum>> state = new LinkedHashMap<String, Collection<SlideAlbum>>();
+		for(SlideAlbum slideAlbum : slideAlbums) {
+			state.computeIfAbsent(slideAlbum.getCustomer(), customer -> new ArrayList<SlideAlbum>()).add(slideAlbum);
+		}
+		return state;
+	}
+
+	private static class RecordingLoader implements CatalogStore.Loader {
+
+		private final Map<String, Map<String, SlideAlbum>> slideAlbums = new TreeMap<String, Map<String, SlideAlbum>>();
+		private final Collection<String> racy = new ArrayList<String>();
+		private final Map<String, Long> customerDirsModified = new HashMap<String, Long>();
+
+		@Override
+		public void customer(String customer) {
+			slideAlbums.computeIfAbsent(customer, c -> new TreeMap<String, SlideAlbum>());
+		}
+
+		@Override
+		public void put(SlideAlbum slideAlbum, boolean isRacy) {
+			customer(slideAlbum.getCustomer());
+			slideAlbums.get(slideAlbum.getCustomer()).put(slideAlbum.getTitle(), slideAlbum);
+			if(isRacy) {
+				racy.add(slideAlbum.getCustomer() + "/" + slideAlbum.getTitle());
+			}
+		}
+
+		@Override
+		public void remove(String title, String customer) {
+			if(slideAlbums.containsKey(customer)) {
+				slideAlbums.get(customer).remove(title);
+			}
+		}
+
+		@Override
+		public void removeCustomer(String customer) {
+			slideAlbums.remove(customer);
+		}
+
+		@Override
+		public void customerDirModified(String customer, long modified) {
+			customerDirsModified.put(customer, modified);
+		}
+
+		List<String> titles(String customer) {
+			return new ArrayList<String>(slideAlbums.get(customer).keySet());
+		}
+	}
+}